@@ -0,0 +1,118 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads a document from chunks of bytes as they arrive, for example from
+ * a non-blocking server, without keeping a thread waiting for the rest.
+ * The tree is built as each chunk is read, so only the unfinished end of
+ * the last chunk is kept besides it.
+ * <p>
+ * The document must be UTF-8. Any DOCTYPE is skipped, so files can't use
+ * entities other than the predefined ones. Otherwise the document is read
+ * in the same way as by {@link MeiXmlReader}, with the same options.
+ * <pre>
+ * MeiAsyncReader reader = new MeiAsyncReader();
+ * reader.getResult().thenAccept(doc -&gt; ...);
+ * // for each chunk
+ * reader.feed(chunk);
+ * // when there are no more
+ * reader.end();
+ * </pre>
+ * A reader may be fed from different threads, but only one chunk at a
+ * time, in order.
+ */
+public class MeiAsyncReader {
+
+    private final MeiReaderOptions options;
+    private final MeiXmlReader reader;
+    private final MeiXmlTokenizer tokenizer;
+    private final CompletableFuture<MeiDocument> result = new CompletableFuture<MeiDocument>();
+
+    public MeiAsyncReader() {
+        this(new MeiReaderOptions());
+    }
+
+    public MeiAsyncReader(MeiReaderOptions options) {
+        this.options = options;
+        this.reader = new MeiXmlReader(options);
+        this.tokenizer = new MeiXmlTokenizer(reader.newHandler(), options.isRejectDoctype());
+    }
+
+    /**
+     * Read the next chunk of the document. All of the chunk is consumed.
+     * If the document is already finished or has failed, the chunk is
+     * ignored.
+     */
+    public synchronized void feed(ByteBuffer chunk) {
+        if (result.isDone()) {
+            chunk.position(chunk.limit());
+            return;
+        }
+        try {
+            tokenizer.feed(chunk);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    public void feed(byte[] bytes, int offset, int length) {
+        feed(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Say that there are no more chunks, and complete the result with the
+     * document or with the exception that made it unreadable.
+     * If the options have a schema, the document is validated first.
+     */
+    public synchronized void end() {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            tokenizer.end();
+            MeiDocument doc = reader.readDocument();
+            if (options.getSchema() != null) {
+                options.getSchema().validate(doc);
+            }
+            result.complete(doc);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Get the document, which is completed by {@link #end()}, or
+     * exceptionally with a {@link MeiXmlReader.MeiXmlReadException} as soon
+     * as a chunk can't be read. Cancelling it makes the reader ignore the
+     * rest of the chunks.
+     */
+    public CompletableFuture<MeiDocument> getResult() {
+        return result;
+    }
+}
@@ -38,6 +38,11 @@ public class MeiAttribute {
     private final MeiNamespace namespace;
     private final String name;
     private String value;
+    /**
+     * The element that holds this attribute, which is told when the value
+     * changes. An attribute belongs to one element at a time.
+     */
+    private MeiElement owner;
 
     /**
      * Create an attribute with a specified namespace.
@@ -73,10 +78,32 @@ public class MeiAttribute {
     }
 
     /**
-     * Set the value of this attribute.
+     * Set the value of this attribute. If the attribute belongs to an
+     * element, the element's document is told about the change.
      */
     public void setValue(String value) {
+        String old = this.value;
         this.value = value;
+        if (owner != null) {
+            owner.attributeChanged(this, old);
+        }
+    }
+
+    /* package */ MeiElement getOwner() {
+        return owner;
+    }
+
+    /* package */ void setOwner(MeiElement owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Stop telling an element about changes, if it is the owner.
+     */
+    /* package */ void release(MeiElement element) {
+        if (owner == element) {
+            owner = null;
+        }
     }
 
     /**
@@ -104,7 +131,8 @@ public class MeiAttribute {
         if (obj == this) {
             return true;
         }
-        if (obj.getClass() != getClass()) {
+        // Attributes shared through a MeiAttributeTable are a subclass
+        if (!(obj instanceof MeiAttribute)) {
             return false;
         }
         MeiAttribute rhs = (MeiAttribute) obj;
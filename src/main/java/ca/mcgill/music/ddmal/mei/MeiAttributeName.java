@@ -0,0 +1,122 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names of commonly used MEI attributes.
+ * {@link MeiXmlReader} gives attributes with these names the constant as
+ * their name, so looking them up with the constant finds them by
+ * identity instead of comparing characters.
+ */
+public final class MeiAttributeName {
+    public static final String ACCID = "accid";
+    public static final String ACCID_GES = "accid.ges";
+    public static final String ARTIC = "artic";
+    public static final String BEAM = "beam";
+    public static final String COLOR = "color";
+    public static final String COPYOF = "copyof";
+    public static final String CORRESP = "corresp";
+    public static final String CURVEDIR = "curvedir";
+    public static final String DOTS = "dots";
+    public static final String DUR = "dur";
+    public static final String DUR_GES = "dur.ges";
+    public static final String ENCLOSE = "enclose";
+    public static final String ENDID = "endid";
+    public static final String FACS = "facs";
+    public static final String FERMATA = "fermata";
+    public static final String FORM = "form";
+    public static final String GRACE = "grace";
+    public static final String KEY_ACCID = "key.accid";
+    public static final String KEY_MODE = "key.mode";
+    public static final String KEY_PNAME = "key.pname";
+    public static final String KEY_SIG = "key.sig";
+    public static final String LABEL = "label";
+    public static final String LAYER = "layer";
+    public static final String LINES = "lines";
+    public static final String LRX = "lrx";
+    public static final String LRY = "lry";
+    public static final String MEIVERSION = "meiversion";
+    public static final String METER_COUNT = "meter.count";
+    public static final String METER_UNIT = "meter.unit";
+    public static final String N = "n";
+    public static final String NEXT = "next";
+    public static final String NUM = "num";
+    public static final String NUMBASE = "numbase";
+    public static final String OCT = "oct";
+    public static final String OCT_GES = "oct.ges";
+    public static final String PLACE = "place";
+    public static final String PLIST = "plist";
+    public static final String PNAME = "pname";
+    public static final String PNAME_GES = "pname.ges";
+    public static final String PREV = "prev";
+    public static final String RESP = "resp";
+    public static final String SAMEAS = "sameas";
+    public static final String SHAPE = "shape";
+    public static final String SIZE = "size";
+    public static final String SLUR = "slur";
+    public static final String SOURCE = "source";
+    public static final String STAFF = "staff";
+    public static final String STARTID = "startid";
+    public static final String STEM_DIR = "stem.dir";
+    public static final String SUBTYPE = "subtype";
+    public static final String TARGET = "target";
+    public static final String TIE = "tie";
+    public static final String TSTAMP = "tstamp";
+    public static final String TSTAMP2 = "tstamp2";
+    public static final String TUPLET = "tuplet";
+    public static final String TYPE = "type";
+    public static final String ULX = "ulx";
+    public static final String ULY = "uly";
+    public static final String UNIT = "unit";
+    public static final String VISIBLE = "visible";
+
+    private static final Map<String, String> NAMES = new HashMap<String, String>();
+    static {
+        for (Field f : MeiAttributeName.class.getFields()) {
+            try {
+                String name = (String) f.get(null);
+                NAMES.put(name, name);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private MeiAttributeName() {
+    }
+
+    /**
+     * Get the constant for an attribute name, if there is one.
+     * @return
+     *          the constant with the same value as name, or name itself
+     */
+    public static String canonical(String name) {
+        String ret = NAMES.get(name);
+        return ret == null ? name : ret;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares attributes between the elements that a reader makes. Elements
+ * with the same attributes, apart from their ids, are given the same list
+ * of them, and equal values are the same string. Scores repeat the same
+ * attributes on many notes, so this makes documents take much less heap.
+ * <pre>
+ * MeiAttributeTable table = new MeiAttributeTable();
+ * MeiReaderOptions options = new MeiReaderOptions().setAttributeTable(table);
+ * </pre>
+ * One table can be used for all the documents of a corpus, from many
+ * threads, so they share with each other as well. Everything added to the
+ * table stays in it as long as the table is used.
+ * <p>
+ * Shared attributes can't be changed. An element that is changed, or
+ * whose attributes are got with {@link MeiElement#getAttributes()}, is
+ * first given its own copy of its attributes, so documents read with a
+ * table can still be edited, and an edit never changes another element.
+ */
+public class MeiAttributeTable {
+
+    /** An attribute in the table, which can't be changed since elements share it. */
+    private static final class SharedAttribute extends MeiAttribute {
+        SharedAttribute(MeiNamespace namespace, String name, String value) {
+            super(namespace, name, value);
+        }
+
+        @Override
+        public void setValue(String value) {
+            throw new UnsupportedOperationException("Attribute " + getName() + " is shared by many elements");
+        }
+    }
+
+    private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<String, String>();
+    private final ConcurrentHashMap<MeiAttribute, MeiAttribute> attributes =
+            new ConcurrentHashMap<MeiAttribute, MeiAttribute>();
+    private final ConcurrentHashMap<List<MeiAttribute>, List<MeiAttribute>> lists =
+            new ConcurrentHashMap<List<MeiAttribute>, List<MeiAttribute>>();
+
+    /**
+     * Give an element the shared list that is equal to its attributes.
+     */
+    /* package */ void share(MeiElement element) {
+        List<MeiAttribute> own = element.attributeList();
+        MeiAttribute[] shared = new MeiAttribute[own.size()];
+        for (int i = 0; i < shared.length; i++) {
+            shared[i] = attribute(own.get(i));
+        }
+        List<MeiAttribute> key = Arrays.asList(shared);
+        List<MeiAttribute> list = lists.get(key);
+        if (list == null) {
+            List<MeiAttribute> made = shared.length == 0
+                    ? Collections.<MeiAttribute>emptyList()
+                    : Collections.unmodifiableList(key);
+            list = lists.putIfAbsent(key, made);
+            if (list == null) {
+                list = made;
+            }
+        }
+        element.shareAttributes(list);
+    }
+
+    private MeiAttribute attribute(MeiAttribute attr) {
+        MeiAttribute ret = attributes.get(attr);
+        if (ret == null) {
+            // Keyed by an attribute that can't change, so the key stays valid
+            MeiAttribute made = new SharedAttribute(attr.getNamespace(), attr.getName(), value(attr.getValue()));
+            ret = attributes.putIfAbsent(made, made);
+            if (ret == null) {
+                ret = made;
+            }
+        }
+        return ret;
+    }
+
+    private String value(String value) {
+        if (value == null) {
+            return null;
+        }
+        String ret = values.putIfAbsent(value, value);
+        return ret == null ? value : ret;
+    }
+
+    /**
+     * Get the number of different attribute lists in the table.
+     */
+    public int getListCount() {
+        return lists.size();
+    }
+
+    /**
+     * Get the number of different attributes in the table.
+     */
+    public int getAttributeCount() {
+        return attributes.size();
+    }
+
+    /**
+     * Remove everything from the table. Elements that were read with it
+     * keep sharing what they have.
+     */
+    public void clear() {
+        values.clear();
+        attributes.clear();
+        lists.clear();
+    }
+}
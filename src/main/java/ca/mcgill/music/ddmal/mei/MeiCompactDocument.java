@@ -0,0 +1,714 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only MEI document stored in a compact form.
+ * Instead of one object per element, each element is a row in a set of
+ * parallel int arrays, and every name, id, value and attribute is an index
+ * into a single table of distinct strings. Elements are numbered in
+ * document order, so the descendants of an element are the rows
+ * immediately after it.
+ * <p>
+ * Elements are read through {@link MeiCompactElement}, which implements
+ * the read methods of {@link MeiElement} through {@link MeiElementView}.
+ * The views are created on demand and hold no data of their own.
+ * Use {@link #toDocument()} to get back a document that can be changed.
+ * <p>
+ * The arrays are held in buffers, so the same class is used for documents
+ * read from a memory-mapped {@link MeiDocumentStore}.
+ */
+public final class MeiCompactDocument {
+
+    /** The index used for a missing string, namespace or element. */
+    static final int NONE = -1;
+
+    /** All distinct strings in the document. */
+    private final MeiStringTable strings;
+    /** All distinct namespaces in the document. */
+    private final MeiNamespace[] namespaces;
+    /** The tags that the values in <code>tag</code> refer to. */
+    private final MeiTag[] tags;
+
+    /** The number of elements. */
+    private final int size;
+    /** The parent of each element. */
+    private final IntBuffer parent;
+    /** The first element after each element's subtree. */
+    private final IntBuffer end;
+    private final ShortBuffer tag;
+    private final IntBuffer name;
+    private final IntBuffer namespace;
+    /**
+     * The id of each element. An id that was generated rather than read or
+     * set is marked (see {@link #mark(int)}), so that it needs no column of
+     * its own.
+     */
+    private final IntBuffer id;
+    /**
+     * The text of each element. Text with CDATA sections, and
+     * {@link MeiText#WHITESPACE}, is stored marked, as a string made by
+     * {@link #encode(MeiText)}.
+     */
+    private final IntBuffer value;
+    private final IntBuffer tail;
+    /** The first attribute of each element, with one extra entry at the end. */
+    private final IntBuffer attrStart;
+
+    private final IntBuffer attrName;
+    private final IntBuffer attrNamespace;
+    private final IntBuffer attrValue;
+
+    /** Elements sorted by id, for lookups. */
+    private final IntBuffer byId;
+
+    private MeiCompactDocument(Builder b) {
+        strings = MeiStringTable.of(b.strings.toArray(new String[b.strings.size()]));
+        namespaces = b.namespaces.toArray(new MeiNamespace[b.namespaces.size()]);
+        tags = MeiTag.values();
+        size = b.size;
+        parent = IntBuffer.wrap(b.parent);
+        end = IntBuffer.wrap(b.end);
+        tag = ShortBuffer.wrap(b.tag);
+        name = IntBuffer.wrap(b.name);
+        namespace = IntBuffer.wrap(b.namespace);
+        id = IntBuffer.wrap(b.id);
+        value = IntBuffer.wrap(b.value);
+        tail = IntBuffer.wrap(b.tail);
+        attrStart = IntBuffer.wrap(b.attrStart);
+        attrName = IntBuffer.wrap(b.attrName);
+        attrNamespace = IntBuffer.wrap(b.attrNamespace);
+        attrValue = IntBuffer.wrap(b.attrValue);
+        byId = IntBuffer.wrap(sortById());
+    }
+
+    /**
+     * Read a document from a buffer written by {@link #write(DataOutput)}.
+     * The document uses the buffer directly instead of copying from it.
+     */
+    private MeiCompactDocument(ByteBuffer buf) {
+        int start = buf.position();
+        size = buf.getInt();
+        int attributes = buf.getInt();
+        int stringCount = buf.getInt();
+        namespaces = new MeiNamespace[buf.getInt()];
+        for (int i = 0; i < namespaces.length; i++) {
+            namespaces[i] = new MeiNamespace(readString(buf), readString(buf));
+        }
+        tags = new MeiTag[buf.getInt()];
+        for (int i = 0; i < tags.length; i++) {
+            String tagName = readString(buf);
+            tags[i] = tagName == null ? MeiTag.UNKNOWN : MeiTag.forName(tagName);
+        }
+        buf.position(start + align(buf.position() - start));
+
+        parent = ints(buf, size);
+        end = ints(buf, size);
+        name = ints(buf, size);
+        namespace = ints(buf, size);
+        id = ints(buf, size);
+        value = ints(buf, size);
+        tail = ints(buf, size);
+        attrStart = ints(buf, size + 1);
+        attrName = ints(buf, attributes);
+        attrNamespace = ints(buf, attributes);
+        attrValue = ints(buf, attributes);
+        byId = ints(buf, size);
+        IntBuffer stringOffsets = ints(buf, stringCount + 1);
+        ShortBuffer tagBuffer = slice(buf, size * 2).asShortBuffer();
+        tag = tagBuffer;
+        strings = MeiStringTable.of(stringOffsets, slice(buf, stringOffsets.get(stringCount)));
+    }
+
+    /**
+     * Make a compact copy of a document.
+     * Later changes to the document are not seen by the copy.
+     */
+    public static MeiCompactDocument of(MeiDocument document) {
+        Builder b = new Builder();
+        MeiElement root = document.getRootElement();
+        if (root != null) {
+            b.count(root);
+            b.allocate();
+            b.add(root, NONE);
+        } else {
+            b.allocate();
+        }
+        return new MeiCompactDocument(b);
+    }
+
+    /**
+     * Read a document from the current position of a buffer.
+     */
+    /* package */ static MeiCompactDocument read(ByteBuffer buf) {
+        return new MeiCompactDocument(buf);
+    }
+
+    /**
+     * Get the number of elements in this document.
+     */
+    public int size() {
+        return size;
+    }
+
+    public MeiCompactElement getRootElement() {
+        if (size == 0) {
+            return null;
+        }
+        return new MeiCompactElement(this, 0);
+    }
+
+    /**
+     * Get the element in the document with the id specified.
+     * @param id
+     * @return
+     *      the element with the requested ID, or null if no element exists.
+     */
+    public MeiCompactElement getElementById(String id) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareId(byId.get(mid), id);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return new MeiCompactElement(this, byId.get(mid));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get all elements in this document with a given tag name.
+     * @param name
+     * @return
+     */
+    public List<MeiCompactElement> getElementsByName(String name) {
+        if (size == 0) {
+            return new ArrayList<MeiCompactElement>();
+        }
+        return getDescendantsByName(0, name);
+    }
+
+    /**
+     * Get all elements in this document with a given tag.
+     * @param tag
+     * @return
+     */
+    public List<MeiCompactElement> getElementsByTag(MeiTag tag) {
+        List<MeiCompactElement> ret = new ArrayList<MeiCompactElement>();
+        for (int i = 1; i < size; i++) {
+            if (getTag(i) == tag) {
+                ret.add(new MeiCompactElement(this, i));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Estimate the number of bytes of heap used by this document.
+     * The columns of a document from a {@link MeiDocumentStore} are not on
+     * the heap, and aren't counted.
+     */
+    public long getEstimatedSize() {
+        long ret = 128 + strings.estimateSize() + 48L * namespaces.length;
+        IntBuffer[] columns = {parent, end, name, namespace, id, value, tail,
+            attrStart, attrName, attrNamespace, attrValue, byId};
+        for (IntBuffer column : columns) {
+            if (column.hasArray()) {
+                ret += 16 + 4L * column.limit();
+            }
+        }
+        if (tag.hasArray()) {
+            ret += 16 + 2L * size;
+        }
+        return ret;
+    }
+
+    /**
+     * Make an ordinary document with the same contents as this one.
+     */
+    public MeiDocument toDocument() {
+        MeiDocument doc = new MeiDocument();
+        if (size > 0) {
+            doc.setRootElement(toElement(0));
+        }
+        return doc;
+    }
+
+    /* Element access, used by MeiCompactElement. */
+
+    MeiNamespace getNamespace(int node) {
+        int ns = namespace.get(node);
+        return ns == NONE ? null : namespaces[ns];
+    }
+
+    String getName(int node) {
+        return strings.get(name.get(node));
+    }
+
+    MeiTag getTag(int node) {
+        return tags[tag.get(node)];
+    }
+
+    String getId(int node) {
+        return string(unmark(id.get(node)));
+    }
+
+    boolean hasGeneratedId(int node) {
+        return id.get(node) < NONE;
+    }
+
+    String getValue(int node) {
+        return textString(value.get(node));
+    }
+
+    String getTail(int node) {
+        return textString(tail.get(node));
+    }
+
+    MeiText getValueText(int node) {
+        return text(value.get(node));
+    }
+
+    MeiText getTailText(int node) {
+        return text(tail.get(node));
+    }
+
+    int getParent(int node) {
+        return parent.get(node);
+    }
+
+    int getFirstChild(int node) {
+        int child = node + 1;
+        return child < end.get(node) ? child : NONE;
+    }
+
+    int getNextSibling(int node) {
+        int p = parent.get(node);
+        int next = end.get(node);
+        return p != NONE && next < end.get(p) ? next : NONE;
+    }
+
+    int getPreviousSibling(int node) {
+        int p = parent.get(node);
+        if (p == NONE || node == p + 1) {
+            return NONE;
+        }
+        // The element before this one is the last in the previous sibling's subtree
+        int prev = node - 1;
+        while (parent.get(prev) != p) {
+            prev = parent.get(prev);
+        }
+        return prev;
+    }
+
+    /** The first element after the subtree of this element. */
+    int getEnd(int node) {
+        return end.get(node);
+    }
+
+    String getAttribute(int node, String attrName) {
+        for (int a = attrStart.get(node); a < attrStart.get(node + 1); a++) {
+            if (strings.equals(this.attrName.get(a), attrName)) {
+                return string(attrValue.get(a));
+            }
+        }
+        return null;
+    }
+
+    List<MeiAttribute> getAttributes(int node) {
+        int first = attrStart.get(node);
+        int last = attrStart.get(node + 1);
+        List<MeiAttribute> ret = new ArrayList<MeiAttribute>(last - first);
+        for (int a = first; a < last; a++) {
+            int ns = attrNamespace.get(a);
+            ret.add(new MeiAttribute(ns == NONE ? null : namespaces[ns], strings.get(attrName.get(a)), string(attrValue.get(a))));
+        }
+        return ret;
+    }
+
+    List<MeiCompactElement> getDescendantsByName(int node, String matchName) {
+        MeiTag nameTag = MeiTag.forName(matchName);
+        List<MeiCompactElement> ret = new ArrayList<MeiCompactElement>();
+        for (int i = node + 1; i < end.get(node); i++) {
+            if (hasName(i, nameTag, matchName)) {
+                ret.add(new MeiCompactElement(this, i));
+            }
+        }
+        return ret;
+    }
+
+    MeiElement toElement(int node) {
+        MeiElement ret = new MeiElement(getNamespace(node), getName(node), getId(node), hasGeneratedId(node));
+        ret.setValueText(getValueText(node));
+        ret.setTailText(getTailText(node));
+        List<MeiAttribute> attributes = getAttributes(node);
+        if (!attributes.isEmpty()) {
+            ret.addAllAttributes(attributes);
+        }
+        for (int c = getFirstChild(node); c != NONE; c = getNextSibling(c)) {
+            ret.addChild(toElement(c));
+        }
+        return ret;
+    }
+
+    boolean hasName(int node, MeiTag nameTag, String matchName) {
+        MeiTag t = getTag(node);
+        if (t != MeiTag.UNKNOWN) {
+            return t == nameTag;
+        }
+        return strings.equals(name.get(node), matchName);
+    }
+
+    /**
+     * Write this document in the form read by {@link #read(ByteBuffer)}.
+     * All numbers are big-endian, and the arrays start at a multiple of 8
+     * bytes from the start of the document.
+     * @return
+     *          the number of bytes written
+     */
+    /* package */ int write(DataOutput out) throws IOException {
+        // Only write the tags that are used
+        short[] tagIndex = new short[tags.length];
+        Arrays.fill(tagIndex, (short) NONE);
+        List<MeiTag> usedTags = new ArrayList<MeiTag>();
+        for (int i = 0; i < size; i++) {
+            int t = tag.get(i);
+            if (tagIndex[t] == NONE) {
+                tagIndex[t] = (short) usedTags.size();
+                usedTags.add(tags[t]);
+            }
+        }
+        int attributes = attrName.limit();
+        int stringCount = strings.size();
+
+        int length = 0;
+        out.writeInt(size);
+        out.writeInt(attributes);
+        out.writeInt(stringCount);
+        out.writeInt(namespaces.length);
+        length += 16;
+        for (MeiNamespace ns : namespaces) {
+            length += writeString(out, ns.getHref());
+            length += writeString(out, ns.getPrefix());
+        }
+        out.writeInt(usedTags.size());
+        length += 4;
+        for (MeiTag t : usedTags) {
+            length += writeString(out, t.getName());
+        }
+        for (int pad = align(length) - length; pad > 0; pad--) {
+            out.writeByte(0);
+            length++;
+        }
+
+        length += writeInts(out, parent, end, name, namespace, id, value, tail,
+                attrStart, attrName, attrNamespace, attrValue, byId);
+        byte[][] bytes = new byte[stringCount][];
+        int offset = 0;
+        for (int i = 0; i < stringCount; i++) {
+            bytes[i] = strings.get(i).getBytes(MeiStringTable.UTF8);
+            out.writeInt(offset);
+            offset += bytes[i].length;
+        }
+        out.writeInt(offset);
+        length += (stringCount + 1) * 4;
+        for (int i = 0; i < size; i++) {
+            out.writeShort(tagIndex[tag.get(i)]);
+        }
+        length += size * 2;
+        for (byte[] b : bytes) {
+            out.write(b);
+        }
+        return length + offset;
+    }
+
+    private static int writeInts(DataOutput out, IntBuffer... columns) throws IOException {
+        int length = 0;
+        for (IntBuffer column : columns) {
+            for (int i = 0; i < column.limit(); i++) {
+                out.writeInt(column.get(i));
+            }
+            length += column.limit() * 4;
+        }
+        return length;
+    }
+
+    private static int writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(NONE);
+            return 4;
+        }
+        byte[] b = s.getBytes(MeiStringTable.UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+        return 4 + b.length;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length == NONE) {
+            return null;
+        }
+        return MeiStringTable.UTF8.decode(slice(buf, length)).toString();
+    }
+
+    /** Take the next <code>length</code> bytes of a buffer as a new buffer. */
+    private static ByteBuffer slice(ByteBuffer buf, int length) {
+        ByteBuffer ret = buf.slice();
+        ret.limit(length);
+        buf.position(buf.position() + length);
+        return ret;
+    }
+
+    private static IntBuffer ints(ByteBuffer buf, int count) {
+        return slice(buf, count * 4).asIntBuffer();
+    }
+
+    /* package */ static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    private String string(int index) {
+        return index == NONE ? null : strings.get(index);
+    }
+
+    /** Mark a string index, unless it is {@link #NONE}. */
+    private static int mark(int index) {
+        return index == NONE ? NONE : -2 - index;
+    }
+
+    /** Get the string index of a value that may be marked. */
+    private static int unmark(int value) {
+        return value < NONE ? -2 - value : value;
+    }
+
+    private String textString(int index) {
+        if (index < NONE) {
+            return text(index).toString();
+        }
+        return string(index);
+    }
+
+    private MeiText text(int index) {
+        if (index < NONE) {
+            return decode(strings.get(unmark(index)));
+        }
+        return index == NONE ? null : MeiText.of(strings.get(index));
+    }
+
+    /**
+     * Write the segments of some text as one string. Each segment is
+     * 'C' for CDATA or 'T' for text, its length, ':' and its text.
+     * {@link MeiText#WHITESPACE} is the empty string.
+     */
+    private static String encode(MeiText text) {
+        if (text == MeiText.WHITESPACE) {
+            return "";
+        }
+        StringBuilder ret = new StringBuilder();
+        for (MeiText.Segment segment : text.getSegments()) {
+            ret.append(segment.isCData() ? 'C' : 'T')
+                .append(segment.getText().length())
+                .append(':')
+                .append(segment.getText());
+        }
+        return ret.toString();
+    }
+
+    private static MeiText decode(String s) {
+        if (s.isEmpty()) {
+            return MeiText.WHITESPACE;
+        }
+        MeiText ret = null;
+        int i = 0;
+        while (i < s.length()) {
+            boolean cdata = s.charAt(i) == 'C';
+            int colon = s.indexOf(':', i);
+            int start = colon + 1;
+            i = start + Integer.parseInt(s.substring(i + 1, colon));
+            String segment = s.substring(start, i);
+            if (ret == null) {
+                ret = cdata ? MeiText.cdata(segment) : MeiText.of(segment);
+            } else {
+                ret = cdata ? ret.appendCData(segment) : ret.append(segment);
+            }
+        }
+        return ret;
+    }
+
+    private int compareId(int node, String s) {
+        int index = unmark(id.get(node));
+        if (index == NONE) {
+            return s == null ? 0 : -1;
+        }
+        return s == null ? 1 : strings.compare(index, s);
+    }
+
+    private int[] sortById() {
+        Integer[] nodes = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            nodes[i] = i;
+        }
+        Arrays.sort(nodes, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                String other = getId(b);
+                return compareId(a, other);
+            }
+        });
+        int[] ret = new int[size];
+        for (int i = 0; i < size; i++) {
+            ret[i] = nodes[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Fills the arrays from a tree of elements in two passes: one to size
+     * the arrays and one to copy the elements in document order.
+     */
+    private static class Builder {
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+        private final List<MeiNamespace> namespaces = new ArrayList<MeiNamespace>();
+        private final Map<MeiNamespace, Integer> namespaceIndex = new HashMap<MeiNamespace, Integer>();
+
+        private int size;
+        private int attributes;
+        private int[] parent;
+        private int[] end;
+        private short[] tag;
+        private int[] name;
+        private int[] namespace;
+        private int[] id;
+        private int[] value;
+        private int[] tail;
+        private int[] attrStart;
+        private int[] attrName;
+        private int[] attrNamespace;
+        private int[] attrValue;
+
+        private int next;
+        private int nextAttr;
+
+        void count(MeiElement element) {
+            size++;
+            attributes += element.attributeList().size();
+            for (MeiElement c : element.getChildren()) {
+                count(c);
+            }
+        }
+
+        void allocate() {
+            parent = new int[size];
+            end = new int[size];
+            tag = new short[size];
+            name = new int[size];
+            namespace = new int[size];
+            id = new int[size];
+            value = new int[size];
+            tail = new int[size];
+            attrStart = new int[size + 1];
+            attrName = new int[attributes];
+            attrNamespace = new int[attributes];
+            attrValue = new int[attributes];
+        }
+
+        void add(MeiElement element, int parentNode) {
+            int node = next++;
+            parent[node] = parentNode;
+            tag[node] = (short) element.getTag().ordinal();
+            name[node] = string(element.getName());
+            namespace[node] = namespace(element.getNamespace());
+            id[node] = element.hasGeneratedId() ? mark(string(element.getId())) : string(element.getId());
+            value[node] = text(element.getValueText());
+            tail[node] = text(element.getTailText());
+            attrStart[node] = nextAttr;
+            for (MeiAttribute a : element.attributeList()) {
+                attrName[nextAttr] = string(a.getName());
+                attrNamespace[nextAttr] = namespace(a.getNamespace());
+                attrValue[nextAttr] = string(a.getValue());
+                nextAttr++;
+            }
+            attrStart[node + 1] = nextAttr;
+            for (MeiElement c : element.getChildren()) {
+                add(c, node);
+            }
+            end[node] = next;
+        }
+
+        private int string(String s) {
+            if (s == null) {
+                return NONE;
+            }
+            Integer index = stringIndex.get(s);
+            if (index == null) {
+                index = strings.size();
+                strings.add(s);
+                stringIndex.put(s, index);
+            }
+            return index;
+        }
+
+        /** Store text as a string, or marked if it isn't plain text. */
+        private int text(MeiText t) {
+            if (t == null) {
+                return NONE;
+            }
+            if (t == MeiText.WHITESPACE || t.hasCData()) {
+                return mark(string(encode(t)));
+            }
+            return string(t.toString());
+        }
+
+        private int namespace(MeiNamespace ns) {
+            if (ns == null) {
+                return NONE;
+            }
+            Integer index = namespaceIndex.get(ns);
+            if (index == null) {
+                index = namespaces.size();
+                namespaces.add(ns);
+                namespaceIndex.put(ns, index);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An element of a {@link MeiCompactDocument}.
+ * This is only a position in the document, so views are cheap to make and
+ * two views of the same element are equal.
+ */
+public final class MeiCompactElement implements MeiElementView {
+
+    private final MeiCompactDocument document;
+    private final int node;
+
+    /* package */ MeiCompactElement(MeiCompactDocument document, int node) {
+        this.document = document;
+        this.node = node;
+    }
+
+    public MeiCompactDocument getDocument() {
+        return document;
+    }
+
+    public MeiNamespace getNamespace() {
+        return document.getNamespace(node);
+    }
+
+    public String getName() {
+        return document.getName(node);
+    }
+
+    public MeiTag getTag() {
+        return document.getTag(node);
+    }
+
+    public String getId() {
+        return document.getId(node);
+    }
+
+    /**
+     * True if the id of this element was made up when it was created.
+     * @see MeiElement#hasGeneratedId()
+     */
+    public boolean hasGeneratedId() {
+        return document.hasGeneratedId(node);
+    }
+
+    public MeiCompactElement getParent() {
+        return element(document.getParent(node));
+    }
+
+    public MeiCompactElement getNextSibling() {
+        return element(document.getNextSibling(node));
+    }
+
+    public MeiCompactElement getPreviousSibling() {
+        return element(document.getPreviousSibling(node));
+    }
+
+    public String getValue() {
+        return document.getValue(node);
+    }
+
+    public String getTail() {
+        return document.getTail(node);
+    }
+
+    public String getAttribute(String attrName) {
+        return document.getAttribute(node, attrName);
+    }
+
+    /**
+     * Get the attributes of this element.
+     * The attributes are copies, so changing them does not change the
+     * document.
+     */
+    public List<MeiAttribute> getAttributes() {
+        return document.getAttributes(node);
+    }
+
+    public List<MeiCompactElement> getChildren() {
+        List<MeiCompactElement> ret = new ArrayList<MeiCompactElement>();
+        for (int c = document.getFirstChild(node); c != MeiCompactDocument.NONE; c = document.getNextSibling(c)) {
+            ret.add(new MeiCompactElement(document, c));
+        }
+        return ret;
+    }
+
+    public List<MeiCompactElement> getChildrenByName(String name) {
+        MeiTag nameTag = MeiTag.forName(name);
+        List<MeiCompactElement> ret = new ArrayList<MeiCompactElement>();
+        for (int c = document.getFirstChild(node); c != MeiCompactDocument.NONE; c = document.getNextSibling(c)) {
+            if (document.hasName(c, nameTag, name)) {
+                ret.add(new MeiCompactElement(document, c));
+            }
+        }
+        return ret;
+    }
+
+    public List<MeiCompactElement> getChildrenByTag(MeiTag matchTag) {
+        List<MeiCompactElement> ret = new ArrayList<MeiCompactElement>();
+        for (int c = document.getFirstChild(node); c != MeiCompactDocument.NONE; c = document.getNextSibling(c)) {
+            if (document.getTag(c) == matchTag) {
+                ret.add(new MeiCompactElement(document, c));
+            }
+        }
+        return ret;
+    }
+
+    public List<MeiCompactElement> getDescendants() {
+        int end = document.getEnd(node);
+        List<MeiCompactElement> ret = new ArrayList<MeiCompactElement>(end - node - 1);
+        for (int i = node + 1; i < end; i++) {
+            ret.add(new MeiCompactElement(document, i));
+        }
+        return ret;
+    }
+
+    public Stream<MeiCompactElement> children() {
+        return walk(document.getFirstChild(node), document::getNextSibling);
+    }
+
+    /**
+     * Get a stream of all elements that are descended from this one, in
+     * document order. The stream knows its size and splits evenly.
+     */
+    public Stream<MeiCompactElement> descendants() {
+        return IntStream.range(node + 1, document.getEnd(node))
+                .mapToObj(i -> new MeiCompactElement(document, i));
+    }
+
+    public Stream<MeiCompactElement> ancestors() {
+        return walk(document.getParent(node), document::getParent);
+    }
+
+    public Stream<MeiCompactElement> followingSiblings() {
+        return walk(document.getNextSibling(node), document::getNextSibling);
+    }
+
+    public Stream<MeiCompactElement> precedingSiblings() {
+        return walk(document.getPreviousSibling(node), document::getPreviousSibling);
+    }
+
+    /**
+     * Get a stream of the attributes of this element.
+     * The attributes are copies, so changing them does not change the
+     * document.
+     */
+    public Stream<MeiAttribute> attributes() {
+        return getAttributes().stream();
+    }
+
+    /**
+     * Make a stream of elements that starts at <code>first</code> and
+     * follows <code>next</code> until there are no more.
+     */
+    private Stream<MeiCompactElement> walk(final int first, final IntUnaryOperator next) {
+        Spliterator<MeiCompactElement> s = new Spliterators.AbstractSpliterator<MeiCompactElement>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private int n = first;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super MeiCompactElement> action) {
+                if (n == MeiCompactDocument.NONE) {
+                    return false;
+                }
+                MeiCompactElement e = new MeiCompactElement(document, n);
+                n = next.applyAsInt(n);
+                action.accept(e);
+                return true;
+            }
+        };
+        return StreamSupport.stream(s, false);
+    }
+
+    public List<MeiCompactElement> getDescendantsByName(String matchName) {
+        return document.getDescendantsByName(node, matchName);
+    }
+
+    public List<MeiCompactElement> getDescendantsByTag(MeiTag matchTag) {
+        List<MeiCompactElement> ret = new ArrayList<MeiCompactElement>();
+        int end = document.getEnd(node);
+        for (int i = node + 1; i < end; i++) {
+            if (document.getTag(i) == matchTag) {
+                ret.add(new MeiCompactElement(document, i));
+            }
+        }
+        return ret;
+    }
+
+    public MeiCompactElement getAncestor(String name) {
+        MeiTag nameTag = MeiTag.forName(name);
+        for (int p = document.getParent(node); p != MeiCompactDocument.NONE; p = document.getParent(p)) {
+            if (document.hasName(p, nameTag, name)) {
+                return new MeiCompactElement(document, p);
+            }
+        }
+        return null;
+    }
+
+    public MeiCompactElement getAncestor(MeiTag matchTag) {
+        for (int p = document.getParent(node); p != MeiCompactDocument.NONE; p = document.getParent(p)) {
+            if (document.getTag(p) == matchTag) {
+                return new MeiCompactElement(document, p);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make an ordinary element with the same contents as this one and
+     * copies of all of its descendants. The new element has no parent.
+     */
+    public MeiElement toElement() {
+        return document.toElement(node);
+    }
+
+    private MeiCompactElement element(int n) {
+        return n == MeiCompactDocument.NONE ? null : new MeiCompactElement(document, n);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof MeiCompactElement)) {
+            return false;
+        }
+        MeiCompactElement rhs = (MeiCompactElement) obj;
+        return document == rhs.document && node == rhs.node;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(document) * 31 + node;
+    }
+
+    @Override
+    public String toString() {
+        return "MeiCompactElement [name=" + getName() + ", id=" + getId() + "]";
+    }
+}
@@ -0,0 +1,137 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Visits the descendants of an element in document order, and splits
+ * between subtrees so they can be visited in parallel.
+ * The remaining elements are kept as a list of subtrees. Splitting gives
+ * away the first half of the subtrees; if only one is left, its root is
+ * split from its children first.
+ */
+/* package */ class MeiDescendantSpliterator implements Spliterator<MeiElement> {
+
+    /** A subtree that is still to be visited. */
+    private static class Subtree {
+        final MeiElement root;
+        /** False if the root's children are visited by another spliterator. */
+        final boolean withChildren;
+
+        Subtree(MeiElement root, boolean withChildren) {
+            this.root = root;
+            this.withChildren = withChildren;
+        }
+    }
+
+    private final Deque<Subtree> subtrees;
+    private long estimate;
+
+    /* package */ MeiDescendantSpliterator(MeiElement element) {
+        this(new ArrayDeque<Subtree>(), Long.MAX_VALUE);
+        for (MeiElement c : element.getChildren()) {
+            subtrees.addLast(new Subtree(c, true));
+        }
+    }
+
+    private MeiDescendantSpliterator(Deque<Subtree> subtrees, long estimate) {
+        this.subtrees = subtrees;
+        this.estimate = estimate;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super MeiElement> action) {
+        Subtree next = subtrees.pollFirst();
+        if (next == null) {
+            return false;
+        }
+        if (next.withChildren) {
+            pushChildren(next.root);
+        }
+        action.accept(next.root);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super MeiElement> action) {
+        Subtree next;
+        while ((next = subtrees.pollFirst()) != null) {
+            action.accept(next.root);
+            if (next.withChildren) {
+                visit(next.root.getChildren(), action);
+            }
+        }
+    }
+
+    private static void visit(List<MeiElement> elements, Consumer<? super MeiElement> action) {
+        for (MeiElement e : elements) {
+            action.accept(e);
+            visit(e.getChildren(), action);
+        }
+    }
+
+    @Override
+    public Spliterator<MeiElement> trySplit() {
+        if (subtrees.size() == 1) {
+            Subtree only = subtrees.peekFirst();
+            if (!only.withChildren || only.root.getChildren().isEmpty()) {
+                return null;
+            }
+            subtrees.pollFirst();
+            pushChildren(only.root);
+            subtrees.addFirst(new Subtree(only.root, false));
+        }
+        if (subtrees.size() < 2) {
+            return null;
+        }
+        Deque<Subtree> prefix = new ArrayDeque<Subtree>();
+        for (int n = subtrees.size() / 2; n > 0; n--) {
+            prefix.addLast(subtrees.pollFirst());
+        }
+        estimate >>>= 1;
+        return new MeiDescendantSpliterator(prefix, estimate);
+    }
+
+    @Override
+    public long estimateSize() {
+        return subtrees.isEmpty() ? 0 : estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    private void pushChildren(MeiElement element) {
+        List<MeiElement> children = element.getChildren();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            subtrees.addFirst(new Subtree(children.get(i), true));
+        }
+    }
+}
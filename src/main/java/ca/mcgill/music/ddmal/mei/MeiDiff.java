@@ -0,0 +1,317 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.ObjectUtils;
+
+import ca.mcgill.music.ddmal.mei.MeiPatch.Edit;
+
+/**
+ * Compare two versions of an {@link MeiDocument} and make a {@link MeiPatch}
+ * that turns the first version into the second.
+ *
+ * Elements of the two documents are matched by their id first. Elements
+ * that don't have a match by id are matched by position: the unmatched
+ * children of two matched elements are paired up in order if they have the
+ * same tag name. This makes a diff of two documents with stable ids take
+ * time linear in the size of the documents (plus n log n for children that
+ * are reordered).
+ */
+public class MeiDiff {
+
+    /** Matched elements, from the new document to the old document. */
+    private final Map<MeiElement, MeiElement> newToOld = new IdentityHashMap<MeiElement, MeiElement>();
+    /** Matched elements, from the old document to the new document. */
+    private final Map<MeiElement, MeiElement> oldToNew = new IdentityHashMap<MeiElement, MeiElement>();
+    /** Elements in the new document that are matched, or have a matched descendant. */
+    private final Set<MeiElement> hasMatch = Collections.newSetFromMap(new IdentityHashMap<MeiElement, Boolean>());
+
+    private final List<Edit> idEdits = new ArrayList<Edit>();
+    private final List<Edit> treeEdits = new ArrayList<Edit>();
+    private final List<Edit> deleteEdits = new ArrayList<Edit>();
+
+    private MeiDiff() {
+    }
+
+    /**
+     * Make a patch that changes one document into another.
+     * @param from
+     *          the original document
+     * @param to
+     *          the changed document
+     * @return
+     *          a patch that, when applied to <code>from</code>, makes it the
+     *          same as <code>to</code>
+     */
+    public static MeiPatch diff(MeiDocument from, MeiDocument to) {
+        return new MeiDiff().makePatch(from.getRootElement(), to.getRootElement());
+    }
+
+    private MeiPatch makePatch(MeiElement oldRoot, MeiElement newRoot) {
+        if (newRoot == null) {
+            if (oldRoot != null) {
+                deleteEdits.add(Edit.delete(oldRoot.getId()));
+            }
+        } else if (oldRoot == null || !sameKind(oldRoot, newRoot)) {
+            // Nothing can be kept, replace the whole document
+            treeEdits.add(Edit.insert(null, null, newRoot.copy()));
+        } else {
+            match(oldRoot, newRoot);
+            Map<String, MeiElement> oldIndex = new HashMap<String, MeiElement>();
+            indexIds(oldRoot, oldIndex);
+            matchIds(newRoot, oldIndex);
+            matchStructure(newRoot);
+            findMatched(newRoot);
+
+            diffElement(oldRoot, newRoot);
+            diffChildren(oldRoot, newRoot);
+            findDeleted(oldRoot);
+        }
+
+        List<Edit> edits = new ArrayList<Edit>(idEdits.size() + treeEdits.size() + deleteEdits.size());
+        edits.addAll(idEdits);
+        edits.addAll(treeEdits);
+        edits.addAll(deleteEdits);
+        return new MeiPatch(edits);
+    }
+
+    private boolean sameKind(MeiElement a, MeiElement b) {
+        return a.getName().equals(b.getName())
+                && ObjectUtils.equals(a.getNamespace(), b.getNamespace());
+    }
+
+    private void match(MeiElement oldElement, MeiElement newElement) {
+        oldToNew.put(oldElement, newElement);
+        newToOld.put(newElement, oldElement);
+        if (!oldElement.getId().equals(newElement.getId())) {
+            idEdits.add(Edit.id(oldElement.getId(), newElement.getId()));
+        }
+    }
+
+    private void indexIds(MeiElement element, Map<String, MeiElement> index) {
+        if (!index.containsKey(element.getId())) {
+            index.put(element.getId(), element);
+        }
+        for (MeiElement c : element.getChildren()) {
+            indexIds(c, index);
+        }
+    }
+
+    /**
+     * Match elements in the new document with elements in the old document
+     * that have the same id.
+     */
+    private void matchIds(MeiElement newElement, Map<String, MeiElement> oldIndex) {
+        if (!newToOld.containsKey(newElement)) {
+            MeiElement old = oldIndex.get(newElement.getId());
+            if (old != null && !oldToNew.containsKey(old) && sameKind(old, newElement)) {
+                match(old, newElement);
+            }
+        }
+        for (MeiElement c : newElement.getChildren()) {
+            matchIds(c, oldIndex);
+        }
+    }
+
+    /**
+     * Match the remaining children of matched elements by tag name, in order.
+     */
+    private void matchStructure(MeiElement newElement) {
+        MeiElement old = newToOld.get(newElement);
+        if (old != null) {
+            // For each tag name, the position in the old children to search from
+            Map<String, Integer> cursors = new HashMap<String, Integer>();
+            List<MeiElement> oldChildren = old.getChildren();
+            for (MeiElement c : newElement.getChildren()) {
+                if (newToOld.containsKey(c)) {
+                    continue;
+                }
+                Integer start = cursors.get(c.getName());
+                int pos = start == null ? 0 : start;
+                while (pos < oldChildren.size()) {
+                    MeiElement candidate = oldChildren.get(pos++);
+                    if (!oldToNew.containsKey(candidate) && sameKind(candidate, c)) {
+                        match(candidate, c);
+                        break;
+                    }
+                }
+                cursors.put(c.getName(), pos);
+            }
+        }
+        for (MeiElement c : newElement.getChildren()) {
+            matchStructure(c);
+        }
+    }
+
+    private boolean findMatched(MeiElement newElement) {
+        boolean found = newToOld.containsKey(newElement);
+        for (MeiElement c : newElement.getChildren()) {
+            // Don't short-circuit, every child needs to be visited
+            found = findMatched(c) || found;
+        }
+        if (found) {
+            hasMatch.add(newElement);
+        }
+        return found;
+    }
+
+    /**
+     * Add edits for the content of two matched elements.
+     */
+    private void diffElement(MeiElement oldElement, MeiElement newElement) {
+        String id = newElement.getId();
+        if (!oldElement.attributeList().equals(newElement.attributeList())) {
+            treeEdits.add(Edit.attributes(id, newElement.attributeList()));
+        }
+        if (!ObjectUtils.equals(oldElement.getValueText(), newElement.getValueText())) {
+            treeEdits.add(Edit.value(id, newElement.getValueText()));
+        }
+        if (!ObjectUtils.equals(oldElement.getTailText(), newElement.getTailText())) {
+            treeEdits.add(Edit.tail(id, newElement.getTailText()));
+        }
+    }
+
+    /**
+     * Add edits that put the children of a new element in place.
+     * @param oldElement
+     *          the matching old element, or null if the element is inserted
+     * @param newElement
+     *          the element in the new document
+     */
+    private void diffChildren(MeiElement oldElement, MeiElement newElement) {
+        List<MeiElement> children = newElement.getChildren();
+        boolean[] stable = findStableChildren(oldElement, children);
+        String parentId = newElement.getId();
+        String afterId = null;
+        for (int i = 0; i < children.size(); i++) {
+            MeiElement c = children.get(i);
+            MeiElement old = newToOld.get(c);
+            if (old != null) {
+                if (!stable[i]) {
+                    treeEdits.add(Edit.move(c.getId(), parentId, afterId));
+                }
+                diffElement(old, c);
+                diffChildren(old, c);
+            } else if (!hasMatch.contains(c)) {
+                treeEdits.add(Edit.insert(parentId, afterId, c.copy()));
+            } else {
+                // Some descendants already exist, they are moved in afterwards
+                treeEdits.add(Edit.insert(parentId, afterId, c.shallowCopy()));
+                diffChildren(null, c);
+            }
+            afterId = c.getId();
+        }
+    }
+
+    /**
+     * Find the children that don't need to move. These are the longest
+     * run of children that were in the same parent in the old document
+     * and are in the same order.
+     */
+    private boolean[] findStableChildren(MeiElement oldElement, List<MeiElement> children) {
+        boolean[] stable = new boolean[children.size()];
+        if (oldElement == null) {
+            return stable;
+        }
+        Map<MeiElement, Integer> oldPositions = new IdentityHashMap<MeiElement, Integer>();
+        List<MeiElement> oldChildren = oldElement.getChildren();
+        for (int i = 0; i < oldChildren.size(); i++) {
+            oldPositions.put(oldChildren.get(i), i);
+        }
+
+        // Longest increasing subsequence of old positions (patience sorting)
+        int n = children.size();
+        int[] positions = new int[n];
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            MeiElement old = newToOld.get(children.get(i));
+            Integer pos = old == null ? null : oldPositions.get(old);
+            if (pos == null) {
+                positions[i] = -1;
+                continue;
+            }
+            positions[i] = pos;
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (positions[tails[mid]] < pos) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) {
+                length++;
+            }
+        }
+        if (length > 0) {
+            for (int i = tails[length - 1]; i >= 0; i = previous[i]) {
+                stable[i] = true;
+            }
+        }
+        return stable;
+    }
+
+    /**
+     * Delete the highest unmatched elements of the old document. Any
+     * matched descendants have already been moved out by then.
+     */
+    private void findDeleted(MeiElement oldElement) {
+        for (MeiElement c : oldElement.getChildren()) {
+            if (oldToNew.containsKey(c)) {
+                findDeleted(c);
+            } else {
+                deleteEdits.add(Edit.delete(c.getId()));
+                findDeletedBelow(c);
+            }
+        }
+    }
+
+    /**
+     * Look for matched elements under a deleted one, whose unmatched
+     * children must also be deleted if they are moved out.
+     */
+    private void findDeletedBelow(MeiElement deleted) {
+        for (MeiElement c : deleted.getChildren()) {
+            if (oldToNew.containsKey(c)) {
+                findDeleted(c);
+            } else {
+                findDeletedBelow(c);
+            }
+        }
+    }
+}
@@ -24,22 +24,274 @@
 package ca.mcgill.music.ddmal.mei;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A Document. It contains a root element, and some helper methods.
  */
 public class MeiDocument {
     public static final String MEI_VERSION = "2012";
+    /** Attributes whose values are references to ids, which renumbering updates. */
+    public static final Set<String> REFERENCE_ATTRIBUTES = Collections.unmodifiableSet(new HashSet<String>(
+            Arrays.asList("startid", "endid", "plist", "corresp", "facs")));
 
     private MeiElement rootElement;
 
+    /** Listeners that are told about changes to this document. */
+    private final List<MeiMutationListener> listeners = new CopyOnWriteArrayList<MeiMutationListener>();
+    /** How many transactions are open. */
+    private int transactionDepth;
+    /** Mutations made in the current transaction. */
+    private List<MeiMutation> pending = new ArrayList<MeiMutation>();
+    /** The last text mutation for each element in the current transaction. */
+    private Map<MeiElement, List<MeiMutation>> pendingText = new IdentityHashMap<MeiElement, List<MeiMutation>>();
+    /** Counts of the contents, or null if they have to be made again. */
+    private MeiDocumentStats stats;
+    /** Keeps the counts up to date, once they have been asked for. */
+    private MeiMutationListener statsListener;
+
     public MeiElement getRootElement() {
         return rootElement;
     }
 
     public void setRootElement(MeiElement rootElement) {
+        MeiElement oldRoot = this.rootElement;
+        if (oldRoot != null) {
+            oldRoot.setDocument(null);
+        }
         this.rootElement = rootElement;
+        if (rootElement != null) {
+            rootElement.setDocument(this);
+        }
+        contentChanged();
+        if (hasMutationListeners()) {
+            if (oldRoot != null) {
+                fireMutation(MeiMutation.childRemoved(null, oldRoot, 0));
+            }
+            if (rootElement != null) {
+                fireMutation(MeiMutation.childAdded(null, rootElement, 0));
+            }
+        }
+    }
+
+    /**
+     * Get counts of the elements, attributes and text in this document,
+     * and an estimate of the heap it uses. A document that was read has
+     * these from the reader. Otherwise they are counted the first time
+     * they are asked for. After that single changes update the counts;
+     * after a transaction with more than one change they are counted again
+     * the next time they are asked for.
+     * @return
+     *          the counts, which are kept up to date until the next
+     *          transaction
+     */
+    public MeiDocumentStats getStats() {
+        if (statsListener == null) {
+            // Only followed from now on, so that a document whose counts
+            // are never asked for has no listener
+            statsListener = new MeiMutationListener() {
+                public void mutated(MeiDocument document, List<MeiMutation> mutations) {
+                    updateStats(mutations);
+                }
+            };
+            addMutationListener(statsListener);
+        }
+        if (stats == null) {
+            stats = MeiDocumentStats.of(rootElement);
+        }
+        return stats;
+    }
+
+    /**
+     * Keep counts made while reading the document. They are dropped by
+     * the first change made before they are asked for.
+     */
+    /* package */ void setStats(MeiDocumentStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Called on every change to the elements of this document, whether or
+     * not anyone is listening.
+     */
+    /* package */ void contentChanged() {
+        if (statsListener == null) {
+            stats = null;
+        }
+    }
+
+    private void updateStats(List<MeiMutation> mutations) {
+        if (stats == null) {
+            return;
+        }
+        if (mutations.size() > 1) {
+            // Elements added in a transaction may have changed since, and
+            // those changes are in the batch too
+            stats = null;
+            return;
+        }
+        MeiMutation m = mutations.get(0);
+        switch (m.getType()) {
+        case CHILD_ADDED:
+            stats.addSubtree(m.getChild(), depth(m.getElement()) + 1, 1);
+            break;
+        case CHILD_REMOVED:
+            stats.addSubtree(m.getChild(), depth(m.getElement()) + 1, -1);
+            break;
+        case ATTRIBUTE_ADDED:
+            stats.attribute(m.getAttribute(), 1);
+            break;
+        case ATTRIBUTE_REMOVED:
+            stats.attribute(m.getAttribute(), -1);
+            break;
+        case ATTRIBUTE_CHANGED:
+            stats.attributeChanged(m.getOldValue(), m.getNewValue());
+            break;
+        case VALUE_CHANGED:
+        case TAIL_CHANGED:
+            stats.textChanged(m.getOldValue(), m.getNewValue());
+            break;
+        case ID_CHANGED:
+            stats.idChanged(m.getOldValue(), m.getNewValue());
+            break;
+        }
+    }
+
+    /**
+     * Get the depth of an element, the root being at depth 1.
+     */
+    private static int depth(MeiElement e) {
+        int ret = 0;
+        for (; e != null; e = e.getParent()) {
+            ret++;
+        }
+        return ret;
+    }
+
+    /**
+     * Register a listener that is told about all changes made to the
+     * elements of this document.
+     * @param listener
+     *          the listener to add
+     */
+    public void addMutationListener(MeiMutationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop sending changes to a listener.
+     * @param listener
+     *          the listener to remove
+     */
+    public void removeMutationListener(MeiMutationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /* package */ boolean hasMutationListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Start a transaction. Changes made until the matching call to
+     * {@link #endTransaction()} are sent to listeners in one batch.
+     * Repeated changes to the value, tail or id of the same element are
+     * combined into one mutation. Transactions can be nested, the batch
+     * is sent when the outermost transaction ends.
+     */
+    public void beginTransaction() {
+        transactionDepth++;
+    }
+
+    /**
+     * End a transaction started with {@link #beginTransaction()}.
+     */
+    public void endTransaction() {
+        if (transactionDepth == 0) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        transactionDepth--;
+        if (transactionDepth == 0 && !pending.isEmpty()) {
+            List<MeiMutation> batch = new ArrayList<MeiMutation>();
+            for (MeiMutation m : pending) {
+                if (!m.isCancelled()) {
+                    batch.add(m);
+                }
+            }
+            pending = new ArrayList<MeiMutation>();
+            pendingText = new IdentityHashMap<MeiElement, List<MeiMutation>>();
+            if (!batch.isEmpty()) {
+                deliver(Collections.unmodifiableList(batch));
+            }
+        }
+    }
+
+    /**
+     * Check if a transaction is in progress.
+     */
+    public boolean inTransaction() {
+        return transactionDepth > 0;
+    }
+
+    /**
+     * Send a mutation to the listeners, or save it until the current
+     * transaction ends.
+     */
+    /* package */ void fireMutation(MeiMutation mutation) {
+        if (transactionDepth == 0) {
+            deliver(Collections.singletonList(mutation));
+            return;
+        }
+        switch (mutation.getType()) {
+        case VALUE_CHANGED:
+        case TAIL_CHANGED:
+        case ID_CHANGED:
+            coalesce(mutation);
+            break;
+        default:
+            pending.add(mutation);
+        }
+    }
+
+    /**
+     * Combine a text mutation with an earlier one of the same type on the
+     * same element. If the text ends up the same as it started, the
+     * mutation is dropped.
+     */
+    private void coalesce(MeiMutation mutation) {
+        List<MeiMutation> earlier = pendingText.get(mutation.getElement());
+        if (earlier == null) {
+            earlier = new ArrayList<MeiMutation>(1);
+            pendingText.put(mutation.getElement(), earlier);
+        }
+        for (int i = 0; i < earlier.size(); i++) {
+            MeiMutation m = earlier.get(i);
+            if (m.getType() == mutation.getType()) {
+                m.setNewValue(mutation.getNewValue());
+                String old = m.getOldValue();
+                if (old == null ? m.getNewValue() == null : old.equals(m.getNewValue())) {
+                    m.cancel();
+                    earlier.remove(i);
+                }
+                return;
+            }
+        }
+        earlier.add(mutation);
+        pending.add(mutation);
+    }
+
+    private void deliver(List<MeiMutation> mutations) {
+        for (MeiMutationListener l : listeners) {
+            l.mutated(this, mutations);
+        }
     }
 
     /**
@@ -68,6 +320,129 @@ public class MeiDocument {
         return null;
     }
 
+    /**
+     * Give every element a new id from a scheme, and update the references
+     * to the old ids in {@link #REFERENCE_ATTRIBUTES}. This takes two passes
+     * over the tree: one to make the ids, and one to change them and the
+     * references, which are looked up in a map of old ids to new ones.
+     * Nothing is changed if two elements would have the same id.
+     * Listeners are told about the changes in one transaction.
+     * @return
+     *          the new ids of the elements whose ids changed, by old id
+     */
+    public Map<String, String> renumberIds(MeiIdScheme scheme) {
+        return renumberIds(scheme, REFERENCE_ATTRIBUTES);
+    }
+
+    /**
+     * Give every element a new id from a scheme, and update the references
+     * to the old ids.
+     * @param references
+     *          the names of attributes with references to ids. Their values
+     *          are lists of references separated by spaces, each of which
+     *          is an id, with or without a '#' before it. A changed
+     *          reference keeps the form it was written in.
+     * @see #renumberIds(MeiIdScheme)
+     */
+    public Map<String, String> renumberIds(MeiIdScheme scheme, Collection<String> references) {
+        Map<String, String> changed = new HashMap<String, String>();
+        if (rootElement == null) {
+            return changed;
+        }
+        Map<MeiElement, String> newIds = new IdentityHashMap<MeiElement, String>();
+        makeIds(rootElement, scheme, newIds, new HashSet<String>(), changed);
+
+        beginTransaction();
+        try {
+            updateIds(rootElement, newIds, changed, references);
+        } finally {
+            endTransaction();
+        }
+        return changed;
+    }
+
+    private static void makeIds(MeiElement e, MeiIdScheme scheme, Map<MeiElement, String> newIds,
+            Set<String> used, Map<String, String> changed) {
+        if (e.getTag() != MeiTag.COMMENT) {
+            String id = scheme.newId(e);
+            if (id == null) {
+                id = e.getId();
+            } else if (!id.equals(e.getId())) {
+                newIds.put(e, id);
+                changed.put(e.getId(), id);
+            }
+            if (!used.add(id)) {
+                throw new IllegalArgumentException("More than one element would have the id " + id);
+            }
+        }
+        for (MeiElement c : e.getChildren()) {
+            makeIds(c, scheme, newIds, used, changed);
+        }
+    }
+
+    private void updateIds(MeiElement e, Map<MeiElement, String> newIds, Map<String, String> changed,
+            Collection<String> references) {
+        String id = newIds.get(e);
+        if (id != null) {
+            e.setId(id);
+        }
+        List<MeiAttribute> attributes = e.attributeList();
+        for (int i = 0; i < attributes.size(); i++) {
+            MeiAttribute attr = attributes.get(i);
+            if (!references.contains(attr.getName()) || attr.getValue() == null) {
+                continue;
+            }
+            String value = updateReferences(attr.getValue(), changed);
+            if (value != null) {
+                // A new attribute, since it may be shared with other elements
+                e.replaceAttribute(i, new MeiAttribute(attr.getNamespace(), attr.getName(), value));
+                attributes = e.attributeList();
+            }
+        }
+        for (MeiElement c : e.getChildren()) {
+            updateIds(c, newIds, changed, references);
+        }
+    }
+
+    /**
+     * Change the references in an attribute value to ids that changed.
+     * @return
+     *          the new value, or null if nothing changed
+     */
+    private static String updateReferences(String value, Map<String, String> changed) {
+        StringBuilder ret = null;
+        int start = 0;
+        while (start < value.length()) {
+            int end = start;
+            while (end < value.length() && !Character.isWhitespace(value.charAt(end))) {
+                end++;
+            }
+            boolean hash = end > start && value.charAt(start) == '#';
+            String id = end > start ? changed.get(value.substring(hash ? start + 1 : start, end)) : null;
+            if (id != null) {
+                if (ret == null) {
+                    ret = new StringBuilder(value.length());
+                    ret.append(value, 0, start);
+                }
+                if (hash) {
+                    ret.append('#');
+                }
+                ret.append(id);
+            } else if (ret != null) {
+                ret.append(value, start, end);
+            }
+            start = end;
+            while (end < value.length() && Character.isWhitespace(value.charAt(end))) {
+                end++;
+            }
+            if (ret != null) {
+                ret.append(value, start, end);
+            }
+            start = end;
+        }
+        return ret == null ? null : ret.toString();
+    }
+
     /**
      * Get all elements in this document with a given tag name.
      * @param name
@@ -80,4 +455,17 @@ public class MeiDocument {
             return new ArrayList<MeiElement>();
         }
     }
+
+    /**
+     * Get all elements in this document with a given tag.
+     * @param tag
+     * @return
+     */
+    public List<MeiElement> getElementsByTag(MeiTag tag) {
+        if (rootElement != null) {
+            return rootElement.getDescendantsByTag(tag);
+        } else {
+            return new ArrayList<MeiElement>();
+        }
+    }
 }
@@ -0,0 +1,224 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import ca.mcgill.music.ddmal.mei.MeiXmlReader.MeiXmlReadException;
+
+/**
+ * A cache of documents read from files, for programs that read the same
+ * files many times.
+ * Documents are kept as {@link MeiCompactDocument}s, which can't be
+ * changed, so a cached document can be shared by every caller.
+ * {@link #getCopy(File)} gives each caller its own document to change.
+ * <p>
+ * A file is read again if its modification time or length has changed.
+ * If several threads ask for the same file at once, it is only read once.
+ * When the estimated size of all cached documents is larger than the
+ * limit, the least recently used documents are removed.
+ */
+public class MeiDocumentCache {
+
+    private final long maxSize;
+    private final MeiReaderOptions options;
+    /** Cached documents by path, in order of last use. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size;
+
+    private static class Entry {
+        final long modified;
+        final long length;
+        final FutureTask<MeiCompactDocument> task;
+        /** The estimated size of the document, or 0 while it is being read. */
+        long size;
+
+        Entry(long modified, long length, FutureTask<MeiCompactDocument> task) {
+            this.modified = modified;
+            this.length = length;
+            this.task = task;
+        }
+    }
+
+    /**
+     * Create a cache.
+     * @param maxSize
+     *          the largest estimated size in bytes of all cached documents
+     */
+    public MeiDocumentCache(long maxSize) {
+        this(maxSize, new MeiReaderOptions());
+    }
+
+    /**
+     * Create a cache that reads files with the given options.
+     * @param maxSize
+     *          the largest estimated size in bytes of all cached documents
+     */
+    public MeiDocumentCache(long maxSize, MeiReaderOptions options) {
+        this.maxSize = maxSize;
+        this.options = options;
+    }
+
+    /**
+     * Get a document from the cache, reading it if it isn't cached or if
+     * the file has changed. The document is shared with other callers.
+     * @throws MeiXmlReadException
+     *          if the file can't be read
+     */
+    public MeiCompactDocument get(final File file) {
+        String key;
+        try {
+            key = file.getCanonicalPath();
+        } catch (IOException e) {
+            throw new MeiXmlReadException(e);
+        }
+        long modified = file.lastModified();
+        long length = file.length();
+
+        Entry entry;
+        boolean read = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && (entry.modified != modified || entry.length != length)) {
+                remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(modified, length, new FutureTask<MeiCompactDocument>(new Callable<MeiCompactDocument>() {
+                    public MeiCompactDocument call() {
+                        return MeiCompactDocument.of(MeiXmlReader.loadFile(file, options));
+                    }
+                }));
+                entries.put(key, entry);
+                read = true;
+            }
+        }
+
+        if (read) {
+            entry.task.run();
+        }
+        MeiCompactDocument document;
+        try {
+            document = entry.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MeiXmlReadException(e);
+        } catch (ExecutionException e) {
+            // Let a later call try again
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MeiXmlReadException(e.getCause());
+        }
+
+        if (read) {
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    entry.size = document.getEstimatedSize();
+                    size += entry.size;
+                    evict();
+                }
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Get a copy of a cached document that the caller can change. The copy
+     * has the same canonical form as the file read with the cache's
+     * options.
+     * @throws MeiXmlReadException
+     *          if the file can't be read
+     */
+    public MeiDocument getCopy(File file) {
+        return get(file).toDocument();
+    }
+
+    /**
+     * Remove a file from the cache.
+     */
+    public synchronized void invalidate(File file) {
+        try {
+            remove(file.getCanonicalPath());
+        } catch (IOException e) {
+            throw new MeiXmlReadException(e);
+        }
+    }
+
+    /**
+     * Remove all documents from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Get the number of documents in the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the estimated size in bytes of all cached documents.
+     */
+    public synchronized long getEstimatedSize() {
+        return size;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    /**
+     * Remove the least recently used documents until the cache is small
+     * enough. Documents that are still being read aren't counted yet.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.task.isDone()) {
+                size -= entry.size;
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts of what an {@link MeiDocument} contains, and an estimate of the
+ * heap it uses. {@link MeiXmlReader} counts a document while reading it,
+ * and the document keeps the counts up to date as it is changed.
+ * Get them with {@link MeiDocument#getStats()}.
+ *
+ * Comments are counted as elements with the name "#comment".
+ * Changes to the value of an attribute of an element, made with
+ * {@link MeiAttribute#setValue(String)}, are counted too.
+ */
+public class MeiDocumentStats {
+
+    /*
+     * Approximate sizes in bytes on a 64-bit JVM, used for the estimate.
+     * An element has two lists, and each attribute has its own namespace.
+     */
+    private static final int ELEMENT_SIZE = 160;
+    private static final int ATTRIBUTE_SIZE = 64;
+    private static final int TEXT_SIZE = 72;
+    private static final int STRING_SIZE = 40;
+    private static final int CHAR_SIZE = 2;
+
+    /** The number of elements with each name. */
+    private final Map<String, int[]> counts = new HashMap<String, int[]>();
+    private int elements;
+    /** The number of elements at each depth, the root being at depth 1. */
+    private int[] depths = new int[16];
+    private int attributes;
+    private long attributeChars;
+    private int texts;
+    private long textChars;
+    private long idChars;
+
+    /* package */ MeiDocumentStats() {
+    }
+
+    /**
+     * Count everything in a tree.
+     * @param root
+     *          the root element, or null for an empty document
+     */
+    /* package */ static MeiDocumentStats of(MeiElement root) {
+        MeiDocumentStats ret = new MeiDocumentStats();
+        if (root != null) {
+            ret.addSubtree(root, 1, 1);
+        }
+        return ret;
+    }
+
+    /**
+     * Count an element and its attributes, but not its children or text.
+     * @param sign
+     *          1 to add the element, -1 to take it away
+     */
+    /* package */ void element(MeiElement e, int depth, int sign) {
+        int[] count = counts.get(e.getName());
+        if (count == null) {
+            count = new int[1];
+            counts.put(e.getName(), count);
+        }
+        count[0] += sign;
+        if (count[0] == 0) {
+            counts.remove(e.getName());
+        }
+        elements += sign;
+        if (depth >= depths.length) {
+            int[] bigger = new int[Math.max(depths.length * 2, depth + 1)];
+            System.arraycopy(depths, 0, bigger, 0, depths.length);
+            depths = bigger;
+        }
+        depths[depth] += sign;
+        if (e.getId() != null) {
+            idChars += sign * e.getId().length();
+        }
+        for (MeiAttribute a : e.attributeList()) {
+            attribute(a, sign);
+        }
+    }
+
+    /**
+     * Count an element and everything inside it, including its tail.
+     */
+    /* package */ void addSubtree(MeiElement e, int depth, int sign) {
+        element(e, depth, sign);
+        text(e.getValueText(), sign);
+        text(e.getTailText(), sign);
+        for (MeiElement c : e.getChildren()) {
+            addSubtree(c, depth + 1, sign);
+        }
+    }
+
+    /* package */ void attribute(MeiAttribute a, int sign) {
+        attributes += sign;
+        if (a.getValue() != null) {
+            attributeChars += sign * a.getValue().length();
+        }
+    }
+
+    /* package */ void text(MeiText text, int sign) {
+        if (text != null) {
+            texts += sign;
+            textChars += sign * text.length();
+        }
+    }
+
+    /**
+     * Count a change of the value or tail of an element.
+     */
+    /* package */ void textChanged(String oldText, String newText) {
+        if (oldText != null) {
+            texts--;
+            textChars -= oldText.length();
+        }
+        if (newText != null) {
+            texts++;
+            textChars += newText.length();
+        }
+    }
+
+    /* package */ void attributeChanged(String oldValue, String newValue) {
+        attributeChars += (newValue == null ? 0 : newValue.length()) - (oldValue == null ? 0 : oldValue.length());
+    }
+
+    /* package */ void idChanged(String oldId, String newId) {
+        idChars += (newId == null ? 0 : newId.length()) - (oldId == null ? 0 : oldId.length());
+    }
+
+    /**
+     * Get the number of elements in the document.
+     */
+    public int getElementCount() {
+        return elements;
+    }
+
+    /**
+     * Get the number of elements with a name.
+     */
+    public int getCount(String name) {
+        int[] count = counts.get(name);
+        return count == null ? 0 : count[0];
+    }
+
+    public int getCount(MeiTag tag) {
+        return getCount(tag.getName());
+    }
+
+    /**
+     * Get the number of elements with each name, sorted by name.
+     */
+    public Map<String, Integer> getCounts() {
+        Map<String, Integer> ret = new TreeMap<String, Integer>();
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    /**
+     * Get the depth of the deepest element. The root element has depth 1,
+     * and an empty document depth 0.
+     */
+    public int getMaxDepth() {
+        for (int i = depths.length - 1; i > 0; i--) {
+            if (depths[i] > 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the number of attributes, not counting xml:id.
+     */
+    public int getAttributeCount() {
+        return attributes;
+    }
+
+    /**
+     * Get the number of characters in the values and tails of all elements.
+     */
+    public long getTextLength() {
+        return textChars;
+    }
+
+    /**
+     * Estimate the number of bytes of heap that the elements of the
+     * document use. Strings that are shared, such as the names of known
+     * tags and attributes, are not counted.
+     */
+    public long getEstimatedSize() {
+        return (long) elements * (ELEMENT_SIZE + STRING_SIZE) + idChars * CHAR_SIZE
+                + (long) attributes * (ATTRIBUTE_SIZE + STRING_SIZE) + attributeChars * CHAR_SIZE
+                + (long) texts * (TEXT_SIZE + STRING_SIZE) + textChars * CHAR_SIZE;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("elements=").append(elements)
+                .append(" maxDepth=").append(getMaxDepth())
+                .append(" attributes=").append(attributes)
+                .append(" text=").append(textChars)
+                .append(" estimatedSize=").append(getEstimatedSize())
+                .toString();
+    }
+}
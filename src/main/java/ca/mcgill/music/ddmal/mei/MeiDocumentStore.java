@@ -0,0 +1,364 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A file holding many documents in the form of {@link MeiCompactDocument},
+ * each stored under a key.
+ * The file is memory-mapped, so documents are read straight from the
+ * operating system's page cache instead of being copied into the Java
+ * heap. Opening a document only reads a small header; everything else is
+ * read when it is used.
+ * <p>
+ * A store is written once with a {@link Writer}:
+ * <pre>
+ * MeiDocumentStore.Writer writer = MeiDocumentStore.create(file);
+ * writer.add("score1", doc);
+ * writer.close();
+ * MeiDocumentStore store = MeiDocumentStore.open(file);
+ * MeiCompactDocument score = store.getDocument("score1");
+ * </pre>
+ */
+public final class MeiDocumentStore implements Closeable {
+
+    private static final int MAGIC = 0x4a4d4549;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 24;
+    /** The length of each entry in the directory: an offset and a length. */
+    private static final int ENTRY_LENGTH = 12;
+    /** The most that can be mapped into one buffer. */
+    private static final long MAX_CHUNK = Integer.MAX_VALUE;
+
+    public static class MeiDocumentStoreException extends RuntimeException {
+        private static final long serialVersionUID = 3877250614426407415L;
+        public MeiDocumentStoreException(String reason) {
+            super(reason);
+        }
+        public MeiDocumentStoreException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int count;
+    /** The offset and length of each document, in key order. */
+    private final ByteBuffer entries;
+    /** The keys of all documents, sorted. */
+    private final MeiStringTable keys;
+    /** The documents, mapped in chunks that each hold whole documents. */
+    private final ByteBuffer[] chunks;
+    /** The position in the file of each chunk. */
+    private final long[] chunkStarts;
+    /** The chunk of each document, in key order. */
+    private final int[] chunkOf;
+
+    private MeiDocumentStore(File path, RandomAccessFile file) throws IOException {
+        this.file = file;
+        channel = file.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new MeiDocumentStoreException("Not a document store: " + path);
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new MeiDocumentStoreException("Not a document store: " + path);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new MeiDocumentStoreException("Unsupported document store version " + version);
+        }
+        long directory = header.getLong();
+        count = header.getInt();
+
+        ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, directory, channel.size() - directory);
+        entries = slice(buf, count * ENTRY_LENGTH);
+        IntBuffer keyOffsets = slice(buf, (count + 1) * 4).asIntBuffer();
+        keys = MeiStringTable.of(keyOffsets, slice(buf, keyOffsets.get(count)));
+
+        // Documents were written one after another, so in the order of
+        // their offsets each chunk is a run of them that fits in a buffer
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(offset(a), offset(b));
+            }
+        });
+        chunkOf = new int[count];
+        List<long[]> ranges = new ArrayList<long[]>();
+        long start = HEADER_LENGTH;
+        long end = HEADER_LENGTH;
+        for (int i : order) {
+            long documentEnd = offset(i) + length(i);
+            if (documentEnd - start > MAX_CHUNK) {
+                ranges.add(new long[] {start, end});
+                start = offset(i);
+            }
+            end = Math.max(end, documentEnd);
+            chunkOf[i] = ranges.size();
+        }
+        ranges.add(new long[] {start, end});
+        chunks = new ByteBuffer[ranges.size()];
+        chunkStarts = new long[ranges.size()];
+        for (int i = 0; i < chunks.length; i++) {
+            long[] range = ranges.get(i);
+            chunkStarts[i] = range[0];
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+        }
+    }
+
+    /**
+     * Open a store that was written with {@link #create(File)}.
+     * @throws MeiDocumentStoreException
+     *          if the file can't be read or isn't a document store
+     */
+    public static MeiDocumentStore open(File path) {
+        RandomAccessFile file = null;
+        MeiDocumentStore store = null;
+        try {
+            file = new RandomAccessFile(path, "r");
+            store = new MeiDocumentStore(path, file);
+            return store;
+        } catch (IOException e) {
+            throw new MeiDocumentStoreException(e);
+        } finally {
+            if (store == null && file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // Already failing
+                }
+            }
+        }
+    }
+
+    /**
+     * Start writing a new store, replacing any file at the path.
+     * The store can't be opened until the writer is closed.
+     */
+    public static Writer create(File path) {
+        try {
+            return new Writer(path);
+        } catch (IOException e) {
+            throw new MeiDocumentStoreException(e);
+        }
+    }
+
+    /**
+     * Get the number of documents in this store.
+     */
+    public int size() {
+        return count;
+    }
+
+    public boolean contains(String key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Get all keys in this store, in sorted order.
+     */
+    public List<String> getKeys() {
+        List<String> ret = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            ret.add(keys.get(i));
+        }
+        return ret;
+    }
+
+    /**
+     * Get the document stored with a key.
+     * The documents are mapped once, when the store is opened, so this only
+     * makes a view of the mapped bytes. The document stays readable after
+     * this store is closed.
+     * @return
+     *          the document, or null if there is no document with the key
+     */
+    public MeiCompactDocument getDocument(String key) {
+        int index = find(key);
+        if (index < 0) {
+            return null;
+        }
+        int chunk = chunkOf[index];
+        int position = (int) (offset(index) - chunkStarts[chunk]);
+        ByteBuffer view = chunks[chunk].duplicate();
+        view.position(position);
+        view.limit(position + length(index));
+        return MeiCompactDocument.read(view.slice());
+    }
+
+    private long offset(int index) {
+        return entries.getLong(index * ENTRY_LENGTH);
+    }
+
+    private int length(int index) {
+        return entries.getInt(index * ENTRY_LENGTH + 8);
+    }
+
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new MeiDocumentStoreException(e);
+        }
+    }
+
+    private int find(String key) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = keys.compare(mid, key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int length) {
+        ByteBuffer ret = buf.slice();
+        ret.limit(length);
+        buf.position(buf.position() + length);
+        return ret;
+    }
+
+    /**
+     * Writes documents to a new store.
+     * Documents are written as they are added; the list of keys is written
+     * when the writer is closed.
+     */
+    public static final class Writer implements Closeable {
+        private final RandomAccessFile file;
+        private final DataOutputStream out;
+        private final Map<String, long[]> entries = new TreeMap<String, long[]>();
+        private long position;
+
+        private Writer(File path) throws IOException {
+            file = new RandomAccessFile(path, "rw");
+            file.setLength(0);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file.getChannel())));
+            // Filled in by close()
+            out.write(new byte[HEADER_LENGTH]);
+            position = HEADER_LENGTH;
+        }
+
+        /**
+         * Add a document to the store.
+         * @throws IllegalArgumentException
+         *          if a document was already added with the same key
+         */
+        public void add(String key, MeiDocument document) {
+            add(key, MeiCompactDocument.of(document));
+        }
+
+        /**
+         * Add a document to the store.
+         * @throws IllegalArgumentException
+         *          if a document was already added with the same key
+         */
+        public void add(String key, MeiCompactDocument document) {
+            if (entries.containsKey(key)) {
+                throw new IllegalArgumentException("Duplicate key " + key);
+            }
+            try {
+                int length = document.write(out);
+                entries.put(key, new long[] {position, length});
+                position += length;
+                pad();
+            } catch (IOException e) {
+                throw new MeiDocumentStoreException(e);
+            }
+        }
+
+        /**
+         * Write the list of keys and close the file.
+         */
+        public void close() {
+            try {
+                long directory = position;
+                List<byte[]> keyBytes = new ArrayList<byte[]>(entries.size());
+                for (Map.Entry<String, long[]> e : entries.entrySet()) {
+                    out.writeLong(e.getValue()[0]);
+                    out.writeInt((int) e.getValue()[1]);
+                    keyBytes.add(e.getKey().getBytes(MeiStringTable.UTF8));
+                }
+                int offset = 0;
+                for (byte[] b : keyBytes) {
+                    out.writeInt(offset);
+                    offset += b.length;
+                }
+                out.writeInt(offset);
+                for (byte[] b : keyBytes) {
+                    out.write(b);
+                }
+                out.flush();
+
+                file.seek(0);
+                file.writeInt(MAGIC);
+                file.writeInt(VERSION);
+                file.writeLong(directory);
+                file.writeInt(entries.size());
+                file.close();
+            } catch (IOException e) {
+                throw new MeiDocumentStoreException(e);
+            }
+        }
+
+        /** Start each document at a multiple of 8 bytes. */
+        private void pad() throws IOException {
+            long aligned = (position + 7) & ~7L;
+            while (position < aligned) {
+                out.writeByte(0);
+                position++;
+            }
+        }
+    }
+}
@@ -26,29 +26,45 @@ package ca.mcgill.music.ddmal.mei;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
-public class MeiElement {
+public class MeiElement implements MeiElementView {
     public static final MeiNamespace DEFAULT_NAMESPACE = new MeiNamespace("http://www.music-encoding.org/ns/mei", "mei");
 
     /** The unique identifier of this element. */
     private String id;
+    /** True if the id was made up when the element was created. */
+    private boolean generatedId;
     /** The tag name of this element. */
     private final String name;
+    /** The MEI tag of this element, found from the name and namespace. */
+    private final MeiTag tag;
     /** The parent element of this one. */
     private MeiElement parent;
+    /** The position of this element in its parent's children. */
+    private int index;
     /** The text value of this tag. e.g., &lt;tag>value&lt;/tag> */
-    private String value;
+    private MeiText value;
     /** The tail of this tag. e.g., &lt;tag>value&lt;/tag>tail */
-    private String tail;
+    private MeiText tail;
     /** The namespace of this element. */
     private MeiNamespace namespace;
+    /** The document, if this element is its root. */
+    private MeiDocument document;
 
     /** Key/value attributes attached to this element. */
     private List<MeiAttribute> attributes;
+    /** True if the attributes are shared with other elements, and can't be changed. */
+    private boolean sharedAttributes;
     /** An ordered list of all child elements. */
     private List<MeiElement> children;
 
@@ -58,14 +74,26 @@ public class MeiElement {
      * @param name
      * @param id
      */
-    private MeiElement(MeiNamespace namespace, String name, String id) {
+    /* package */ MeiElement(MeiNamespace namespace, String name, String id) {
         this.namespace = namespace;
-        this.name = name;
+        this.tag = findTag(namespace, name);
+        // Share the name string of known tags
+        this.name = tag == MeiTag.UNKNOWN ? name : tag.getName();
         this.id = id;
         this.children = new ArrayList<MeiElement>();
         this.attributes = new ArrayList<MeiAttribute>();
     }
 
+    /**
+     * Make a new element with a given id, which may have been generated
+     * for another copy of the element.
+     * This method should only be used internally
+     */
+    /* package */ MeiElement(MeiNamespace namespace, String name, String id, boolean generatedId) {
+        this(namespace, name, id);
+        this.generatedId = generatedId;
+    }
+
     /**
      * Make a new element with a given name and id.
      * This method should only be used internally
@@ -84,6 +112,7 @@ public class MeiElement {
      */
     /* package */ MeiElement(MeiNamespace ns, String name) {
         this(ns, name, UUID.randomUUID().toString());
+        this.generatedId = true;
     }
 
     /**
@@ -93,6 +122,17 @@ public class MeiElement {
      */
     public MeiElement(String name) {
         this(DEFAULT_NAMESPACE, name, UUID.randomUUID().toString());
+        this.generatedId = true;
+    }
+
+    private static MeiTag findTag(MeiNamespace namespace, String name) {
+        if (name.equals("#comment")) {
+            return MeiTag.COMMENT;
+        }
+        if (namespace != null && DEFAULT_NAMESPACE.getHref().equals(namespace.getHref())) {
+            return MeiTag.forName(name);
+        }
+        return MeiTag.UNKNOWN;
     }
 
     public MeiNamespace getNamespace() {
@@ -103,64 +143,215 @@ public class MeiElement {
         return name;
     }
 
+    /**
+     * Get the MEI tag of this element.
+     * @return
+     *          the tag, or {@link MeiTag#UNKNOWN} if this element is not
+     *          in the MEI namespace or its name is not an MEI tag.
+     */
+    public MeiTag getTag() {
+        return tag;
+    }
+
+    /**
+     * Check if this element has a given name. Elements with a known tag
+     * are compared by their tag instead of their name.
+     * @param nameTag
+     *          the tag for the name (from {@link MeiTag#forName(String)})
+     * @param name
+     *          the name to look for
+     */
+    private boolean hasName(MeiTag nameTag, String name) {
+        if (tag != MeiTag.UNKNOWN) {
+            return tag == nameTag;
+        }
+        return this.name.equals(name);
+    }
+
     public String getId() {
         return id;
     }
 
+    /**
+     * True if the id of this element was made up when it was created,
+     * rather than read from a file or set. Canonical output leaves these
+     * ids out, since they are different each time a file is read.
+     */
+    public boolean hasGeneratedId() {
+        return generatedId;
+    }
+
     /* package */ void setId(String id) {
+        String old = this.id;
         this.id = id;
+        this.generatedId = false;
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            doc.fireMutation(MeiMutation.textChanged(MeiMutation.Type.ID_CHANGED, this, old, id));
+        }
     }
 
     public MeiElement getParent() {
         return parent;
     }
 
+    /**
+     * Get the document that this element is part of.
+     * @return
+     *          the document whose root element is this element or one of its
+     *          ancestors, or null if the element is not in a document.
+     */
+    public MeiDocument getDocument() {
+        MeiElement e = this;
+        while (e.parent != null) {
+            e = e.parent;
+        }
+        return e.document;
+    }
+
+    /* package */ void setDocument(MeiDocument document) {
+        this.document = document;
+    }
+
+    /**
+     * Tell the document of this element that it changed, and get the
+     * document if anyone is listening to its changes.
+     */
+    private MeiDocument getListenedDocument() {
+        MeiDocument doc = getDocument();
+        if (doc == null) {
+            return null;
+        }
+        doc.contentChanged();
+        return doc.hasMutationListeners() ? doc : null;
+    }
+
     public void setValue(String value) {
+        setValueText(value == null ? null : MeiText.of(value));
+    }
+
+    /**
+     * Set the value of this element to text that may be made of several
+     * segments, including CDATA sections.
+     */
+    public void setValueText(MeiText value) {
+        MeiText old = this.value;
         this.value = value;
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            doc.fireMutation(MeiMutation.textChanged(MeiMutation.Type.VALUE_CHANGED, this, string(old), string(value)));
+        }
     }
 
+    /**
+     * Get the value of this element, with all of its segments joined.
+     */
     public String getValue() {
+        return string(value);
+    }
+
+    public MeiText getValueText() {
         return value;
     }
 
     public void setTail(String tail) {
+        setTailText(tail == null ? null : MeiText.of(tail));
+    }
+
+    /**
+     * Set the tail of this element to text that may be made of several
+     * segments, including CDATA sections.
+     */
+    public void setTailText(MeiText tail) {
+        MeiText old = this.tail;
         this.tail = tail;
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            doc.fireMutation(MeiMutation.textChanged(MeiMutation.Type.TAIL_CHANGED, this, string(old), string(tail)));
+        }
     }
 
+    /**
+     * Get the tail of this element, with all of its segments joined.
+     */
     public String getTail() {
+        return string(tail);
+    }
+
+    public MeiText getTailText() {
         return tail;
     }
 
+    private static String string(MeiText text) {
+        return text == null ? null : text.toString();
+    }
+
     /**
-     * Add an attribute to this element
+     * Add an attribute to this element. If the attribute already belongs
+     * to another element, a copy of it is added.
      * @param attribute
      *          the attribute to add
      */
     public void addAttribute(MeiAttribute attribute) {
+        ownAttributes();
+        attribute = adopt(attribute);
         attributes.add(attribute);
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            doc.fireMutation(MeiMutation.attributeAdded(this, attribute));
+        }
     }
 
     public void addAttribute(String name, String value) {
-        MeiAttribute attribute = new MeiAttribute(name, value);
-        attributes.add(attribute);
+        addAttribute(new MeiAttribute(name, value));
     }
 
     /**
-     * Add the specified list of attributes to this element.
+     * Add the specified list of attributes to this element. Attributes that
+     * already belong to another element are copied.
      * @param attributes
      *          the list to append to the current list of elements
      */
     public void addAllAttributes(List<MeiAttribute> attributes) {
-        this.attributes.addAll(attributes);
+        ownAttributes();
+        int first = this.attributes.size();
+        for (MeiAttribute a : attributes) {
+            this.attributes.add(adopt(a));
+        }
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            for (int i = first; i < this.attributes.size(); i++) {
+                doc.fireMutation(MeiMutation.attributeAdded(this, this.attributes.get(i)));
+            }
+        }
     }
 
     /**
-     * Replace all attributes on this element with the specified list.
+     * Replace all attributes on this element with the attributes in the
+     * specified list. Attributes that already belong to another element
+     * are copied.
      * @param attributes
      *          the list of attributes to replace all current attributes
      */
     public void setAttributes(List<MeiAttribute> attributes) {
-        this.attributes = attributes;
+        List<MeiAttribute> old = this.attributes;
+        this.attributes = new ArrayList<MeiAttribute>(attributes.size());
+        this.sharedAttributes = false;
+        for (MeiAttribute a : old) {
+            a.release(this);
+        }
+        for (MeiAttribute a : attributes) {
+            this.attributes.add(adopt(a));
+        }
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            for (MeiAttribute a : old) {
+                doc.fireMutation(MeiMutation.attributeRemoved(this, a));
+            }
+            for (MeiAttribute a : this.attributes) {
+                doc.fireMutation(MeiMutation.attributeAdded(this, a));
+            }
+        }
     }
 
     /**
@@ -175,7 +366,21 @@ public class MeiElement {
                 remove.add(attribute);
             }
         }
-        attributes.removeAll(remove);
+        if (!remove.isEmpty()) {
+            ownAttributes();
+            for (MeiAttribute a : attributes) {
+                if (a.getName().equals(name)) {
+                    a.release(this);
+                }
+            }
+            attributes.removeAll(remove);
+        }
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            for (MeiAttribute a : remove) {
+                doc.fireMutation(MeiMutation.attributeRemoved(this, a));
+            }
+        }
     }
 
     /**
@@ -184,14 +389,106 @@ public class MeiElement {
      *          the attribute to remove
      */
     public void removeAttribute(MeiAttribute attribute) {
-        this.attributes.remove(attribute);
+        if (!attributes.contains(attribute)) {
+            return;
+        }
+        ownAttributes();
+        int index = this.attributes.indexOf(attribute);
+        if (index >= 0) {
+            this.attributes.remove(index).release(this);
+            MeiDocument doc = getListenedDocument();
+            if (doc != null) {
+                doc.fireMutation(MeiMutation.attributeRemoved(this, attribute));
+            }
+        }
     }
 
     /**
      * Remove all attributes from this element.
      */
     public void removeAllAttributes() {
-        attributes.clear();
+        List<MeiAttribute> old = attributes;
+        attributes = new ArrayList<MeiAttribute>();
+        sharedAttributes = false;
+        for (MeiAttribute a : old) {
+            a.release(this);
+        }
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            for (MeiAttribute a : old) {
+                doc.fireMutation(MeiMutation.attributeRemoved(this, a));
+            }
+        }
+    }
+
+    /**
+     * Replace the attribute at a position with another.
+     */
+    /* package */ void replaceAttribute(int index, MeiAttribute attribute) {
+        ownAttributes();
+        MeiAttribute old = attributes.get(index);
+        old.release(this);
+        attribute = adopt(attribute);
+        attributes.set(index, attribute);
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            doc.fireMutation(MeiMutation.attributeRemoved(this, old));
+            doc.fireMutation(MeiMutation.attributeAdded(this, attribute));
+        }
+    }
+
+    /**
+     * Take an attribute for this element. An attribute tells one element
+     * about changes to its value, so one that belongs to another element
+     * is copied.
+     * @return
+     *          the attribute, or its copy
+     */
+    private MeiAttribute adopt(MeiAttribute attribute) {
+        if (attribute.getOwner() != null && attribute.getOwner() != this) {
+            attribute = new MeiAttribute(attribute.getNamespace(), attribute.getName(), attribute.getValue());
+        }
+        attribute.setOwner(this);
+        return attribute;
+    }
+
+    /**
+     * Tell the document that the value of an attribute of this element
+     * changed.
+     */
+    /* package */ void attributeChanged(MeiAttribute attribute, String old) {
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            doc.fireMutation(MeiMutation.attributeChanged(this, attribute, old, attribute.getValue()));
+        }
+    }
+
+    /**
+     * Use a list of attributes that is shared with other elements. It is
+     * copied, with the attributes in it, before this element's attributes
+     * are changed or given out to be changed.
+     * @see MeiAttributeTable
+     */
+    /* package */ void shareAttributes(List<MeiAttribute> shared) {
+        attributes = shared;
+        sharedAttributes = true;
+    }
+
+    /**
+     * Make a copy of the attributes for this element alone, if they are shared.
+     * Shared attributes can't be changed, so they are copied too.
+     */
+    private void ownAttributes() {
+        if (sharedAttributes) {
+            List<MeiAttribute> own = new ArrayList<MeiAttribute>(attributes.size());
+            for (MeiAttribute a : attributes) {
+                MeiAttribute copy = new MeiAttribute(a.getNamespace(), a.getName(), a.getValue());
+                copy.setOwner(this);
+                own.add(copy);
+            }
+            attributes = own;
+            sharedAttributes = false;
+        }
     }
 
     /**
@@ -211,10 +508,69 @@ public class MeiElement {
     }
 
     /**
-     * Get all attributes from this element.
-     * @return
+     * Get the value of an attribute as an integer.
+     * @param attrName
+     *             the name of the attribute, e.g. {@link MeiAttributeName#OCT}
+     * @param defaultValue
+     *             the value to return if the attribute doesn't exist
+     * @throws NumberFormatException
+     *             if the value is not an integer
+     */
+    public int getIntAttribute(String attrName, int defaultValue) {
+        String value = getAttribute(attrName);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Get the value of an attribute as a number.
+     * @param attrName
+     *             the name of the attribute, e.g. {@link MeiAttributeName#TSTAMP}
+     * @param defaultValue
+     *             the value to return if the attribute doesn't exist
+     * @throws NumberFormatException
+     *             if the value is not a number
+     */
+    public double getDoubleAttribute(String attrName, double defaultValue) {
+        String value = getAttribute(attrName);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * Get the value of an attribute as a boolean. The values "true" and
+     * "false" are recognised.
+     * @param attrName
+     *             the name of the attribute, e.g. {@link MeiAttributeName#VISIBLE}
+     * @param defaultValue
+     *             the value to return if the attribute doesn't exist or has
+     *             some other value
+     */
+    public boolean getBooleanAttribute(String attrName, boolean defaultValue) {
+        String value = getAttribute(attrName);
+        if ("true".equals(value)) {
+            return true;
+        } else if ("false".equals(value)) {
+            return false;
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Get all attributes from this element. The list can't be changed; use
+     * the methods of this element to add and remove attributes. The values
+     * of the attributes can be changed.
+     * If the element was read with a {@link MeiAttributeTable} it is first
+     * given its own copy of the attributes it shares.
      */
     public List<MeiAttribute> getAttributes() {
+        ownAttributes();
+        return Collections.unmodifiableList(attributes);
+    }
+
+    /**
+     * Get the attributes of this element without copying them if they are
+     * shared. Neither the list nor the attributes may be changed.
+     */
+    /* package */ List<MeiAttribute> attributeList() {
         return attributes;
     }
 
@@ -225,11 +581,13 @@ public class MeiElement {
      */
     public void addChild(MeiElement child) {
         // XXX: If this child belongs to someone else, should we remove it?
-        if (children.indexOf(child) >= 0) {
-            // XXX: What's going on here?
-        }
         child.parent = this;
+        child.index = children.size();
         this.children.add(child);
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            doc.fireMutation(MeiMutation.childAdded(this, child, children.size() - 1));
+        }
     }
 
     /**
@@ -238,17 +596,29 @@ public class MeiElement {
      * @param child
      */
     public void addChildBefore(MeiElement before, MeiElement child) {
-        int pos = this.children.indexOf(before);
+        int pos = before != null && before.parent == this ? before.index : -1;
         child.parent = this;
         if (pos >= 0) {
             this.children.add(pos, child);
+            renumber(pos);
         } else {
+            pos = this.children.size();
+            child.index = pos;
             this.children.add(child);
         }
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            doc.fireMutation(MeiMutation.childAdded(this, child, pos));
+        }
     }
 
+    /**
+     * Get the children of this element. The list can't be changed; add and
+     * remove children with the methods of this element, so that their
+     * positions and the document's listeners are kept up to date.
+     */
     public List<MeiElement> getChildren() {
-        return children;
+        return Collections.unmodifiableList(children);
     }
 
     /**
@@ -257,9 +627,25 @@ public class MeiElement {
      * @return
      */
     public List<MeiElement> getChildrenByName(String name) {
+        MeiTag nameTag = MeiTag.forName(name);
         List<MeiElement> ret = new ArrayList<MeiElement>();
         for (MeiElement c : children) {
-            if (c.getName().equals(name)) {
+            if (c.hasName(nameTag, name)) {
+                ret.add(c);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get all children that have the specified tag.
+     * @param matchTag
+     * @return
+     */
+    public List<MeiElement> getChildrenByTag(MeiTag matchTag) {
+        List<MeiElement> ret = new ArrayList<MeiElement>();
+        for (MeiElement c : children) {
+            if (c.tag == matchTag) {
                 ret.add(c);
             }
         }
@@ -267,10 +653,15 @@ public class MeiElement {
     }
 
     public void removeChild(MeiElement child) {
-        int location = children.indexOf(child);
-        if (location >= 0 && child.parent == this) {
+        if (child.parent == this) {
+            int location = child.index;
             child.parent = null;
-            children.remove(child);
+            children.remove(location);
+            renumber(location);
+            MeiDocument doc = getListenedDocument();
+            if (doc != null) {
+                doc.fireMutation(MeiMutation.childRemoved(this, child, location));
+            }
         }
     }
 
@@ -278,10 +669,18 @@ public class MeiElement {
      * Delete all children from this element.
      */
     public void removeAllChildren() {
-        for (MeiElement e : children) {
+        List<MeiElement> old = children;
+        for (MeiElement e : old) {
             e.parent = null;
         }
         children = new ArrayList<MeiElement>();
+        MeiDocument doc = getListenedDocument();
+        if (doc != null) {
+            // Last first, so that each index is right when it is removed
+            for (int i = old.size() - 1; i >= 0; i--) {
+                doc.fireMutation(MeiMutation.childRemoved(this, old.get(i), i));
+            }
+        }
     }
 
     /**
@@ -290,11 +689,110 @@ public class MeiElement {
      *          the name of child elements to remove
      */
     public void removeChildrenByName(String name) {
-        List<MeiElement> namedChildren = getChildrenByName(name);
-        for (MeiElement e : namedChildren) {
-            e.parent = null;
+        MeiTag nameTag = MeiTag.forName(name);
+        MeiDocument doc = getListenedDocument();
+        int first = children.size();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            MeiElement e = children.get(i);
+            if (e.hasName(nameTag, name)) {
+                e.parent = null;
+                children.remove(i);
+                first = i;
+                if (doc != null) {
+                    doc.fireMutation(MeiMutation.childRemoved(this, e, i));
+                }
+            }
+        }
+        renumber(first);
+    }
+
+    /**
+     * Update the stored positions of children from <code>from</code> on.
+     */
+    private void renumber(int from) {
+        for (int i = from; i < children.size(); i++) {
+            MeiElement c = children.get(i);
+            // A child that was added to another element belongs to that one
+            if (c.parent == this) {
+                c.index = i;
+            }
+        }
+    }
+
+    /**
+     * Get the position of this element in its parent's children.
+     * @return
+     *          the position, or -1 if this element has no parent
+     */
+    public int getIndexInParent() {
+        return parent == null ? -1 : index;
+    }
+
+    /**
+     * Get the element after this one in its parent, or null if this is the
+     * last child.
+     */
+    public MeiElement getNextSibling() {
+        if (parent == null || index + 1 >= parent.children.size()) {
+            return null;
         }
-        children.removeAll(namedChildren);
+        return parent.children.get(index + 1);
+    }
+
+    /**
+     * Get the element before this one in its parent, or null if this is the
+     * first child.
+     */
+    public MeiElement getPreviousSibling() {
+        if (parent == null || index == 0) {
+            return null;
+        }
+        return parent.children.get(index - 1);
+    }
+
+    /**
+     * Get the element after this one in document order: its first child,
+     * or else the next sibling of this element or its closest ancestor
+     * that has one. Visiting a whole tree this way takes constant time per
+     * element.
+     * @param root
+     *          the element to stay within, or null for the whole tree
+     * @return
+     *          the next element, or null at the end of <code>root</code>
+     */
+    public MeiElement getNextInDocument(MeiElement root) {
+        if (!children.isEmpty()) {
+            return children.get(0);
+        }
+        for (MeiElement e = this; e != root && e != null; e = e.parent) {
+            MeiElement next = e.getNextSibling();
+            if (next != null) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the element before this one in document order: the last
+     * descendant of its previous sibling, or else its parent.
+     * @param root
+     *          the element to stay within, or null for the whole tree
+     * @return
+     *          the previous element, or null at <code>root</code>
+     */
+    public MeiElement getPreviousInDocument(MeiElement root) {
+        if (this == root) {
+            return null;
+        }
+        MeiElement prev = getPreviousSibling();
+        if (prev == null) {
+            return parent;
+        }
+        while (!prev.children.isEmpty()) {
+            prev = prev.children.get(prev.children.size() - 1);
+        }
+        return prev;
     }
 
     /**
@@ -318,15 +816,49 @@ public class MeiElement {
      */
     public List<MeiElement> getDescendantsByName(String matchName) {
         List<MeiElement> ret = new ArrayList<MeiElement>();
+        addDescendantsByName(MeiTag.forName(matchName), matchName, ret);
+        return ret;
+    }
+
+    private void addDescendantsByName(MeiTag nameTag, String matchName, List<MeiElement> ret) {
         for (MeiElement e : children) {
-            if (e.getName().equals(matchName)) {
+            if (e.hasName(nameTag, matchName)) {
                 ret.add(e);
             }
-            ret.addAll(e.getDescendantsByName(matchName));
+            e.addDescendantsByName(nameTag, matchName, ret);
         }
+    }
+
+    /**
+     * Get all descendant elements that have a given tag
+     * @param matchTag
+     * @return
+     */
+    public List<MeiElement> getDescendantsByTag(MeiTag matchTag) {
+        List<MeiElement> ret = new ArrayList<MeiElement>();
+        addDescendantsByTag(matchTag, ret);
         return ret;
     }
 
+    private void addDescendantsByTag(MeiTag matchTag, List<MeiElement> ret) {
+        for (MeiElement e : children) {
+            if (e.tag == matchTag) {
+                ret.add(e);
+            }
+            e.addDescendantsByTag(matchTag, ret);
+        }
+    }
+
+    /**
+     * Get a stream of all elements that are descended from this one, in
+     * document order. A parallel stream divides the work between subtrees,
+     * e.g. between the measures of a section.
+     * The tree must not be changed while the stream is in use.
+     */
+    public Stream<MeiElement> descendants() {
+        return StreamSupport.stream(new MeiDescendantSpliterator(this), false);
+    }
+
     /**
      * Get a list of peers of this element (not including this one).
      * Peers are defined as this element's parent's children. If this element
@@ -334,29 +866,137 @@ public class MeiElement {
      * @return
      */
     public List<MeiElement> getPeers() {
-        if (parent == null) {
-            return new ArrayList<MeiElement>();
+        List<MeiElement> peers = new ArrayList<MeiElement>();
+        if (parent != null) {
+            for (MeiElement e : parent.children) {
+                if (e != this) {
+                    peers.add(e);
+                }
+            }
         }
-        List<MeiElement> peers = new ArrayList<MeiElement>(parent.getChildren());
-        Collections.copy(parent.getChildren(), peers);
-        peers.remove(this);
         return peers;
     }
 
+    /**
+     * Get a stream of the children of this element.
+     */
+    public Stream<MeiElement> children() {
+        return children.stream();
+    }
+
+    /**
+     * Get a stream of the ancestors of this element, starting with its
+     * parent.
+     */
+    public Stream<MeiElement> ancestors() {
+        Spliterator<MeiElement> s = new Spliterators.AbstractSpliterator<MeiElement>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private MeiElement next = parent;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super MeiElement> action) {
+                if (next == null) {
+                    return false;
+                }
+                MeiElement e = next;
+                next = e.parent;
+                action.accept(e);
+                return true;
+            }
+        };
+        return StreamSupport.stream(s, false);
+    }
+
+    /**
+     * Get a stream of the elements after this one in its parent, in
+     * document order.
+     */
+    public Stream<MeiElement> followingSiblings() {
+        if (parent == null) {
+            return Stream.empty();
+        }
+        List<MeiElement> siblings = parent.children;
+        return siblings.subList(index + 1, siblings.size()).stream();
+    }
+
+    /**
+     * Get a stream of the elements before this one in its parent, starting
+     * with the one just before it.
+     */
+    public Stream<MeiElement> precedingSiblings() {
+        if (parent == null) {
+            return Stream.empty();
+        }
+        final List<MeiElement> siblings = parent.children;
+        final int start = index;
+        return IntStream.range(1, start + 1).mapToObj(i -> siblings.get(start - i));
+    }
+
+    /**
+     * Get a stream of the attributes of this element. The attributes of an
+     * element read with a {@link MeiAttributeTable} are shared, and can't
+     * be changed; get them with {@link #getAttributes()} to change them.
+     */
+    public Stream<MeiAttribute> attributes() {
+        return attributes.stream();
+    }
+
+
     /**
      * Get the first ancestor element that has the name specified.
      * @param name
      * @return
      */
     public MeiElement getAncestor(String name) {
-        if (parent == null) {
-            return null;
+        MeiTag nameTag = MeiTag.forName(name);
+        for (MeiElement e = parent; e != null; e = e.parent) {
+            if (e.hasName(nameTag, name)) {
+                return e;
+            }
         }
-        if (parent.name.equals(name)) {
-            return parent;
-        } else {
-            return parent.getAncestor(name);
+        return null;
+    }
+
+    /**
+     * Get the first ancestor element that has the tag specified.
+     * @param matchTag
+     * @return
+     */
+    public MeiElement getAncestor(MeiTag matchTag) {
+        for (MeiElement e = parent; e != null; e = e.parent) {
+            if (e.tag == matchTag) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make a deep copy of this element. The copy has the same id, attributes,
+     * text and children as this element, but no parent.
+     */
+    /* package */ MeiElement copy() {
+        MeiElement ret = shallowCopy();
+        for (MeiElement c : children) {
+            ret.addChild(c.copy());
+        }
+        return ret;
+    }
+
+    /**
+     * Make a copy of this element without any of its children.
+     */
+    /* package */ MeiElement shallowCopy() {
+        MeiElement ret = new MeiElement(namespace, name, id);
+        ret.generatedId = generatedId;
+        ret.value = value;
+        ret.tail = tail;
+        for (MeiAttribute a : attributes) {
+            MeiAttribute copy = new MeiAttribute(a.getNamespace(), a.getName(), a.getValue());
+            copy.setOwner(ret);
+            ret.attributes.add(copy);
         }
+        return ret;
     }
 
     /**
@@ -0,0 +1,118 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Read-only access to an element of an MEI tree.
+ * This is implemented by {@link MeiElement} and by the elements of a
+ * {@link MeiCompactDocument}, so code that only reads a document can work
+ * with either.
+ */
+public interface MeiElementView {
+
+    MeiNamespace getNamespace();
+
+    String getName();
+
+    MeiTag getTag();
+
+    String getId();
+
+    /**
+     * Get the parent of this element, or null if this is the root.
+     */
+    MeiElementView getParent();
+
+    /**
+     * Get the element after this one in its parent, or null if this is the
+     * last child.
+     */
+    MeiElementView getNextSibling();
+
+    /**
+     * Get the element before this one in its parent, or null if this is the
+     * first child.
+     */
+    MeiElementView getPreviousSibling();
+
+    String getValue();
+
+    String getTail();
+
+    /**
+     * Get the value of an attribute with a given name.
+     * @return
+     *          the value of the attribute, or null if it doesn't exist.
+     */
+    String getAttribute(String attrName);
+
+    List<MeiAttribute> getAttributes();
+
+    List<? extends MeiElementView> getChildren();
+
+    List<? extends MeiElementView> getChildrenByName(String name);
+
+    /**
+     * Get all elements that are descended from this one, in document order.
+     */
+    List<? extends MeiElementView> getDescendants();
+
+    List<? extends MeiElementView> getDescendantsByName(String matchName);
+
+    Stream<? extends MeiElementView> children();
+
+    /**
+     * Get a stream of all elements that are descended from this one, in
+     * document order.
+     */
+    Stream<? extends MeiElementView> descendants();
+
+    /**
+     * Get a stream of the ancestors of this element, starting with its
+     * parent.
+     */
+    Stream<? extends MeiElementView> ancestors();
+
+    /**
+     * Get a stream of the elements after this one in its parent, in
+     * document order.
+     */
+    Stream<? extends MeiElementView> followingSiblings();
+
+    /**
+     * Get a stream of the elements before this one in its parent, starting
+     * with the one just before it.
+     */
+    Stream<? extends MeiElementView> precedingSiblings();
+
+    Stream<MeiAttribute> attributes();
+
+    /**
+     * Get the first ancestor element that has the name specified.
+     */
+    MeiElementView getAncestor(String name);
+}
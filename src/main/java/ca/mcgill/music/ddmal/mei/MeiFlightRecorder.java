@@ -0,0 +1,133 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import ca.mcgill.music.ddmal.mei.MeiMetrics.Operation;
+
+/**
+ * Flight Recorder events for {@link MeiProbe}. This class is only loaded
+ * if the JVM has Flight Recorder.
+ */
+/* package */ final class MeiFlightRecorder {
+
+    private MeiFlightRecorder() {
+    }
+
+    @Category("MEI")
+    abstract static class MeiEvent extends Event {
+        @Label("Bytes")
+        @Description("Size of the input or output, in characters for strings")
+        @DataAmount
+        long bytes;
+
+        @Label("Elements")
+        int elements;
+
+        @Label("Attributes")
+        int attributes;
+
+        @Label("Parse Time")
+        @Timespan
+        long parseTime;
+
+        @Label("Build Time")
+        @Timespan
+        long buildTime;
+
+        @Label("Validate Time")
+        @Timespan
+        long validateTime;
+
+        @Label("Serialize Time")
+        @Timespan
+        long serializeTime;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    @Name("ca.mcgill.music.ddmal.mei.Read")
+    @Label("MEI Read")
+    static class ReadEvent extends MeiEvent {
+    }
+
+    @Name("ca.mcgill.music.ddmal.mei.Write")
+    @Label("MEI Write")
+    static class WriteEvent extends MeiEvent {
+    }
+
+    @Name("ca.mcgill.music.ddmal.mei.Validate")
+    @Label("MEI Validate")
+    static class ValidateEvent extends MeiEvent {
+    }
+
+    /**
+     * Start an event for an operation.
+     * @return
+     *          the event, or null if it isn't enabled in any recording
+     */
+    /* package */ static Object begin(Operation operation) {
+        MeiEvent event;
+        switch (operation) {
+        case READ:
+            event = new ReadEvent();
+            break;
+        case WRITE:
+            event = new WriteEvent();
+            break;
+        default:
+            event = new ValidateEvent();
+        }
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /* package */ static void commit(Object o, MeiMetrics metrics) {
+        MeiEvent event = (MeiEvent) o;
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = metrics.getBytes();
+            event.elements = metrics.getElements();
+            event.attributes = metrics.getAttributes();
+            event.parseTime = metrics.getParseNanos();
+            event.buildTime = metrics.getBuildNanos();
+            event.validateTime = metrics.getValidateNanos();
+            event.serializeTime = metrics.getSerializeNanos();
+            event.allocated = metrics.getAllocatedBytes();
+            event.commit();
+        }
+    }
+}
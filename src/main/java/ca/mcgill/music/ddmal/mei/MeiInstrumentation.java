@@ -0,0 +1,68 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Measures reading, writing and validating documents.
+ *
+ * Measurements are sent to the registered {@link MeiMetricsListener}s and,
+ * on a JVM with Flight Recorder, recorded as the events
+ * ca.mcgill.music.ddmal.mei.Read, .Write and .Validate. When there are no
+ * listeners and the events are not enabled in a recording, nothing is
+ * measured.
+ */
+public final class MeiInstrumentation {
+
+    private static final List<MeiMetricsListener> LISTENERS =
+            new CopyOnWriteArrayList<MeiMetricsListener>();
+
+    private MeiInstrumentation() {
+    }
+
+    /**
+     * Send the measurements of every following operation, on any thread,
+     * to a listener.
+     */
+    public static void addListener(MeiMetricsListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(MeiMetricsListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /* package */ static boolean hasListeners() {
+        return !LISTENERS.isEmpty();
+    }
+
+    /* package */ static void fire(MeiMetrics metrics) {
+        for (MeiMetricsListener listener : LISTENERS) {
+            listener.recorded(metrics);
+        }
+    }
+}
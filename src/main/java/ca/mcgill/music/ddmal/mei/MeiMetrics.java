@@ -0,0 +1,153 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+/**
+ * Measurements of one read, write or validation of a document, sent to
+ * each {@link MeiMetricsListener} registered with
+ * {@link MeiInstrumentation#addListener(MeiMetricsListener)}.
+ *
+ * Times are in nanoseconds. A phase that wasn't part of the operation
+ * takes 0 nanoseconds.
+ */
+public class MeiMetrics {
+
+    /** The kinds of operation that are measured. */
+    public enum Operation {
+        /** A document or fragment was read by {@link MeiXmlReader}. */
+        READ,
+        /** A document or element was written by {@link MeiXmlWriter}. */
+        WRITE,
+        /** A document or file was validated by {@link MeiSchema}. */
+        VALIDATE
+    }
+
+    private final Operation operation;
+    private final long bytes;
+    private final int elements;
+    private final int attributes;
+    private final long parseNanos;
+    private final long buildNanos;
+    private final long validateNanos;
+    private final long serializeNanos;
+    private final long allocatedBytes;
+
+    /* package */ MeiMetrics(Operation operation, long bytes, int elements, int attributes,
+            long parseNanos, long buildNanos, long validateNanos, long serializeNanos,
+            long allocatedBytes) {
+        this.operation = operation;
+        this.bytes = bytes;
+        this.elements = elements;
+        this.attributes = attributes;
+        this.parseNanos = parseNanos;
+        this.buildNanos = buildNanos;
+        this.validateNanos = validateNanos;
+        this.serializeNanos = serializeNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Get the size of the input or output. Files and streams are measured
+     * in bytes, and strings that are read in characters. -1 if unknown.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the number of elements that were made or written. Elements that
+     * a reader skipped, or that an incremental writer copied from its
+     * cache, are not counted.
+     */
+    public int getElements() {
+        return elements;
+    }
+
+    /**
+     * Get the number of attributes of the counted elements, not including
+     * xml:id.
+     */
+    public int getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Get the time spent reading the XML, not including building elements.
+     * When a reader validates against a schema, validation is part of
+     * this time.
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * Get the time spent making elements from what was parsed.
+     */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    public long getValidateNanos() {
+        return validateNanos;
+    }
+
+    public long getSerializeNanos() {
+        return serializeNanos;
+    }
+
+    /**
+     * Get the number of bytes allocated by the thread during the operation,
+     * or -1 if the JVM can't measure it.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Get the total time of the operation.
+     */
+    public long getTotalNanos() {
+        return parseNanos + buildNanos + validateNanos + serializeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append(operation)
+                .append(" bytes=").append(bytes)
+                .append(" elements=").append(elements)
+                .append(" attributes=").append(attributes)
+                .append(" parse=").append(parseNanos / 1000).append("us")
+                .append(" build=").append(buildNanos / 1000).append("us")
+                .append(" validate=").append(validateNanos / 1000).append("us")
+                .append(" serialize=").append(serializeNanos / 1000).append("us")
+                .append(" allocated=").append(allocatedBytes)
+                .toString();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+/**
+ * A description of a single change to an {@link MeiElement} in an
+ * {@link MeiDocument}. Mutations are sent to each
+ * {@link MeiMutationListener} registered on the document.
+ *
+ * Changes to the value of an {@link MeiAttribute} of an element are
+ * reported as well.
+ */
+public class MeiMutation {
+
+    /** The kinds of change that can be made. */
+    public enum Type {
+        /** A child was added to the element. */
+        CHILD_ADDED,
+        /** A child was removed from the element. */
+        CHILD_REMOVED,
+        /** An attribute was added to the element. */
+        ATTRIBUTE_ADDED,
+        /** An attribute was removed from the element. */
+        ATTRIBUTE_REMOVED,
+        /** The value of an attribute of the element changed. */
+        ATTRIBUTE_CHANGED,
+        /** The value of the element changed. */
+        VALUE_CHANGED,
+        /** The tail of the element changed. */
+        TAIL_CHANGED,
+        /** The id of the element changed. */
+        ID_CHANGED
+    }
+
+    private final Type type;
+    private final MeiElement element;
+    private MeiElement child;
+    private MeiAttribute attribute;
+    private int index = -1;
+    private String oldValue;
+    private String newValue;
+    /** Set if this mutation was undone by a later one in the same transaction. */
+    private boolean cancelled;
+
+    private MeiMutation(Type type, MeiElement element) {
+        this.type = type;
+        this.element = element;
+    }
+
+    /* package */ static MeiMutation childAdded(MeiElement element, MeiElement child, int index) {
+        MeiMutation m = new MeiMutation(Type.CHILD_ADDED, element);
+        m.child = child;
+        m.index = index;
+        return m;
+    }
+
+    /* package */ static MeiMutation childRemoved(MeiElement element, MeiElement child, int index) {
+        MeiMutation m = new MeiMutation(Type.CHILD_REMOVED, element);
+        m.child = child;
+        m.index = index;
+        return m;
+    }
+
+    /* package */ static MeiMutation attributeAdded(MeiElement element, MeiAttribute attribute) {
+        MeiMutation m = new MeiMutation(Type.ATTRIBUTE_ADDED, element);
+        m.attribute = attribute;
+        return m;
+    }
+
+    /* package */ static MeiMutation attributeRemoved(MeiElement element, MeiAttribute attribute) {
+        MeiMutation m = new MeiMutation(Type.ATTRIBUTE_REMOVED, element);
+        m.attribute = attribute;
+        return m;
+    }
+
+    /* package */ static MeiMutation attributeChanged(MeiElement element, MeiAttribute attribute,
+            String oldValue, String newValue) {
+        MeiMutation m = new MeiMutation(Type.ATTRIBUTE_CHANGED, element);
+        m.attribute = attribute;
+        m.oldValue = oldValue;
+        m.newValue = newValue;
+        return m;
+    }
+
+    /* package */ static MeiMutation textChanged(Type type, MeiElement element, String oldValue, String newValue) {
+        MeiMutation m = new MeiMutation(type, element);
+        m.oldValue = oldValue;
+        m.newValue = newValue;
+        return m;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the element that changed. For CHILD_ADDED and CHILD_REMOVED
+     * this is the parent. If the root element of the document was
+     * replaced this is null.
+     */
+    public MeiElement getElement() {
+        return element;
+    }
+
+    /**
+     * Get the child that was added or removed.
+     */
+    public MeiElement getChild() {
+        return child;
+    }
+
+    /**
+     * Get the position of the child that was added or removed.
+     * @return
+     *          the index in the parent's children, or -1 for other mutations
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the attribute that was added or removed.
+     */
+    public MeiAttribute getAttribute() {
+        return attribute;
+    }
+
+    /**
+     * Get the value, tail, id or attribute value before the change.
+     */
+    public String getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * Get the value, tail, id or attribute value after the change.
+     */
+    public String getNewValue() {
+        return newValue;
+    }
+
+    /* package */ void setNewValue(String newValue) {
+        this.newValue = newValue;
+    }
+
+    /* package */ void cancel() {
+        cancelled = true;
+    }
+
+    /* package */ boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Get a string representation of this mutation.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder()
+                .append(type)
+                .append(" ")
+                .append(element);
+        if (child != null) {
+            sb.append(" ").append(child).append(" at ").append(index);
+        } else if (attribute != null) {
+            sb.append(" ").append(attribute);
+            if (type == Type.ATTRIBUTE_CHANGED) {
+                sb.append(" (was ").append(oldValue).append(")");
+            }
+        } else {
+            sb.append(" ").append(oldValue).append(" -> ").append(newValue);
+        }
+        return sb.toString();
+    }
+}
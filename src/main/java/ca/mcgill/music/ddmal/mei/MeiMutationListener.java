@@ -0,0 +1,44 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.List;
+
+/**
+ * Receives changes made to the elements of an {@link MeiDocument}.
+ * Register a listener with {@link MeiDocument#addMutationListener(MeiMutationListener)}.
+ */
+public interface MeiMutationListener {
+
+    /**
+     * Called after the document has been changed. Outside of a transaction
+     * each change is sent on its own, inside a transaction all changes are
+     * sent together when the transaction ends.
+     * @param document
+     *          the document that changed
+     * @param mutations
+     *          the changes, in the order that they were made
+     */
+    void mutated(MeiDocument document, List<MeiMutation> mutations);
+}
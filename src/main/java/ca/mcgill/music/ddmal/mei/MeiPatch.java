@@ -0,0 +1,535 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A list of edits that turns one version of an {@link MeiDocument} into
+ * another. Patches are made with {@link MeiDiff#diff(MeiDocument, MeiDocument)}
+ * and can be applied to any document containing the elements of the
+ * original version.
+ *
+ * Elements are referred to by their id. {@link EditType#ID} and
+ * {@link EditType#DELETE} edits use the id that the element has in the
+ * original document, all other edits use the id from the new document.
+ *
+ * A patch can be written as XML with {@link #write(OutputStream)}, e.g. to
+ * send it to another process, and read back with {@link #read(InputStream)}:
+ * <pre>
+ * &lt;patch xmlns="http://www.music-encoding.org/ns/mei">
+ *   &lt;insert parent="m1" after="n1">&lt;note xml:id="n4" pname="c"/>&lt;/insert>
+ *   &lt;delete id="n2"/>
+ *   &lt;move id="n3" parent="m2"/>
+ *   &lt;attributes id="n1">&lt;set pname="d" oct="4"/>&lt;/attributes>
+ *   &lt;value id="n1">text&lt;/value>
+ *   &lt;tail id="n1" null="true"/>
+ *   &lt;id id="n5" new="n6"/>
+ * &lt;/patch>
+ * </pre>
+ * Without an <code>after</code> attribute an element becomes the first
+ * child of its parent, and an insert without a <code>parent</code>
+ * replaces the root element.
+ */
+public class MeiPatch {
+
+    /** The kinds of edit that can be in a patch. */
+    public enum EditType {
+        /** Insert an element (with its children) into a parent. */
+        INSERT,
+        /** Remove an element and all of its children. */
+        DELETE,
+        /** Move an existing element to a different place in the tree. */
+        MOVE,
+        /** Replace the attributes of an element. */
+        ATTRIBUTES,
+        /** Change the value of an element. */
+        VALUE,
+        /** Change the tail of an element. */
+        TAIL,
+        /** Change the id of an element. */
+        ID
+    }
+
+    /** The name of each kind of edit in the XML form of a patch. */
+    private static final String[] XML_NAMES = {"insert", "delete", "move", "attributes", "value", "tail", "id"};
+
+    public static class MeiPatchException extends RuntimeException {
+        private static final long serialVersionUID = 4034419829460727925L;
+        public MeiPatchException(String reason) {
+            super(reason);
+        }
+    }
+
+    /**
+     * A single change to a document.
+     * Elements are inserted or moved to be immediately after a sibling
+     * (or as the first child of the parent if there is no sibling).
+     */
+    public static class Edit {
+        private final EditType type;
+        private final String id;
+        private String parentId;
+        private String afterId;
+        private MeiElement element;
+        private List<MeiAttribute> attributes;
+        private MeiText text;
+        private String newId;
+
+        private Edit(EditType type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        /* package */ static Edit insert(String parentId, String afterId, MeiElement element) {
+            Edit e = new Edit(EditType.INSERT, element.getId());
+            e.parentId = parentId;
+            e.afterId = afterId;
+            e.element = element;
+            return e;
+        }
+
+        /* package */ static Edit delete(String id) {
+            return new Edit(EditType.DELETE, id);
+        }
+
+        /* package */ static Edit move(String id, String parentId, String afterId) {
+            Edit e = new Edit(EditType.MOVE, id);
+            e.parentId = parentId;
+            e.afterId = afterId;
+            return e;
+        }
+
+        /* package */ static Edit attributes(String id, List<MeiAttribute> attributes) {
+            Edit e = new Edit(EditType.ATTRIBUTES, id);
+            e.attributes = copyAttributes(attributes);
+            return e;
+        }
+
+        /* package */ static Edit value(String id, String value) {
+            return value(id, value == null ? null : MeiText.of(value));
+        }
+
+        /* package */ static Edit value(String id, MeiText value) {
+            Edit e = new Edit(EditType.VALUE, id);
+            e.text = value;
+            return e;
+        }
+
+        /* package */ static Edit tail(String id, MeiText tail) {
+            Edit e = new Edit(EditType.TAIL, id);
+            e.text = tail;
+            return e;
+        }
+
+        /* package */ static Edit id(String oldId, String newId) {
+            Edit e = new Edit(EditType.ID, oldId);
+            e.newId = newId;
+            return e;
+        }
+
+        public EditType getType() {
+            return type;
+        }
+
+        /**
+         * Get the id of the element that this edit changes.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Get the id of the parent for an INSERT or MOVE. An INSERT with
+         * no parent replaces the root element of the document.
+         */
+        public String getParentId() {
+            return parentId;
+        }
+
+        /**
+         * Get the id of the sibling that an INSERT or MOVE goes after, or
+         * null if the element becomes the first child of its parent.
+         */
+        public String getAfterId() {
+            return afterId;
+        }
+
+        /**
+         * Get the element (and its children) added by an INSERT.
+         */
+        public MeiElement getElement() {
+            return element;
+        }
+
+        /**
+         * Get the new attributes of an ATTRIBUTES edit.
+         */
+        public List<MeiAttribute> getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * Get the new text of a VALUE or TAIL edit.
+         */
+        public String getText() {
+            return text == null ? null : text.toString();
+        }
+
+        /**
+         * Get the new id of an ID edit.
+         */
+        public String getNewId() {
+            return newId;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder()
+                .append(type)
+                .append(" ")
+                .append(id);
+            if (type == EditType.INSERT || type == EditType.MOVE) {
+                sb.append(" parent=").append(parentId)
+                    .append(" after=").append(afterId);
+            } else if (type == EditType.ATTRIBUTES) {
+                sb.append(" ").append(attributes);
+            } else if (type == EditType.VALUE || type == EditType.TAIL) {
+                sb.append(" ").append(text);
+            } else if (type == EditType.ID) {
+                sb.append(" ").append(newId);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final List<Edit> edits;
+
+    /* package */ MeiPatch(List<Edit> edits) {
+        this.edits = edits;
+    }
+
+    /**
+     * Get the edits in this patch, in the order that they are applied.
+     */
+    public List<Edit> getEdits() {
+        return Collections.unmodifiableList(edits);
+    }
+
+    /**
+     * Check if this patch makes no changes.
+     */
+    public boolean isEmpty() {
+        return edits.isEmpty();
+    }
+
+    /**
+     * Apply this patch to a document. The patch can be applied to more
+     * than one document, it is not changed by this method.
+     * @param doc
+     *          the document to change
+     * @throws MeiPatchException
+     *          if an element referred to by the patch is not in the document
+     */
+    public void apply(MeiDocument doc) {
+        Map<String, MeiElement> index = new HashMap<String, MeiElement>();
+        if (doc.getRootElement() != null) {
+            addToIndex(doc.getRootElement(), index);
+        }
+
+        // Edits that use the original id are looked up before anything
+        // changes, since an inserted element can reuse the same id.
+        Map<Edit, MeiElement> original = new IdentityHashMap<Edit, MeiElement>();
+        for (Edit edit : edits) {
+            if (edit.type == EditType.ID || edit.type == EditType.DELETE) {
+                original.put(edit, find(index, edit.id));
+            }
+        }
+        for (Map.Entry<Edit, MeiElement> entry : original.entrySet()) {
+            if (index.get(entry.getKey().id) == entry.getValue()) {
+                index.remove(entry.getKey().id);
+            }
+        }
+        for (Map.Entry<Edit, MeiElement> entry : original.entrySet()) {
+            if (entry.getKey().type == EditType.ID) {
+                entry.getValue().setId(entry.getKey().newId);
+                index.put(entry.getKey().newId, entry.getValue());
+            }
+        }
+
+        for (Edit edit : edits) {
+            switch (edit.type) {
+            case INSERT:
+                MeiElement inserted = edit.element.copy();
+                if (edit.parentId == null) {
+                    doc.setRootElement(inserted);
+                } else {
+                    insertAfter(find(index, edit.parentId), find(index, edit.afterId), inserted);
+                }
+                addToIndex(inserted, index);
+                break;
+            case MOVE:
+                MeiElement moved = find(index, edit.id);
+                if (moved.getParent() != null) {
+                    moved.getParent().removeChild(moved);
+                }
+                insertAfter(find(index, edit.parentId), find(index, edit.afterId), moved);
+                break;
+            case ATTRIBUTES:
+                find(index, edit.id).setAttributes(copyAttributes(edit.attributes));
+                break;
+            case VALUE:
+                find(index, edit.id).setValueText(edit.text);
+                break;
+            case TAIL:
+                find(index, edit.id).setTailText(edit.text);
+                break;
+            case DELETE:
+                MeiElement deleted = original.get(edit);
+                if (deleted.getParent() != null) {
+                    deleted.getParent().removeChild(deleted);
+                } else if (doc.getRootElement() == deleted) {
+                    doc.setRootElement(null);
+                }
+                break;
+            case ID:
+                // Already done above
+                break;
+            }
+        }
+    }
+
+    /**
+     * Write this patch as UTF-8 encoded XML. It is written without
+     * indentation, so that the text of the edits is read back unchanged.
+     * @param os
+     *          the stream to write to. It is not closed.
+     */
+    public void write(OutputStream os) {
+        MeiElement root = new MeiElement("patch", null);
+        for (Edit edit : edits) {
+            MeiElement e = new MeiElement(XML_NAMES[edit.type.ordinal()], null);
+            if (edit.type != EditType.INSERT) {
+                e.addAttribute("id", edit.id);
+            }
+            switch (edit.type) {
+            case INSERT:
+            case MOVE:
+                addAttribute(e, "parent", edit.parentId);
+                addAttribute(e, "after", edit.afterId);
+                if (edit.type == EditType.INSERT) {
+                    e.addChild(edit.element.copy());
+                }
+                break;
+            case ATTRIBUTES:
+                MeiElement set = new MeiElement("set", null);
+                set.addAllAttributes(copyAttributes(edit.attributes));
+                e.addChild(set);
+                break;
+            case VALUE:
+            case TAIL:
+                if (edit.text == null) {
+                    e.addAttribute("null", "true");
+                } else {
+                    e.setValueText(edit.text);
+                }
+                break;
+            case ID:
+                e.addAttribute("new", edit.newId);
+                break;
+            default:
+                break;
+            }
+            root.addChild(e);
+        }
+        MeiXmlWriter.writeElement(root, os, false);
+    }
+
+    /**
+     * Get this patch as a string of XML.
+     * @see #write(OutputStream)
+     */
+    public String toXml() {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        write(os);
+        try {
+            return os.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new MeiPatchException(e.getMessage());
+        }
+    }
+
+    /**
+     * Read a patch that was written with {@link #write(OutputStream)}.
+     * @throws MeiPatchException
+     *          if the XML is not a patch
+     * @throws MeiXmlReader.MeiXmlReadException
+     *          if it is not well-formed XML
+     */
+    public static MeiPatch read(InputStream stream) {
+        return fromXml(MeiXmlReader.parseFragment(stream));
+    }
+
+    /**
+     * Read a patch from a string of XML.
+     * @see #read(InputStream)
+     */
+    public static MeiPatch fromXml(String xml) {
+        return fromXml(MeiXmlReader.parseFragment(xml));
+    }
+
+    private static MeiPatch fromXml(MeiElement root) {
+        if (!root.getName().equals("patch")) {
+            throw new MeiPatchException("Not a patch: <" + root.getName() + ">");
+        }
+        List<Edit> edits = new ArrayList<Edit>();
+        for (MeiElement e : root.getChildren()) {
+            if (e.getTag() == MeiTag.COMMENT) {
+                continue;
+            }
+            switch (editType(e.getName())) {
+            case INSERT:
+                MeiElement inserted = firstChild(e);
+                e.removeChild(inserted);
+                edits.add(Edit.insert(e.getAttribute("parent"), e.getAttribute("after"), inserted));
+                break;
+            case DELETE:
+                edits.add(Edit.delete(required(e, "id")));
+                break;
+            case MOVE:
+                edits.add(Edit.move(required(e, "id"), required(e, "parent"), e.getAttribute("after")));
+                break;
+            case ATTRIBUTES:
+                edits.add(Edit.attributes(required(e, "id"), firstChild(e).getAttributes()));
+                break;
+            case VALUE:
+                edits.add(Edit.value(required(e, "id"), text(e)));
+                break;
+            case TAIL:
+                edits.add(Edit.tail(required(e, "id"), text(e)));
+                break;
+            case ID:
+                edits.add(Edit.id(required(e, "id"), required(e, "new")));
+                break;
+            }
+        }
+        return new MeiPatch(edits);
+    }
+
+    private static EditType editType(String name) {
+        for (int i = 0; i < XML_NAMES.length; i++) {
+            if (XML_NAMES[i].equals(name)) {
+                return EditType.values()[i];
+            }
+        }
+        throw new MeiPatchException("Unknown edit <" + name + ">");
+    }
+
+    private static void addAttribute(MeiElement e, String name, String value) {
+        if (value != null) {
+            e.addAttribute(name, value);
+        }
+    }
+
+    private static String required(MeiElement e, String name) {
+        String value = e.getAttribute(name);
+        if (value == null) {
+            throw new MeiPatchException("<" + e.getName() + "> has no " + name);
+        }
+        return value;
+    }
+
+    private static MeiElement firstChild(MeiElement e) {
+        for (MeiElement c : e.getChildren()) {
+            if (c.getTag() != MeiTag.COMMENT) {
+                return c;
+            }
+        }
+        throw new MeiPatchException("<" + e.getName() + "> has no element");
+    }
+
+    private static MeiText text(MeiElement e) {
+        if ("true".equals(e.getAttribute("null"))) {
+            return null;
+        }
+        // Written as an empty element if the text was empty
+        return e.getValueText() == null ? MeiText.of("") : e.getValueText();
+    }
+
+    /**
+     * Add an element after a sibling, or as the first child if the sibling
+     * is null.
+     */
+    private void insertAfter(MeiElement parent, MeiElement after, MeiElement child) {
+        List<MeiElement> siblings = parent.getChildren();
+        int pos = 0;
+        if (after != null) {
+            if (after.getParent() != parent) {
+                throw new MeiPatchException("Element " + after.getId()
+                        + " is not a child of " + parent.getId());
+            }
+            pos = after.getIndexInParent() + 1;
+        }
+        if (pos < siblings.size()) {
+            parent.addChildBefore(siblings.get(pos), child);
+        } else {
+            parent.addChild(child);
+        }
+    }
+
+    private MeiElement find(Map<String, MeiElement> index, String id) {
+        if (id == null) {
+            return null;
+        }
+        MeiElement e = index.get(id);
+        if (e == null) {
+            throw new MeiPatchException("No element with id " + id);
+        }
+        return e;
+    }
+
+    private void addToIndex(MeiElement element, Map<String, MeiElement> index) {
+        index.put(element.getId(), element);
+        for (MeiElement c : element.getChildren()) {
+            addToIndex(c, index);
+        }
+    }
+
+    private static List<MeiAttribute> copyAttributes(List<MeiAttribute> attributes) {
+        List<MeiAttribute> ret = new ArrayList<MeiAttribute>(attributes.size());
+        for (MeiAttribute a : attributes) {
+            ret.add(new MeiAttribute(a.getNamespace(), a.getName(), a.getValue()));
+        }
+        return ret;
+    }
+}
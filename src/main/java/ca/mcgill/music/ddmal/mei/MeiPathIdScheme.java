@@ -0,0 +1,131 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Makes short ids from the position of elements, such as
+ * <code>m12-s2-n5</code> for the fifth note of staff 2 in measure 12.
+ * <pre>
+ * new MeiPathIdScheme()
+ *     .abbreviate("measure", "m").abbreviate("staff", "s").abbreviate("note", "n")
+ *     .scope("measure", "staff");
+ * </pre>
+ * An id is the abbreviation of the element's name (the name itself if it
+ * has none) and a number, after the id of the nearest ancestor that is a
+ * scope. An element that is a scope and has an <code>n</code> attribute
+ * is numbered by it. Other elements are numbered by counting the elements
+ * with the same name in their scope.
+ */
+public class MeiPathIdScheme implements MeiIdScheme {
+
+    private final Map<String, String> abbreviations = new HashMap<String, String>();
+    private final Set<String> scopes = new HashSet<String>();
+    private String separator = "-";
+
+    /**
+     * The scopes around the element being renumbered, outermost first.
+     * They are found by depth rather than kept by element, so that no
+     * element of the document is held once it has been renumbered.
+     */
+    private final List<Scope> open = new ArrayList<Scope>();
+
+    private static class Scope {
+        final String prefix;
+        /** The depth of the element that is the scope, the root being 0. */
+        final int depth;
+        /** The number of elements with each name so far. */
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        Scope(String prefix, int depth) {
+            this.prefix = prefix;
+            this.depth = depth;
+        }
+
+        int next(String name) {
+            Integer count = counts.get(name);
+            int ret = count == null ? 1 : count + 1;
+            counts.put(name, ret);
+            return ret;
+        }
+    }
+
+    public MeiPathIdScheme abbreviate(String name, String abbreviation) {
+        abbreviations.put(name, abbreviation);
+        return this;
+    }
+
+    /**
+     * Make the ids of elements with these names the start of the ids of
+     * elements inside them.
+     */
+    public MeiPathIdScheme scope(String... names) {
+        scopes.addAll(Arrays.asList(names));
+        return this;
+    }
+
+    /**
+     * Set what is put between the id of a scope and the ids inside it.
+     * The default is "-".
+     */
+    public MeiPathIdScheme setSeparator(String separator) {
+        this.separator = separator;
+        return this;
+    }
+
+    public String newId(MeiElement element) {
+        int depth = 0;
+        for (MeiElement e = element.getParent(); e != null; e = e.getParent()) {
+            depth++;
+        }
+        if (depth == 0 || open.isEmpty()) {
+            open.clear();
+            open.add(new Scope("", -1));
+        }
+        // Elements come in document order, so the scopes at this depth or
+        // deeper have been closed
+        while (open.get(open.size() - 1).depth >= depth) {
+            open.remove(open.size() - 1);
+        }
+        Scope scope = open.get(open.size() - 1);
+        String name = element.getName();
+        String abbreviation = abbreviations.get(name);
+        boolean isScope = scopes.contains(name);
+        String n = isScope ? element.getAttribute("n") : null;
+        String id = scope.prefix + (abbreviation == null ? name : abbreviation)
+                + (n == null || n.length() == 0 ? Integer.toString(scope.next(name)) : n);
+        if (isScope) {
+            open.add(new Scope(id + separator, depth));
+        }
+        return id;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+import ca.mcgill.music.ddmal.mei.MeiMetrics.Operation;
+
+/**
+ * Measures a single operation. {@link #start(Operation)} returns null when
+ * nothing is listening, so callers only pay for a null check.
+ */
+/* package */ final class MeiProbe {
+
+    private static final boolean FLIGHT_RECORDER = isFlightRecorderAvailable();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    /**
+     * {@code com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long)},
+     * looked up reflectively so that other JVMs can still load this class.
+     */
+    private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+    private final Operation operation;
+    /** A Flight Recorder event, if one is being recorded. */
+    private final Object event;
+    private final long start;
+    private final long startAllocated;
+    private long bytes = -1;
+    private int elements;
+    private int attributes;
+    private long buildNanos;
+    private long buildStart;
+
+    private MeiProbe(Operation operation, Object event) {
+        this.operation = operation;
+        this.event = event;
+        this.startAllocated = allocated();
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Start measuring an operation.
+     * @return
+     *          the probe, or null if there are no listeners and no
+     *          Flight Recorder event is enabled
+     */
+    /* package */ static MeiProbe start(Operation operation) {
+        Object event = FLIGHT_RECORDER ? MeiFlightRecorder.begin(operation) : null;
+        if (event == null && !MeiInstrumentation.hasListeners()) {
+            return null;
+        }
+        return new MeiProbe(operation, event);
+    }
+
+    /* package */ void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /* package */ void element(int attributeCount) {
+        elements++;
+        attributes += attributeCount;
+    }
+
+    /* package */ void startBuild() {
+        buildStart = System.nanoTime();
+    }
+
+    /* package */ void endBuild() {
+        buildNanos += System.nanoTime() - buildStart;
+    }
+
+    /**
+     * Stop measuring and report the operation.
+     */
+    /* package */ void finish() {
+        long total = System.nanoTime() - start;
+        long allocated = startAllocated < 0 ? -1 : allocated() - startAllocated;
+        MeiMetrics metrics;
+        switch (operation) {
+        case READ:
+            metrics = new MeiMetrics(operation, bytes, elements, attributes,
+                    total - buildNanos, buildNanos, 0, 0, allocated);
+            break;
+        case WRITE:
+            metrics = new MeiMetrics(operation, bytes, elements, attributes,
+                    0, 0, 0, total, allocated);
+            break;
+        default:
+            metrics = new MeiMetrics(operation, bytes, elements, attributes,
+                    0, 0, total, 0, allocated);
+        }
+        if (event != null) {
+            MeiFlightRecorder.commit(event, metrics);
+        }
+        MeiInstrumentation.fire(metrics);
+    }
+
+    private static long allocated() {
+        if (ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+        } catch (ReflectiveOperationException e) {
+            return -1;
+        }
+    }
+
+    private static Method allocatedBytesMethod() {
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (!type.isInstance(THREADS)
+                    || !(Boolean) type.getMethod("isThreadAllocatedMemorySupported").invoke(THREADS)
+                    || !(Boolean) type.getMethod("isThreadAllocatedMemoryEnabled").invoke(THREADS)) {
+                return null;
+            }
+            return type.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (ReflectiveOperationException e) {
+            // Not a HotSpot JVM
+        } catch (LinkageError e) {
+            // Not a HotSpot JVM
+        } catch (SecurityException e) {
+            // Not allowed to look at the management interface
+        }
+        return null;
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+}
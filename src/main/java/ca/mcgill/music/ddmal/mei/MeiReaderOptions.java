@@ -0,0 +1,306 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings that change how {@link MeiXmlReader} loads a document.
+ * Setters return the options object so that they can be chained:
+ *
+ * <pre>
+ * MeiReaderOptions options = new MeiReaderOptions()
+ *         .setSchema(MeiSchema.load(new File("mei-all.xsd")));
+ * MeiDocument doc = MeiXmlReader.loadFile(file, options);
+ * </pre>
+ *
+ * Parts of a document can be left out with {@link #include(String...)}
+ * and {@link #exclude(String...)}. They take element names, e.g.
+ * "facsimile", or paths of names separated by '/', e.g. "music/body". A
+ * path matches an element if it ends with the element and its ancestors,
+ * and a path that starts with '/' must also start at the root element.
+ */
+public class MeiReaderOptions {
+
+    /**
+     * What to do with text that is only whitespace and includes a line
+     * break, such as the indentation of a pretty-printed file.
+     * A run of whitespace without a line break, e.g. a space between two
+     * words in a &lt;p>, is always kept.
+     */
+    public enum Whitespace {
+        /** Keep the whitespace as it is. */
+        KEEP,
+        /** Replace the whitespace with {@link MeiText#WHITESPACE}. */
+        COLLAPSE,
+        /** Don't store the whitespace. */
+        DISCARD
+    }
+
+    private MeiSchema schema;
+    private Whitespace whitespace = Whitespace.KEEP;
+    private final List<String[]> includes = new ArrayList<String[]>();
+    private final List<String[]> excludes = new ArrayList<String[]>();
+    private final Map<String, URL> catalog = new HashMap<String, URL>();
+    private boolean rejectDoctype;
+    private int maxElements;
+    private int maxDepth;
+    private MeiAttributeTable attributeTable;
+
+    /**
+     * Get the schema that documents are validated against while they are
+     * read, or null if they are not validated.
+     */
+    public MeiSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Validate documents against a schema while they are read.
+     * @param schema
+     *          the schema, or null to not validate
+     */
+    public MeiReaderOptions setSchema(MeiSchema schema) {
+        this.schema = schema;
+        return this;
+    }
+
+    public Whitespace getWhitespace() {
+        return whitespace;
+    }
+
+    /**
+     * Choose how to store whitespace that only formats the document.
+     * The writer indents elements itself, so a document read with
+     * {@link Whitespace#COLLAPSE} or {@link Whitespace#DISCARD} is still
+     * written with one element on each line. The default is
+     * {@link Whitespace#KEEP}.
+     */
+    public MeiReaderOptions setWhitespace(Whitespace whitespace) {
+        this.whitespace = whitespace;
+        return this;
+    }
+
+    /**
+     * Get the table that elements share attributes through, or null if
+     * each element has its own.
+     */
+    public MeiAttributeTable getAttributeTable() {
+        return attributeTable;
+    }
+
+    /**
+     * Share equal attributes between elements, to save heap when documents
+     * are mostly read. See {@link MeiAttributeTable} for how changes work.
+     * @param attributeTable
+     *          the table to share through, or null for each element to
+     *          have its own attributes
+     */
+    public MeiReaderOptions setAttributeTable(MeiAttributeTable attributeTable) {
+        this.attributeTable = attributeTable;
+        return this;
+    }
+
+    /**
+     * Read a DTD or external entity from a local copy. Without any entries,
+     * external DTDs and entities are not read at all. With entries, those
+     * that aren't in the catalog are read as empty. Either way nothing is
+     * fetched over the network.
+     * @param id
+     *          the public or system id of the DTD or entity, e.g.
+     *          "http://music-encoding.org/mei.dtd"
+     * @param location
+     *          where the local copy is, e.g. a resource on the classpath
+     */
+    public MeiReaderOptions addCatalogEntry(String id, URL location) {
+        catalog.put(id, location);
+        return this;
+    }
+
+    /* package */ Map<String, URL> getCatalog() {
+        return catalog;
+    }
+
+    public boolean isRejectDoctype() {
+        return rejectDoctype;
+    }
+
+    /**
+     * Fail to read any document that has a &lt;!DOCTYPE>. MEI doesn't need
+     * one, so this is a safe setting for files from untrusted sources: no
+     * entity can be declared, so none can be expanded. The default is false.
+     */
+    public MeiReaderOptions setRejectDoctype(boolean rejectDoctype) {
+        this.rejectDoctype = rejectDoctype;
+        return this;
+    }
+
+    public int getMaxElements() {
+        return maxElements;
+    }
+
+    /**
+     * Stop reading a document, with an exception, as soon as it has more
+     * than a number of elements. Only the elements that are kept are
+     * counted, not comments or elements left out by
+     * {@link #include(String...)} or {@link #exclude(String...)}.
+     * @param maxElements
+     *          the largest number of elements, or 0 for no limit
+     */
+    public MeiReaderOptions setMaxElements(int maxElements) {
+        this.maxElements = maxElements;
+        return this;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Stop reading a document, with an exception, as soon as elements are
+     * nested deeper than a limit. The root element is at depth 1.
+     * @param maxDepth
+     *          the largest depth, or 0 for no limit
+     */
+    public MeiReaderOptions setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Only read the elements that match one of the paths, with everything
+     * inside them. Their ancestors are read without any text, so that the
+     * elements stay in place in the tree. Other elements are skipped, and
+     * are only made if something inside them is kept. Paths that start at
+     * the root also let the elements that can't lead to them be skipped
+     * without being looked into. The root element is always read.
+     * Each call adds to the paths given before.
+     */
+    public MeiReaderOptions include(String... paths) {
+        for (String path : paths) {
+            includes.add(split(path));
+        }
+        return this;
+    }
+
+    /**
+     * Skip the elements that match one of the paths, and everything inside
+     * them. Nothing is made for skipped elements, so a file is read faster
+     * and takes less memory. Excluding takes precedence over including.
+     * The root element is always read.
+     * Each call adds to the paths given before.
+     */
+    public MeiReaderOptions exclude(String... paths) {
+        for (String path : paths) {
+            excludes.add(split(path));
+        }
+        return this;
+    }
+
+    /* package */ boolean hasIncludes() {
+        return !includes.isEmpty();
+    }
+
+    /**
+     * Check if an element is included.
+     * @param path
+     *          the names of the element's ancestors, from the root, and
+     *          the element itself
+     */
+    /* package */ boolean isIncluded(List<String> path) {
+        return matchesAny(includes, path);
+    }
+
+    /**
+     * Check if an element that isn't included can have an included
+     * descendant. Only paths that start at the root can rule that out.
+     * @see #isIncluded(List)
+     */
+    /* package */ boolean mayIncludeInside(List<String> path) {
+        for (String[] pattern : includes) {
+            if (pattern[0].length() != 0) {
+                return true;
+            }
+            if (pattern.length - 1 > path.size() && startsWith(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if an anchored pattern starts with the names of a path.
+     */
+    private static boolean startsWith(String[] pattern, List<String> path) {
+        for (int i = 0; i < path.size(); i++) {
+            if (!pattern[i + 1].equals(path.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if an element is excluded.
+     * @see #isIncluded(List)
+     */
+    /* package */ boolean isExcluded(List<String> path) {
+        return matchesAny(excludes, path);
+    }
+
+    /* package */ static String[] split(String path) {
+        if (path.length() == 0 || path.equals("/")) {
+            throw new IllegalArgumentException("Empty path");
+        }
+        // An empty first name anchors the path at the root
+        return path.split("/", -1);
+    }
+
+    /* package */ static boolean matchesAny(List<String[]> patterns, List<String> path) {
+        for (String[] pattern : patterns) {
+            if (matches(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String[] pattern, List<String> path) {
+        boolean anchored = pattern[0].length() == 0;
+        int length = anchored ? pattern.length - 1 : pattern.length;
+        if (length > path.size() || (anchored && length != path.size())) {
+            return false;
+        }
+        for (int i = 1; i <= length; i++) {
+            if (!pattern[pattern.length - i].equals(path.get(path.size() - i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,322 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import ca.mcgill.music.ddmal.mei.MeiXmlReader.MeiXmlReadException;
+
+/**
+ * A compiled schema that MEI documents can be validated against.
+ *
+ * Schemas are compiled once and kept, so loading the same schema file
+ * again is cheap. A schema can be used by many threads at once.
+ * W3C XML Schema (.xsd) files can always be used. RELAX NG (.rng) files
+ * need a {@link SchemaFactory} for RELAX NG on the classpath, e.g. Jing.
+ */
+public class MeiSchema {
+
+    private static final String XML_HREF = "http://www.w3.org/XML/1998/namespace";
+
+    /** Compiled schemas, by location. */
+    private static final ConcurrentMap<String, FutureTask<MeiSchema>> SCHEMAS =
+            new ConcurrentHashMap<String, FutureTask<MeiSchema>>();
+
+    private final Schema schema;
+
+    public static class MeiValidationException extends MeiXmlReadException {
+        private static final long serialVersionUID = -3587219480373327102L;
+        private final List<String> errors;
+        public MeiValidationException(List<String> errors) {
+            super("Document is not valid: " + errors.get(0)
+                    + (errors.size() > 1 ? " (and " + (errors.size() - 1) + " more)" : ""));
+            this.errors = Collections.unmodifiableList(errors);
+        }
+        /**
+         * Get a description of every problem found in the document.
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
+    /**
+     * Collects validation errors so they can all be reported at once.
+     */
+    /* package */ static class ErrorCollector implements ErrorHandler {
+        private final List<String> errors = new ArrayList<String>();
+
+        public void warning(SAXParseException exception) {
+        }
+
+        public void error(SAXParseException exception) {
+            errors.add(describe(exception));
+        }
+
+        public void fatalError(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+
+        private String describe(SAXParseException e) {
+            if (e.getLineNumber() > 0) {
+                return "line " + e.getLineNumber() + ": " + e.getMessage();
+            }
+            return e.getMessage();
+        }
+
+        /* package */ void check() {
+            if (!errors.isEmpty()) {
+                throw new MeiValidationException(errors);
+            }
+        }
+    }
+
+    private MeiSchema(Schema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Load a schema from a file. If the file has been loaded before and
+     * hasn't changed, the compiled schema is reused.
+     * @param file
+     *          a .xsd or .rng file
+     */
+    public static MeiSchema load(final File file) {
+        String key;
+        try {
+            key = file.getCanonicalPath() + "@" + file.lastModified();
+        } catch (IOException e) {
+            throw new MeiXmlReadException(e);
+        }
+        return load(key, new Callable<MeiSchema>() {
+            public MeiSchema call() throws SAXException {
+                return new MeiSchema(newFactory(file.getName()).newSchema(file));
+            }
+        });
+    }
+
+    /**
+     * Load a schema from a URL, e.g. a resource on the classpath. If the
+     * URL has been loaded before, the compiled schema is reused.
+     * @param url
+     *          the location of a .xsd or .rng file
+     */
+    public static MeiSchema load(final URL url) {
+        return load(url.toExternalForm(), new Callable<MeiSchema>() {
+            public MeiSchema call() throws SAXException {
+                return new MeiSchema(newFactory(url.getPath()).newSchema(url));
+            }
+        });
+    }
+
+    /**
+     * Compile a schema, unless another thread is already doing it.
+     */
+    private static MeiSchema load(String key, Callable<MeiSchema> compile) {
+        FutureTask<MeiSchema> task = new FutureTask<MeiSchema>(compile);
+        FutureTask<MeiSchema> existing = SCHEMAS.putIfAbsent(key, task);
+        if (existing == null) {
+            existing = task;
+            task.run();
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MeiXmlReadException(e);
+        } catch (ExecutionException e) {
+            // Allow a broken schema to be fixed and loaded again
+            SCHEMAS.remove(key, existing);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MeiXmlReadException(e.getCause());
+        }
+    }
+
+    /**
+     * Forget all compiled schemas.
+     */
+    public static void clearCache() {
+        SCHEMAS.clear();
+    }
+
+    private static SchemaFactory newFactory(String name) {
+        String language = name.endsWith(".rng") ? XMLConstants.RELAXNG_NS_URI
+                : XMLConstants.W3C_XML_SCHEMA_NS_URI;
+        try {
+            return SchemaFactory.newInstance(language);
+        } catch (IllegalArgumentException e) {
+            throw new MeiXmlReadException("No schema factory available for " + language);
+        }
+    }
+
+    /* package */ Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Validate a document against this schema.
+     * @throws MeiValidationException
+     *          if the document is not valid
+     */
+    public void validate(MeiDocument doc) {
+        MeiProbe probe = MeiProbe.start(MeiMetrics.Operation.VALIDATE);
+        ValidatorHandler handler = schema.newValidatorHandler();
+        ErrorCollector errors = new ErrorCollector();
+        handler.setErrorHandler(errors);
+        try {
+            handler.startDocument();
+            if (doc.getRootElement() != null) {
+                sendElement(handler, doc.getRootElement(), probe);
+            }
+            handler.endDocument();
+        } catch (SAXException e) {
+            throw new MeiXmlReadException(e);
+        }
+        errors.check();
+        if (probe != null) {
+            probe.finish();
+        }
+    }
+
+    /**
+     * Validate an MEI file against this schema without loading it.
+     * @throws MeiValidationException
+     *          if the file is not valid
+     */
+    public void validate(File file) {
+        validate(new StreamSource(file), file.length());
+    }
+
+    /**
+     * Validate an MEI document from a stream against this schema without
+     * loading it. The stream is not closed.
+     * @throws MeiValidationException
+     *          if the document is not valid
+     */
+    public void validate(InputStream stream) {
+        validate(new StreamSource(stream), -1);
+    }
+
+    private void validate(StreamSource source, long size) {
+        MeiProbe probe = MeiProbe.start(MeiMetrics.Operation.VALIDATE);
+        CountingInputStream counter = null;
+        if (probe != null && source.getInputStream() != null) {
+            counter = new CountingInputStream(source.getInputStream());
+            source.setInputStream(counter);
+        }
+        Validator validator = schema.newValidator();
+        ErrorCollector errors = new ErrorCollector();
+        validator.setErrorHandler(errors);
+        try {
+            validator.validate(source);
+        } catch (SAXException e) {
+            throw new MeiXmlReadException(e);
+        } catch (IOException e) {
+            throw new MeiXmlReadException(e);
+        }
+        errors.check();
+        if (probe != null) {
+            probe.setBytes(counter == null ? size : counter.getByteCount());
+            probe.finish();
+        }
+    }
+
+    /**
+     * Send an element to the validator as SAX events.
+     */
+    private void sendElement(ValidatorHandler handler, MeiElement e, MeiProbe probe) throws SAXException {
+        if (e.getTag() == MeiTag.COMMENT) {
+            return;
+        }
+        if (probe != null) {
+            probe.element(e.attributeList().size());
+        }
+        AttributesImpl atts = new AttributesImpl();
+        List<String> declared = new ArrayList<String>();
+        for (MeiAttribute a : e.attributeList()) {
+            String name = a.getName();
+            String href = a.getNamespace() == null ? null : a.getNamespace().getHref();
+            if (name.equals("xmlns") || name.startsWith("xmlns:")
+                    || MeiXmlSerializer.XMLNS_HREF.equals(href)) {
+                String prefix = name.equals("xmlns") ? "" : name.substring(6);
+                handler.startPrefixMapping(prefix, a.getValue());
+                declared.add(prefix);
+                continue;
+            }
+            atts.addAttribute(href == null ? "" : href, localName(name), name, "CDATA", a.getValue());
+        }
+        atts.addAttribute(XML_HREF, "id", "xml:id", "ID", e.getId());
+
+        String href = e.getNamespace() == null || e.getNamespace().getHref() == null
+                ? "" : e.getNamespace().getHref();
+        String local = localName(e.getName());
+        handler.startElement(href, local, e.getName(), atts);
+        characters(handler, e.getValue());
+        for (MeiElement c : e.getChildren()) {
+            sendElement(handler, c, probe);
+            characters(handler, c.getTail());
+        }
+        handler.endElement(href, local, e.getName());
+        for (String prefix : declared) {
+            handler.endPrefixMapping(prefix);
+        }
+    }
+
+    private void characters(ValidatorHandler handler, String text) throws SAXException {
+        if (text != null) {
+            handler.characters(text.toCharArray(), 0, text.length());
+        }
+    }
+
+    private String localName(String name) {
+        int colon = name.indexOf(':');
+        return colon < 0 ? name : name.substring(colon + 1);
+    }
+}
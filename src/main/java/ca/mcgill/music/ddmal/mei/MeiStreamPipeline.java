@@ -0,0 +1,288 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.ext.DefaultHandler2;
+
+import ca.mcgill.music.ddmal.mei.MeiXmlWriter.MeiXmlWriteException;
+
+/**
+ * Changes a file as it is read, writing the result as it goes, without
+ * making a document. Only the open elements are held, so memory use
+ * doesn't grow with the size of the file.
+ * <pre>
+ * new MeiStreamPipeline(
+ *         MeiStreamStage.remove("annot"),
+ *         MeiStreamStage.removeAttributes("facs"),
+ *         MeiStreamStage.replaceIdPrefix("m-", "movement1-"))
+ *     .transform(new File("in.mei"), new File("out.mei"));
+ * </pre>
+ * Each part of the document goes through the stages in order, and what
+ * the last stage passes on is written. The output is what
+ * {@link MeiXmlWriter} would write for the changed document, except that
+ * namespaces used inside the root element are declared where they are
+ * used. The whitespace option of the {@link MeiReaderOptions} applies, and
+ * a schema in them is checked against the input. Include and exclude
+ * paths are not used; a {@link MeiStreamStage} can do the same.
+ * <p>
+ * Stages may keep state, so a pipeline transforms one document at a time.
+ */
+public class MeiStreamPipeline {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<MeiStreamStage> stages = new ArrayList<MeiStreamStage>();
+    private MeiReaderOptions options = new MeiReaderOptions();
+
+    public MeiStreamPipeline(MeiStreamStage... stages) {
+        this.stages.addAll(Arrays.asList(stages));
+    }
+
+    /**
+     * Add a stage after the ones already in the pipeline.
+     */
+    public MeiStreamPipeline then(MeiStreamStage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    public MeiStreamPipeline setOptions(MeiReaderOptions options) {
+        this.options = options;
+        return this;
+    }
+
+    /**
+     * Transform a file. The output file is written as the input is read,
+     * so they must be different files.
+     */
+    public void transform(File in, File out) {
+        InputStream is = null;
+        OutputStream os = null;
+        try {
+            is = new FileInputStream(in);
+            os = new BufferedOutputStream(new FileOutputStream(out));
+            transform(is, os);
+            os.close();
+        } catch (IOException e) {
+            throw new MeiXmlWriteException(e);
+        } finally {
+            IOUtils.closeQuietly(is);
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    /**
+     * Transform a document from a stream to another.
+     * @param out
+     *          the stream to write to. Neither stream is closed.
+     */
+    public void transform(InputStream in, OutputStream out) {
+        MeiXmlSerializer serializer = new MeiXmlSerializer(out);
+        try {
+            serializer.startDocument();
+            for (MeiStreamStage stage : stages) {
+                stage.startDocument();
+            }
+            MeiXmlReader.parse(new InputSource(in), options, new Transformer(serializer));
+            for (MeiStreamStage stage : stages) {
+                stage.endDocument();
+            }
+            serializer.endDocument();
+        } catch (IOException e) {
+            throw new MeiXmlWriteException(e);
+        }
+    }
+
+    /**
+     * Transform a document held in a string.
+     */
+    public String transform(String contents) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        transform(new ByteArrayInputStream(contents.getBytes(UTF_8)), os);
+        return new String(os.toByteArray(), UTF_8);
+    }
+
+    /**
+     * Sends the events of the parser through the stages to the serializer.
+     */
+    private class Transformer extends DefaultHandler2 {
+        private final MeiXmlSerializer out;
+        /** For each open element, the element given to each stage and the one written. */
+        private final List<MeiElement[]> open = new ArrayList<MeiElement[]>();
+        /** Depth inside a left out element, or 0 if not in one. */
+        private int skipped;
+        private final StringBuilder chars = new StringBuilder();
+        private MeiText text;
+        private boolean inCData;
+
+        Transformer(MeiXmlSerializer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            if (skipped > 0) {
+                skipped++;
+                return;
+            }
+            flushText();
+            MeiElement[] passed = new MeiElement[stages.size() + 1];
+            MeiElement e = MeiXmlReader.makeElement(uri, qName, atts, false);
+            for (int i = 0; i < stages.size(); i++) {
+                passed[i] = e;
+                e = stages.get(i).startElement(e);
+                if (e == null) {
+                    // The stages up to this one see the end of the element
+                    skipped = 1;
+                    break;
+                }
+            }
+            passed[stages.size()] = e;
+            open.add(passed);
+            if (e != null) {
+                try {
+                    out.startElement(e);
+                } catch (IOException ex) {
+                    throw new MeiXmlWriteException(ex);
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (skipped > 1) {
+                skipped--;
+                return;
+            }
+            flushText();
+            skipped = 0;
+            MeiElement[] passed = open.remove(open.size() - 1);
+            for (int i = 0; i < stages.size() && passed[i] != null; i++) {
+                stages.get(i).endElement(passed[i]);
+            }
+            MeiElement e = passed[stages.size()];
+            if (e != null) {
+                try {
+                    out.endElement(e);
+                } catch (IOException ex) {
+                    throw new MeiXmlWriteException(ex);
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (skipped == 0 && !open.isEmpty()) {
+                chars.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void startCDATA() {
+            flushChars();
+            inCData = true;
+        }
+
+        @Override
+        public void endCDATA() {
+            flushChars();
+            inCData = false;
+        }
+
+        @Override
+        public void comment(char[] ch, int start, int length) {
+            if (skipped > 0 || open.isEmpty()) {
+                return;
+            }
+            flushText();
+            String comment = new String(ch, start, length);
+            for (int i = 0; i < stages.size() && comment != null; i++) {
+                comment = stages.get(i).comment(comment);
+            }
+            if (comment != null) {
+                try {
+                    out.comment(comment);
+                } catch (IOException e) {
+                    throw new MeiXmlWriteException(e);
+                }
+            }
+        }
+
+        private void flushChars() {
+            if (chars.length() > 0) {
+                text = MeiXmlReader.appendText(text, chars.toString(), inCData);
+                chars.setLength(0);
+            }
+        }
+
+        /**
+         * Pass on the text read since the last element or comment.
+         */
+        private void flushText() {
+            flushChars();
+            MeiText t = text;
+            text = null;
+            if (t == null) {
+                return;
+            }
+            if (options.getWhitespace() != MeiReaderOptions.Whitespace.KEEP && t.isFormatting()) {
+                if (options.getWhitespace() == MeiReaderOptions.Whitespace.DISCARD) {
+                    return;
+                }
+                t = MeiText.WHITESPACE;
+            }
+            for (int i = 0; i < stages.size() && t != null; i++) {
+                t = stages.get(i).text(t);
+            }
+            try {
+                out.text(t);
+            } catch (IOException e) {
+                throw new MeiXmlWriteException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A stage of a {@link MeiStreamPipeline}, which sees each part of a
+ * document as it is read and decides what is passed on to the next stage.
+ * The methods pass everything on unchanged, so a stage only overrides
+ * those it needs.
+ * <p>
+ * Elements are given without their children or text, which come after
+ * them in later calls. A stage may change an element's attributes, or
+ * return a different element to write in its place, for example one made
+ * with {@link #copy(MeiElement, String, String)}.
+ */
+public abstract class MeiStreamStage {
+
+    /**
+     * Called before the first element of each document, e.g. to reset
+     * state kept by the stage.
+     */
+    public void startDocument() {
+    }
+
+    /**
+     * Called after the root element of each document has ended.
+     */
+    public void endDocument() {
+    }
+
+    /**
+     * See the start of an element.
+     * @return
+     *          the element to pass on, or null to leave out the element
+     *          and everything inside it. Nothing inside a left out element
+     *          is given to any stage.
+     */
+    public MeiElement startElement(MeiElement element) {
+        return element;
+    }
+
+    /**
+     * See the end of an element.
+     * @param element
+     *          the element that was given to {@link #startElement(MeiElement)}
+     */
+    public void endElement(MeiElement element) {
+    }
+
+    /**
+     * See text inside the current element.
+     * @return
+     *          the text to pass on, or null to leave it out
+     */
+    public MeiText text(MeiText text) {
+        return text;
+    }
+
+    /**
+     * See a comment inside the current element.
+     * @return
+     *          the comment to pass on, or null to leave it out
+     */
+    public String comment(String text) {
+        return text;
+    }
+
+    /**
+     * Make an element with the same namespace and attributes as another,
+     * with a new name and id.
+     */
+    protected static MeiElement copy(MeiElement element, String name, String id) {
+        MeiElement ret = new MeiElement(element.getNamespace(), name, id);
+        ret.addAllAttributes(element.getAttributes());
+        return ret;
+    }
+
+    /**
+     * Rename elements.
+     * @param names
+     *          new names by old name
+     */
+    public static MeiStreamStage rename(final Map<String, String> names) {
+        return new MeiStreamStage() {
+            @Override
+            public MeiElement startElement(MeiElement element) {
+                String name = names.get(element.getName());
+                return name == null ? element : copy(element, name, element.getId());
+            }
+        };
+    }
+
+    /**
+     * Leave out elements with any of the names, and everything inside them.
+     */
+    public static MeiStreamStage remove(String... names) {
+        final Set<String> remove = new HashSet<String>(Arrays.asList(names));
+        return new MeiStreamStage() {
+            @Override
+            public MeiElement startElement(MeiElement element) {
+                return remove.contains(element.getName()) ? null : element;
+            }
+        };
+    }
+
+    /**
+     * Remove attributes with any of the names from all elements.
+     */
+    public static MeiStreamStage removeAttributes(String... names) {
+        final Set<String> remove = new HashSet<String>(Arrays.asList(names));
+        return new MeiStreamStage() {
+            @Override
+            public MeiElement startElement(MeiElement element) {
+                List<MeiAttribute> attributes = element.getAttributes();
+                for (int i = attributes.size() - 1; i >= 0; i--) {
+                    if (remove.contains(attributes.get(i).getName())) {
+                        element.removeAttribute(attributes.get(i));
+                    }
+                }
+                return element;
+            }
+        };
+    }
+
+    /**
+     * Change the values of an attribute.
+     * @param values
+     *          new values by old value. Values that aren't in the map are
+     *          not changed.
+     */
+    public static MeiStreamStage replaceAttributeValues(final String name, final Map<String, String> values) {
+        return new MeiStreamStage() {
+            @Override
+            public MeiElement startElement(MeiElement element) {
+                for (MeiAttribute attr : element.getAttributes()) {
+                    if (attr.getName().equals(name) && values.containsKey(attr.getValue())) {
+                        attr.setValue(values.get(attr.getValue()));
+                    }
+                }
+                return element;
+            }
+        };
+    }
+
+    /**
+     * Change the start of ids, and of references to them. A reference is a
+     * word of an attribute value that is '#' and an id.
+     */
+    public static MeiStreamStage replaceIdPrefix(final String prefix, final String replacement) {
+        return new MeiStreamStage() {
+            @Override
+            public MeiElement startElement(MeiElement element) {
+                List<MeiAttribute> attributes = element.getAttributes();
+                for (int i = 0; i < attributes.size(); i++) {
+                    MeiAttribute attr = attributes.get(i);
+                    String value = replaceReferences(attr.getValue());
+                    if (value != attr.getValue()) {
+                        attr.setValue(value);
+                    }
+                }
+                String id = element.getId();
+                if (id != null && id.startsWith(prefix)) {
+                    return copy(element, element.getName(), replacement + id.substring(prefix.length()));
+                }
+                return element;
+            }
+
+            private String replaceReferences(String value) {
+                if (value == null || value.indexOf("#" + prefix) < 0) {
+                    return value;
+                }
+                StringBuilder ret = new StringBuilder(value.length());
+                int start = 0;
+                while (start < value.length()) {
+                    int end = start;
+                    while (end < value.length() && !Character.isWhitespace(value.charAt(end))) {
+                        end++;
+                    }
+                    String word = value.substring(start, end);
+                    if (word.startsWith("#" + prefix)) {
+                        word = "#" + replacement + word.substring(prefix.length() + 1);
+                    }
+                    ret.append(word);
+                    while (end < value.length() && Character.isWhitespace(value.charAt(end))) {
+                        ret.append(value.charAt(end++));
+                    }
+                    start = end;
+                }
+                return ret.toString();
+            }
+        };
+    }
+}
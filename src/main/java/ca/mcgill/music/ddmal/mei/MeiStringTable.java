@@ -0,0 +1,176 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A numbered table of strings, used by {@link MeiCompactDocument}.
+ * The strings are either held in an array, or stored as UTF-8 in a buffer
+ * and decoded when they are read.
+ */
+/* package */ abstract class MeiStringTable {
+
+    /* package */ static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /* package */ abstract int size();
+
+    /* package */ abstract String get(int index);
+
+    /**
+     * Estimate the number of bytes of heap used by this table.
+     */
+    /* package */ abstract long estimateSize();
+
+    /**
+     * Compare the string at an index to another string, in the order of
+     * {@link String#compareTo(String)}.
+     */
+    /* package */ int compare(int index, String s) {
+        return get(index).compareTo(s);
+    }
+
+    /* package */ boolean equals(int index, String s) {
+        return get(index).equals(s);
+    }
+
+    /* package */ static MeiStringTable of(String[] strings) {
+        return new ArrayTable(strings);
+    }
+
+    /**
+     * Make a table of strings that are stored in a buffer.
+     * @param offsets
+     *          the start of each string in <code>bytes</code>, with one extra
+     *          entry for the end of the last string
+     * @param bytes
+     *          the UTF-8 bytes of all strings
+     */
+    /* package */ static MeiStringTable of(IntBuffer offsets, ByteBuffer bytes) {
+        return new BufferTable(offsets, bytes);
+    }
+
+    private static class ArrayTable extends MeiStringTable {
+        private final String[] strings;
+
+        ArrayTable(String[] strings) {
+            this.strings = strings;
+        }
+
+        @Override
+        int size() {
+            return strings.length;
+        }
+
+        @Override
+        String get(int index) {
+            return strings[index];
+        }
+
+        @Override
+        long estimateSize() {
+            // The array, and a String object and char array for each string
+            long ret = 16 + 4L * strings.length;
+            for (String s : strings) {
+                ret += 40 + 2L * s.length();
+            }
+            return ret;
+        }
+    }
+
+    private static class BufferTable extends MeiStringTable {
+        private final IntBuffer offsets;
+        private final ByteBuffer bytes;
+
+        BufferTable(IntBuffer offsets, ByteBuffer bytes) {
+            this.offsets = offsets;
+            this.bytes = bytes;
+        }
+
+        @Override
+        int size() {
+            return offsets.limit() - 1;
+        }
+
+        @Override
+        String get(int index) {
+            ByteBuffer b = bytes.duplicate();
+            b.limit(offsets.get(index + 1));
+            b.position(offsets.get(index));
+            return UTF8.decode(b).toString();
+        }
+
+        @Override
+        long estimateSize() {
+            // The strings are in the buffer, not the heap
+            return 64;
+        }
+
+        /**
+         * Compare without decoding while both strings are ASCII, where the
+         * byte order is the same as the character order.
+         */
+        @Override
+        int compare(int index, String s) {
+            int start = offsets.get(index);
+            int length = offsets.get(index + 1) - start;
+            int n = Math.min(length, s.length());
+            for (int i = 0; i < n; i++) {
+                int b = bytes.get(start + i);
+                char c = s.charAt(i);
+                if (b < 0 || c >= 0x80) {
+                    return super.compare(index, s);
+                }
+                if (b != c) {
+                    return b - c;
+                }
+            }
+            // Every remaining byte or char makes that string the longer one
+            return length - s.length();
+        }
+
+        @Override
+        boolean equals(int index, String s) {
+            int start = offsets.get(index);
+            int length = offsets.get(index + 1) - start;
+            if (length < s.length()) {
+                // UTF-8 is never shorter than the number of chars
+                return false;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                int b = bytes.get(start + i);
+                char c = s.charAt(i);
+                if (b < 0 || c >= 0x80) {
+                    return super.equals(index, s);
+                }
+                if (b != c) {
+                    return false;
+                }
+            }
+            return length == s.length();
+        }
+    }
+}
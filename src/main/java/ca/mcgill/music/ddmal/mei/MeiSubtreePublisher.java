@@ -0,0 +1,238 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.IOUtils;
+import org.xml.sax.InputSource;
+
+import ca.mcgill.music.ddmal.mei.MeiXmlReader.MeiXmlReadException;
+import ca.mcgill.music.ddmal.mei.MeiXmlReader.SubtreeHandler;
+
+/**
+ * Publishes the subtrees of a document, such as each <code>mei</code> in
+ * a corpus or each measure of a score, as soon as each one is read.
+ * Subtrees are picked with paths like those of
+ * {@link MeiReaderOptions#include(String...)}. A subtree is not kept
+ * once it has been published, and elements outside the subtrees, such as
+ * the <code>meiHead</code>, are dropped as soon as they have been read,
+ * so only the open elements around the current subtree are held. A file
+ * much larger than the heap can be read, as long as each subtree fits.
+ * <pre>
+ * new MeiSubtreePublisher(new File("corpus.mei"), "/meiCorpus/mei").subscribe(subscriber);
+ * </pre>
+ * The file is read as the subscriber asks for more subtrees, and reading
+ * waits while it hasn't asked, so only the subtrees it has asked for are
+ * held at once. Each subscriber reads the file again, on a thread of its
+ * own unless {@link #setExecutor(Executor)} is given.
+ * Subtrees are detached elements, without the text after them. Errors,
+ * including those from a schema in the options, are given to
+ * {@link Flow.Subscriber#onError(Throwable)}, which may come after some
+ * subtrees have been published.
+ */
+public class MeiSubtreePublisher implements Flow.Publisher<MeiElement> {
+
+    private static final Executor NEW_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            Thread thread = new Thread(command, "MeiSubtreePublisher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    };
+
+    /** Thrown through the parser to stop it when a subscription is cancelled. */
+    private static class Cancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final File file;
+    private final InputStream stream;
+    /** True once the stream has been given to a subscriber. */
+    private final AtomicBoolean streamUsed = new AtomicBoolean();
+    private final MeiReaderOptions options;
+    private final List<String[]> paths = new ArrayList<String[]>();
+    private Executor executor = NEW_THREAD;
+
+    public MeiSubtreePublisher(File file, String... paths) {
+        this(file, new MeiReaderOptions(), paths);
+    }
+
+    public MeiSubtreePublisher(File file, MeiReaderOptions options, String... paths) {
+        this(file, null, options, paths);
+    }
+
+    /**
+     * Publish the subtrees of a stream. A stream can only be read once,
+     * so there can only be one subscriber.
+     */
+    public MeiSubtreePublisher(InputStream stream, MeiReaderOptions options, String... paths) {
+        this(null, stream, options, paths);
+    }
+
+    private MeiSubtreePublisher(File file, InputStream stream, MeiReaderOptions options, String... paths) {
+        if (paths.length == 0) {
+            throw new IllegalArgumentException("No subtree paths");
+        }
+        this.file = file;
+        this.stream = stream;
+        this.options = options;
+        for (String path : paths) {
+            this.paths.add(MeiReaderOptions.split(path));
+        }
+    }
+
+    /**
+     * Set what reads the file for each subscriber. Reading blocks while the
+     * subscriber hasn't asked for more, so it should have a thread for each
+     * subscriber.
+     */
+    public MeiSubtreePublisher setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public void subscribe(Flow.Subscriber<? super MeiElement> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (stream != null && !streamUsed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {
+                }
+
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A stream can only have one subscriber"));
+            return;
+        }
+        executor.execute(new Subscription(subscriber));
+    }
+
+    private class Subscription implements Flow.Subscription, Runnable, SubtreeHandler {
+        private final Flow.Subscriber<? super MeiElement> subscriber;
+        /** Subtrees asked for and not yet published. */
+        private long demand;
+        private boolean cancelled;
+        /** An invalid request, which cancels the subscription. */
+        private IllegalArgumentException invalid;
+
+        Subscription(Flow.Subscriber<? super MeiElement> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void run() {
+            subscriber.onSubscribe(this);
+            InputStream in = stream;
+            try {
+                if (in == null) {
+                    in = new FileInputStream(file);
+                }
+                MeiXmlReader.readSubtrees(new InputSource(in), options, this);
+            } catch (Cancelled e) {
+                // Only an invalid request is reported
+            } catch (IOException e) {
+                finish(new MeiXmlReadException(e));
+                return;
+            } catch (RuntimeException e) {
+                finish(e);
+                return;
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+            finish(null);
+        }
+
+        /**
+         * Finish the subscription, with an error or else by completing it.
+         * Nothing is sent if it was cancelled, unless by an invalid request.
+         */
+        private void finish(Throwable error) {
+            synchronized (this) {
+                if (cancelled && invalid == null) {
+                    return;
+                }
+                if (invalid != null) {
+                    error = invalid;
+                }
+            }
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                invalid = new IllegalArgumentException("Requested " + n + " subtrees");
+                cancelled = true;
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        public boolean isSubtree(List<String> path) {
+            return MeiReaderOptions.matchesAny(paths, path);
+        }
+
+        public void subtree(MeiElement element) {
+            synchronized (this) {
+                try {
+                    while (demand == 0 && !cancelled) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                }
+                if (cancelled) {
+                    throw new Cancelled();
+                }
+                demand--;
+            }
+            subscriber.onNext(element);
+        }
+    }
+}
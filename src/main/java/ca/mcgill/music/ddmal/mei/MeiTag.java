@@ -0,0 +1,391 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The tag names of the elements in MEI 2012 (mei-all).
+ * Each {@link MeiElement} finds its tag when it is made, so that code
+ * looking for elements of a given type can compare tags instead of strings.
+ * Elements that are not in the MEI namespace, or whose name is not in
+ * the schema, have the tag {@link #UNKNOWN}.
+ */
+public enum MeiTag {
+    ABBR("abbr"),
+    ACCESS_RESTRICT("accessRestrict"),
+    ACCID("accid"),
+    ACQUISITION("acquisition"),
+    ACTOR("actor"),
+    ADD("add"),
+    ADD_NAME("addName"),
+    ADDRESS("address"),
+    ADDR_LINE("addrLine"),
+    ALT_ID("altId"),
+    ANALYTIC("analytic"),
+    ANCHORED_TEXT("anchoredText"),
+    ANNOT("annot"),
+    APP("app"),
+    APP_INFO("appInfo"),
+    APPLICATION("application"),
+    ARPEG("arpeg"),
+    ARRANGER("arranger"),
+    ARTIC("artic"),
+    ATTACCA("attacca"),
+    AUDIENCE("audience"),
+    AUTHOR("author"),
+    AVAILABILITY("availability"),
+    BACK("back"),
+    BAR_LINE("barLine"),
+    BARRE("barre"),
+    BEAM("beam"),
+    BEAM_SPAN("beamSpan"),
+    BEAT_RPT("beatRpt"),
+    BEND("bend"),
+    BIBL("bibl"),
+    BIBL_LIST("biblList"),
+    BIBL_SCOPE("biblScope"),
+    BINDING("binding"),
+    BINDING_DESC("bindingDesc"),
+    BLURB("blurb"),
+    BODY("body"),
+    BRACKET_SPAN("bracketSpan"),
+    BREATH("breath"),
+    B_TREM("bTrem"),
+    BYLINE("byline"),
+    CAESURA("caesura"),
+    CAPTION("caption"),
+    CAPTURE_MODE("captureMode"),
+    CARRIER_FORM("carrierForm"),
+    CAST_GRP("castGrp"),
+    CAST_ITEM("castItem"),
+    CAST_LIST("castList"),
+    CATCHWORDS("catchwords"),
+    CATEGORY("category"),
+    CB("cb"),
+    CHANGE("change"),
+    CHANGE_DESC("changeDesc"),
+    CHOICE("choice"),
+    CHORD("chord"),
+    CHORD_DEF("chordDef"),
+    CHORD_MEMBER("chordMember"),
+    CHORD_TABLE("chordTable"),
+    CLASS_CODE("classCode"),
+    CLASSIFICATION("classification"),
+    CLEF("clef"),
+    CLEF_GRP("clefGrp"),
+    COL_LAYOUT("colLayout"),
+    COLOPHON("colophon"),
+    COMPONENT_GRP("componentGrp"),
+    COMPOSER("composer"),
+    CONDITION("condition"),
+    CONTENT_ITEM("contentItem"),
+    CONTENTS("contents"),
+    CONTEXT("context"),
+    CORP_NAME("corpName"),
+    CORR("corr"),
+    CORRECTION("correction"),
+    COUNTRY("country"),
+    CP_MARK("cpMark"),
+    CREATION("creation"),
+    CUE("cue"),
+    CURVE("curve"),
+    CUSTOS("custos"),
+    DAMAGE("damage"),
+    DATE("date"),
+    DEDICATEE("dedicatee"),
+    DEDICATION("dedication"),
+    DEL("del"),
+    DEPTH("depth"),
+    DESC("desc"),
+    DIM("dim"),
+    DIMENSIONS("dimensions"),
+    DIR("dir"),
+    DISTRIBUTOR("distributor"),
+    DIV("div"),
+    DOT("dot"),
+    DYNAM("dynam"),
+    EDITION("edition"),
+    EDITION_STMT("editionStmt"),
+    EDITOR("editor"),
+    EDITORIAL_DECL("editorialDecl"),
+    ENCODING_DESC("encodingDesc"),
+    ENDING("ending"),
+    EVENT("event"),
+    EVENT_LIST("eventList"),
+    EXHIB_HIST("exhibHist"),
+    EXPAN("expan"),
+    EXPLICIT("explicit"),
+    EXPRESSION("expression"),
+    EXPRESSION_LIST("expressionList"),
+    EXTENT("extent"),
+    EXT_META("extMeta"),
+    F("f"),
+    FACSIMILE("facsimile"),
+    FAM_NAME("famName"),
+    FB("fb"),
+    FIG("fig"),
+    FIG_DESC("figDesc"),
+    FILE_CHAR("fileChar"),
+    FILE_DESC("fileDesc"),
+    FING("fing"),
+    FING_GRP("fingGrp"),
+    FORE_NAME("foreName"),
+    FRONT("front"),
+    F_TREM("fTrem"),
+    FUNDER("funder"),
+    GAP("gap"),
+    GEN_NAME("genName"),
+    GENRE("genre"),
+    GEOG_NAME("geogName"),
+    GLISS("gliss"),
+    GRAPHIC("graphic"),
+    GRP_SYM("grpSym"),
+    HAIRPIN("hairpin"),
+    HALFM_RPT("halfmRpt"),
+    HAND("hand"),
+    HAND_LIST("handList"),
+    HAND_SHIFT("handShift"),
+    HARM("harm"),
+    HARP_PEDAL("harpPedal"),
+    HEAD("head"),
+    HEIGHT("height"),
+    HISPAN_TICK("hispanTick"),
+    HISTORY("history"),
+    IMPRIMATUR("imprimatur"),
+    IMPRINT("imprint"),
+    INCIP("incip"),
+    INCIP_CODE("incipCode"),
+    INCIP_TEXT("incipText"),
+    INSTR_DEF("instrDef"),
+    INSTR_GRP("instrGrp"),
+    INSTR_VOICE("instrVoice"),
+    INTERPRETATION("interpretation"),
+    ITEM("item"),
+    ITEM_LIST("itemList"),
+    KEY("key"),
+    KEY_ACCID("keyAccid"),
+    KEY_SIG("keySig"),
+    L("l"),
+    LABEL("label"),
+    LANGUAGE("language"),
+    LANG_USAGE("langUsage"),
+    LAYER("layer"),
+    LAYER_DEF("layerDef"),
+    LB("lb"),
+    LEM("lem"),
+    LG("lg"),
+    LIGATURE("ligature"),
+    LINE("line"),
+    LYRICIST("lyricist"),
+    LYRICS("lyrics"),
+    MDIV("mdiv"),
+    MEASURE("measure"),
+    MEI("mei"),
+    MEI_CORPUS("meiCorpus"),
+    MEI_HEAD("meiHead"),
+    MENSUR("mensur"),
+    METER_SIG("meterSig"),
+    METER_SIG_GRP("meterSigGrp"),
+    MONOGR("monogr"),
+    MORDENT("mordent"),
+    M_REST("mRest"),
+    M_RPT("mRpt"),
+    M_RPT2("mRpt2"),
+    M_SPACE("mSpace"),
+    MULTI_REST("multiRest"),
+    MULTI_RPT("multiRpt"),
+    MUSIC("music"),
+    NAME("name"),
+    NAME_LINK("nameLink"),
+    NORMALIZATION("normalization"),
+    NOTE("note"),
+    NOTES_STMT("notesStmt"),
+    NUM("num"),
+    OCTAVE("octave"),
+    ORIG("orig"),
+    ORNAM("ornam"),
+    OTHER_CHAR("otherChar"),
+    P("p"),
+    PAD("pad"),
+    PART("part"),
+    PARTS("parts"),
+    PATRON("patron"),
+    PB("pb"),
+    PEDAL("pedal"),
+    PERF_MEDIUM("perfMedium"),
+    PERS_NAME("persName"),
+    PG_DESC("pgDesc"),
+    PG_FOOT("pgFoot"),
+    PG_FOOT2("pgFoot2"),
+    PG_HEAD("pgHead"),
+    PG_HEAD2("pgHead2"),
+    PHRASE("phrase"),
+    PHYS_DESC("physDesc"),
+    PHYS_LOC("physLoc"),
+    PHYS_MEDIUM("physMedium"),
+    PLATE_NUM("plateNum"),
+    PLAYING_SPEED("playingSpeed"),
+    POST_BOX("postBox"),
+    POST_CODE("postCode"),
+    PROFILE_DESC("profileDesc"),
+    PROJECT_DESC("projectDesc"),
+    PROVENANCE("provenance"),
+    PTR("ptr"),
+    PUBLISHER("publisher"),
+    PUB_PLACE("pubPlace"),
+    PUB_STMT("pubStmt"),
+    QUOTE("quote"),
+    RDG("rdg"),
+    RECIPIENT("recipient"),
+    REF("ref"),
+    REG("reg"),
+    REGION("region"),
+    RELATED_ITEM("relatedItem"),
+    REND("rend"),
+    REPOSITORY("repository"),
+    RESP("resp"),
+    RESP_STMT("respStmt"),
+    REST("rest"),
+    RESTORE("restore"),
+    REVISION_DESC("revisionDesc"),
+    ROLE_NAME("roleName"),
+    SAMPLING_DECL("samplingDecl"),
+    SB("sb"),
+    SCORE("score"),
+    SCORE_DEF("scoreDef"),
+    SCORE_FORMAT("scoreFormat"),
+    SECTION("section"),
+    SEG("seg"),
+    SEGMENTATION("segmentation"),
+    SERIES("series"),
+    SERIES_STMT("seriesStmt"),
+    SETTLEMENT("settlement"),
+    SIC("sic"),
+    SIGNIF_LET("signifLet"),
+    SLUR("slur"),
+    SOUND_CHAN("soundChan"),
+    SOURCE("source"),
+    SOURCE_DESC("sourceDesc"),
+    SP("sp"),
+    SPACE("space"),
+    SPEAKER("speaker"),
+    SPONSOR("sponsor"),
+    STACK("stack"),
+    STAFF("staff"),
+    STAFF_DEF("staffDef"),
+    STAFF_GRP("staffGrp"),
+    STAGE_DIR("stageDir"),
+    STAMP("stamp"),
+    STD_VALS("stdVals"),
+    STREET("street"),
+    STYLE_NAME("styleName"),
+    SUBST("subst"),
+    SUPPLIED("supplied"),
+    SUPPORT("support"),
+    SUPPORT_DESC("supportDesc"),
+    SURFACE("surface"),
+    SYL("syl"),
+    SYMBOL("symbol"),
+    SYMBOL_DEF("symbolDef"),
+    SYMBOL_TABLE("symbolTable"),
+    SYS_REQ("sysReq"),
+    TAGS_DECL("tagsDecl"),
+    TAG_USAGE("tagUsage"),
+    TAXONOMY("taxonomy"),
+    TD("td"),
+    TEMPO("tempo"),
+    TERM("term"),
+    TERM_LIST("termList"),
+    TEXT_LANG("textLang"),
+    TH("th"),
+    TIE("tie"),
+    TIMELINE("timeline"),
+    TITLE("title"),
+    TITLE_PAGE("titlePage"),
+    TITLE_PART("titlePart"),
+    TITLE_STMT("titleStmt"),
+    TR("tr"),
+    TRACK_CONFIG("trackConfig"),
+    TREAT_HIST("treatHist"),
+    TREAT_SCHED("treatSched"),
+    TRILL("trill"),
+    TUPLET("tuplet"),
+    TUPLET_SPAN("tupletSpan"),
+    TURN("turn"),
+    TYPE_DESC("typeDesc"),
+    TYPE_NOTE("typeNote"),
+    UNCLEAR("unclear"),
+    UNPUB("unpub"),
+    USE_RESTRICT("useRestrict"),
+    VEL("vel"),
+    VERSE("verse"),
+    WATERMARK("watermark"),
+    WHEN("when"),
+    WIDTH("width"),
+    WORK("work"),
+    WORK_DESC("workDesc"),
+    ZONE("zone"),
+    /** A comment. Comments are stored as elements called #comment. */
+    COMMENT("#comment"),
+    /** An element that is not part of MEI. */
+    UNKNOWN(null);
+
+    private static final Map<String, MeiTag> BY_NAME = new HashMap<String, MeiTag>();
+    static {
+        for (MeiTag t : values()) {
+            if (t.tagName != null) {
+                BY_NAME.put(t.tagName, t);
+            }
+        }
+    }
+
+    private final String tagName;
+
+    private MeiTag(String tagName) {
+        this.tagName = tagName;
+    }
+
+    /**
+     * Get the name of this tag as it is written in XML.
+     * @return
+     *          the tag name, or null for {@link #UNKNOWN}
+     */
+    public String getName() {
+        return tagName;
+    }
+
+    /**
+     * Find the tag with a given name.
+     * @param name
+     *          the tag name, e.g. "staffDef"
+     * @return
+     *          the tag, or {@link #UNKNOWN} if there is no MEI tag with this name
+     */
+    public static MeiTag forName(String name) {
+        MeiTag tag = BY_NAME.get(name);
+        return tag == null ? UNKNOWN : tag;
+    }
+}
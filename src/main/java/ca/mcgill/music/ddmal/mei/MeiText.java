@@ -0,0 +1,239 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * A run of text in an element, made of one or more segments.
+ * Each segment is either ordinary text or a CDATA section. The text of
+ * the segments is only joined together when the whole string is needed,
+ * e.g. by {@link MeiElement#getValue()}; the writer writes each segment
+ * on its own.
+ * <p>
+ * Text objects can't be changed. {@link #append(String)} and
+ * {@link #appendCData(String)} make a new object.
+ */
+public final class MeiText {
+
+    /**
+     * A piece of text, which is either ordinary text or a CDATA section.
+     */
+    public static final class Segment {
+        private final String text;
+        private final boolean cdata;
+
+        private Segment(String text, boolean cdata) {
+            this.text = text;
+            this.cdata = cdata;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * True if this segment was, or will be, written as a CDATA section.
+         */
+        public boolean isCData() {
+            return cdata;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null) {
+                return false;
+            }
+            if (obj == this) {
+                return true;
+            }
+            if (obj.getClass() != getClass()) {
+                return false;
+            }
+            Segment rhs = (Segment) obj;
+            return new EqualsBuilder()
+                    .append(text, rhs.text)
+                    .append(cdata, rhs.cdata)
+                    .isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder(19, 41)
+                    .append(text)
+                    .append(cdata)
+                    .toHashCode();
+        }
+
+        @Override
+        public String toString() {
+            return cdata ? "<![CDATA[" + text + "]]>" : text;
+        }
+    }
+
+    /**
+     * Stands for whitespace that only formats the document, such as
+     * indentation. It is shared by every element that has such whitespace,
+     * and is not written by {@link MeiXmlWriter}, which indents the
+     * document itself.
+     * @see MeiReaderOptions.Whitespace#COLLAPSE
+     */
+    public static final MeiText WHITESPACE = of("\n");
+
+    private final Segment[] segments;
+    /** All segments joined together, made when first needed. */
+    private String joined;
+
+    private MeiText(Segment[] segments) {
+        this.segments = segments;
+        if (segments.length == 1) {
+            joined = segments[0].text;
+        }
+    }
+
+    /**
+     * Make ordinary text.
+     */
+    public static MeiText of(String text) {
+        return new MeiText(new Segment[] {new Segment(text, false)});
+    }
+
+    /**
+     * Make text that is written as a CDATA section.
+     */
+    public static MeiText cdata(String text) {
+        return new MeiText(new Segment[] {new Segment(text, true)});
+    }
+
+    /**
+     * Make a new text with ordinary text added at the end of this one.
+     */
+    public MeiText append(String text) {
+        return append(new Segment(text, false));
+    }
+
+    /**
+     * Make a new text with a CDATA section added at the end of this one.
+     */
+    public MeiText appendCData(String text) {
+        return append(new Segment(text, true));
+    }
+
+    private MeiText append(Segment segment) {
+        Segment[] ret = Arrays.copyOf(segments, segments.length + 1);
+        ret[segments.length] = segment;
+        return new MeiText(ret);
+    }
+
+    /**
+     * True if this text is only whitespace and includes a line break,
+     * so that it probably only formats the document.
+     */
+    public boolean isFormatting() {
+        boolean lineBreak = false;
+        for (Segment s : segments) {
+            if (s.cdata) {
+                return false;
+            }
+            for (int i = 0; i < s.text.length(); i++) {
+                char c = s.text.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    lineBreak = true;
+                } else if (c != ' ' && c != '\t') {
+                    return false;
+                }
+            }
+        }
+        return lineBreak;
+    }
+
+    public List<Segment> getSegments() {
+        return Collections.unmodifiableList(Arrays.asList(segments));
+    }
+
+    /**
+     * True if any segment is a CDATA section.
+     */
+    public boolean hasCData() {
+        for (Segment s : segments) {
+            if (s.cdata) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the length of all segments together.
+     */
+    public int length() {
+        if (joined != null) {
+            return joined.length();
+        }
+        int ret = 0;
+        for (Segment s : segments) {
+            ret += s.text.length();
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (obj == this) {
+            return true;
+        }
+        if (obj.getClass() != getClass()) {
+            return false;
+        }
+        return Arrays.equals(segments, ((MeiText) obj).segments);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(segments);
+    }
+
+    /**
+     * Get the text of all segments joined together.
+     */
+    @Override
+    public String toString() {
+        if (joined == null) {
+            StringBuilder sb = new StringBuilder(length());
+            for (Segment s : segments) {
+                sb.append(s.text);
+            }
+            joined = sb.toString();
+        }
+        return joined;
+    }
+}
@@ -25,36 +25,89 @@ package ca.mcgill.music.ddmal.mei;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.apache.commons.io.FileUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.apache.commons.io.input.CountingInputStream;
+import org.xml.sax.Attributes;
+import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.AttributesImpl;
+
+import ca.mcgill.music.ddmal.mei.MeiSchema.ErrorCollector;
 
 /**
  * A Factory for loading MEI files into an MeiDocument/MeiElement structure.
  * Use the {@link #loadFile(File)} or {@link #loadFile(String)} methods
  * to import a document.
+ *
+ * The tree is built from SAX events as the file is parsed, so subtrees
+ * that {@link MeiReaderOptions} excludes are never made into elements.
+ * A single element, such as a measure sent by an editor, can be read with
+ * {@link #parseFragment(String)}.
+ *
+ * The reader never fetches a DTD or external entity over the network. They
+ * are only read from local copies given with
+ * {@link MeiReaderOptions#addCatalogEntry(String, URL)}.
  */
 public class MeiXmlReader {
 
     private static String XML_ID_ATTRIBUTE = "xml:id";
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+    private static final String LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+    private static final String EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
+    private static final String EXTERNAL_PARAMETER_ENTITIES = "http://xml.org/sax/features/external-parameter-entities";
+    private static final String DISALLOW_DOCTYPE = "http://apache.org/xml/features/disallow-doctype-decl";
+
+    /** A parser for each thread, for reading without a schema. */
+    private static final ThreadLocal<XMLReader> PARSERS = new ThreadLocal<XMLReader>();
+    private static final DefaultHandler2 NO_HANDLER = new DefaultHandler2();
+
+    private final MeiReaderOptions options;
+    /** True if elements without a namespace are put in the MEI namespace. */
+    private final boolean fragment;
+    /** Measures this read, or null if nothing is listening. */
+    private final MeiProbe probe;
+    private MeiElement root;
+    /** Counts of what was read, collected as the tree is built. */
+    private final MeiDocumentStats stats = new MeiDocumentStats();
+    /** Takes subtrees out of the tree as they are read, or null. */
+    private final SubtreeHandler subtrees;
 
-    private DocumentBuilderFactory builderFactory;
-    private DocumentBuilder documentBuilder;
-    private Document document;
+    /**
+     * Is given subtrees as soon as they are read, instead of them being
+     * added to the tree.
+     */
+    /* package */ interface SubtreeHandler {
+        /**
+         * Check if an element is the root of a subtree to hand over.
+         * Elements inside a subtree are not checked.
+         * @param path
+         *          the names of the element's ancestors, from the root, and
+         *          the element itself
+         */
+        boolean isSubtree(List<String> path);
+
+        /**
+         * Take a subtree that has been read. It has no parent, and the text
+         * after it is not kept.
+         */
+        void subtree(MeiElement element);
+    }
 
     public static class MeiXmlReadException extends RuntimeException {
         private static final long serialVersionUID = -245505340878969726L;
@@ -69,12 +122,71 @@ public class MeiXmlReader {
         }
     }
 
-    private MeiXmlReader(Reader reader) {
+    /**
+     * Read a document or fragment.
+     * @param size
+     *          the size of the input, or -1 to count the bytes of a stream
+     */
+    private MeiXmlReader(InputSource source, long size, MeiReaderOptions options, boolean fragment,
+            SubtreeHandler subtrees) {
+        this.options = options;
+        this.fragment = fragment;
+        this.subtrees = subtrees;
+        this.probe = MeiProbe.start(MeiMetrics.Operation.READ);
+        CountingInputStream counter = null;
+        if (probe != null && size < 0 && source.getByteStream() != null) {
+            counter = new CountingInputStream(source.getByteStream());
+            source.setByteStream(counter);
+        }
+        parse(source, options, new TreeBuilder());
+        if (probe != null) {
+            probe.setBytes(counter == null ? size : counter.getByteCount());
+            probe.finish();
+        }
+    }
+
+    /**
+     * Parse a document, sending its events to a handler. With a schema in
+     * the options, the document is validated as it is parsed.
+     */
+    /* package */ static void parse(InputSource source, MeiReaderOptions options, DefaultHandler2 handler) {
         try {
-            builderFactory = DocumentBuilderFactory.newInstance();
-            builderFactory.setNamespaceAware(true);
-            documentBuilder = builderFactory.newDocumentBuilder();
-            document = documentBuilder.parse(new InputSource(reader));
+            ErrorCollector errors = null;
+            XMLReader xmlReader;
+            if (options.getSchema() != null) {
+                // Validate while parsing, instead of in a second pass
+                xmlReader = newXmlReader(options.getSchema());
+                errors = new ErrorCollector();
+                xmlReader.setErrorHandler(errors);
+            } else {
+                xmlReader = PARSERS.get();
+                if (xmlReader == null) {
+                    xmlReader = newXmlReader(null);
+                    // Report errors only by throwing them
+                    xmlReader.setErrorHandler(NO_HANDLER);
+                    PARSERS.set(xmlReader);
+                }
+            }
+            // External DTDs and entities are only read from the catalog
+            boolean external = !options.getCatalog().isEmpty();
+            xmlReader.setFeature(LOAD_EXTERNAL_DTD, external);
+            xmlReader.setFeature(EXTERNAL_GENERAL_ENTITIES, external);
+            xmlReader.setFeature(EXTERNAL_PARAMETER_ENTITIES, external);
+            xmlReader.setFeature(DISALLOW_DOCTYPE, options.isRejectDoctype());
+            xmlReader.setEntityResolver(new LocalEntityResolver(options.getCatalog()));
+            xmlReader.setContentHandler(handler);
+            xmlReader.setProperty(LEXICAL_HANDLER, handler);
+            try {
+                xmlReader.parse(source);
+            } finally {
+                // Don't keep the tree alive from the pooled parser
+                xmlReader.setContentHandler(NO_HANDLER);
+                xmlReader.setProperty(LEXICAL_HANDLER, NO_HANDLER);
+                xmlReader.setEntityResolver(NO_HANDLER);
+            }
+            if (errors != null) {
+                errors.check();
+            }
         } catch (ParserConfigurationException e) {
             throw new MeiXmlReadException(e);
         } catch (SAXException e) {
@@ -84,81 +196,416 @@ public class MeiXmlReader {
         }
     }
 
-    private MeiXmlReader(String contents) {
-        this(new StringReader(contents));
+    /**
+     * Make a reader that is given its events by the caller, through the
+     * handler from {@link #newHandler()}.
+     */
+    /* package */ MeiXmlReader(MeiReaderOptions options) {
+        this.options = options;
+        this.fragment = false;
+        this.subtrees = null;
+        this.probe = null;
+    }
+
+    private MeiXmlReader(String contents, MeiReaderOptions options) {
+        this(new InputSource(new StringReader(contents)), contents.length(), options, false, null);
     }
 
-    private MeiXmlReader(File file) throws FileNotFoundException {
-        this(new FileReader(file));
+    private MeiXmlReader(File file, MeiReaderOptions options) throws FileNotFoundException {
+        // The parser finds the encoding from the XML declaration
+        this(new InputSource(new FileInputStream(file)), file.length(), options, false, null);
     }
 
-    // <foo><!--comment-->bar</foo> will put the text as a tail of the comment
-    // this isn't very nice. Do we have getText too, that gets all text of foo?
-    private MeiElement makeMeiElement(Node element) {
-        // TODO: CDATA
-        // Comments get a name #comment
-        String nshref = element.getNamespaceURI();
-        String nsprefix = element.getPrefix();
-        MeiNamespace elns = new MeiNamespace(nshref, nsprefix);
-        MeiElement e = new MeiElement(elns, element.getNodeName());
-        if (element.getNodeType() == Node.COMMENT_NODE) {
-            e.setValue(element.getNodeValue());
+    /**
+     * Make a parser that reports xmlns declarations as attributes, in
+     * their own namespace. Secure processing limits the size of entity
+     * expansions, and DTD validation and XInclude are turned off.
+     * @param schema
+     *          a schema to validate against, or null
+     */
+    private static XMLReader newXmlReader(MeiSchema schema) throws ParserConfigurationException, SAXException {
+        SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+        parserFactory.setNamespaceAware(true);
+        parserFactory.setValidating(false);
+        parserFactory.setXIncludeAware(false);
+        parserFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        parserFactory.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+        parserFactory.setFeature("http://xml.org/sax/features/xmlns-uris", true);
+        if (schema != null) {
+            parserFactory.setSchema(schema.getSchema());
         }
+        return parserFactory.newSAXParser().getXMLReader();
+    }
 
-        NamedNodeMap attributes = element.getAttributes();
-        if (attributes != null) {
-            for (int i = 0; i < attributes.getLength(); i++) {
-                Node item = attributes.item(i);
-                if (XML_ID_ATTRIBUTE.equals(item.getNodeName())) {
-                    e.setId(item.getNodeValue());
-                } else {
-                    String attrns = item.getNamespaceURI();
-                    String attrpre = item.getPrefix();
-                    MeiNamespace atns = new MeiNamespace(attrns, attrpre);
-                    MeiAttribute a = new MeiAttribute(atns, item.getNodeName(), item.getNodeValue());
-                    e.addAttribute(a);
-                }
+    /**
+     * Reads external DTDs and entities from local copies. Anything that
+     * isn't in the catalog is read as empty, so the parser never opens a
+     * network connection.
+     */
+    private static class LocalEntityResolver implements EntityResolver {
+        private final Map<String, URL> catalog;
+
+        LocalEntityResolver(Map<String, URL> catalog) {
+            this.catalog = catalog;
+        }
+
+        public InputSource resolveEntity(String publicId, String systemId) throws IOException {
+            URL local = publicId == null ? null : catalog.get(publicId);
+            if (local == null && systemId != null) {
+                local = catalog.get(systemId);
             }
+            if (local == null) {
+                return new InputSource(new StringReader(""));
+            }
+            InputSource ret = new InputSource(local.openStream());
+            ret.setPublicId(publicId);
+            ret.setSystemId(local.toExternalForm());
+            return ret;
         }
+    }
 
-        NodeList childNodes = element.getChildNodes();
-        MeiElement lastElement = null;
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node item = childNodes.item(i);
-            if (item.getNodeType() == Node.TEXT_NODE) {
-                if (lastElement == null) {
-                    e.setValue(item.getNodeValue());
-                } else {
-                    lastElement.setTail(item.getNodeValue());
-                }
+    /**
+     * An element that is being read.
+     */
+    private static class OpenElement {
+        /**
+         * The element, or null if it isn't included and nothing inside it
+         * has been kept yet.
+         */
+        private MeiElement element;
+        /** False if the element is only kept if something inside it is. */
+        private final boolean included;
+        /** The last child element or comment, which text is the tail of. */
+        private MeiElement lastElement;
+        /** True if the last child was handed over, so text after it is dropped. */
+        private boolean handedOver;
+        /** What to make the element from, until it is made. */
+        private String uri;
+        private String qName;
+        private Attributes atts;
+
+        OpenElement(MeiElement element, boolean included) {
+            this.element = element;
+            this.included = included;
+        }
+
+        OpenElement(String uri, String qName, Attributes atts) {
+            this.included = false;
+            this.uri = uri;
+            this.qName = qName;
+            // The parser reuses its attributes
+            this.atts = new AttributesImpl(atts);
+        }
+    }
+
+    /**
+     * Get a handler that builds the tree of this reader from SAX events.
+     */
+    /* package */ DefaultHandler2 newHandler() {
+        return new TreeBuilder();
+    }
+
+    /**
+     * Builds the tree of MeiElements from the events of the parser.
+     */
+    private class TreeBuilder extends DefaultHandler2 {
+        private final List<OpenElement> open = new ArrayList<OpenElement>();
+        /** Names of the open elements, including skipped ones. */
+        private final List<String> path = new ArrayList<String>();
+        /** Depth inside an excluded subtree, or 0 if not in one. */
+        private int skipped;
+        /** The number of elements kept. */
+        private int elements;
+        /** Depth inside a subtree that will be handed over, or 0 if not in one. */
+        private int inSubtree;
+        /** Text read since the last element, comment or CDATA boundary. */
+        private final StringBuilder chars = new StringBuilder();
+        private MeiText text;
+        private boolean inCData;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            if (probe == null) {
+                openElement(uri, qName, atts);
+            } else {
+                probe.startBuild();
+                openElement(uri, qName, atts);
+                probe.endBuild();
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (probe == null) {
+                closeElement();
             } else {
-                MeiElement child = makeMeiElement(item);
-                e.addChild(child);
-                lastElement = child;
+                probe.startBuild();
+                closeElement();
+                probe.endBuild();
+            }
+        }
+
+        private void openElement(String uri, String qName, Attributes atts) {
+            if (options.getMaxDepth() > 0 && path.size() + skipped >= options.getMaxDepth()) {
+                throw new MeiXmlReadException("Elements are nested more than " + options.getMaxDepth() + " deep");
+            }
+            if (skipped > 0) {
+                skipped++;
+                return;
+            }
+            path.add(qName);
+            if (!open.isEmpty() && options.isExcluded(path)) {
+                // Text after the subtree continues the text before it
+                path.remove(path.size() - 1);
+                skipped = 1;
+                return;
+            }
+            OpenElement parent = current();
+            boolean included = (parent == null ? !options.hasIncludes() : parent.included)
+                    || options.isIncluded(path);
+            if (!included && parent != null && !options.mayIncludeInside(path)) {
+                // Nothing inside can be included, so it is skipped like an
+                // excluded element
+                path.remove(path.size() - 1);
+                skipped = 1;
+                return;
+            }
+            flushText();
+            if (included || parent == null) {
+                open.add(new OpenElement(newElement(uri, qName, atts), included));
+            } else {
+                // Only made if something inside it is kept
+                open.add(new OpenElement(uri, qName, atts));
+            }
+            if (inSubtree > 0) {
+                inSubtree++;
+            } else if (subtrees != null && parent != null && included && subtrees.isSubtree(path)) {
+                inSubtree = 1;
+            }
+        }
+
+        private void closeElement() {
+            if (skipped > 0) {
+                skipped--;
+                return;
+            }
+            flushText();
+            boolean handOver = inSubtree == 1;
+            boolean inside = inSubtree > 0;
+            if (inSubtree > 0) {
+                inSubtree--;
+            }
+            OpenElement closed = open.remove(open.size() - 1);
+            path.remove(path.size() - 1);
+            OpenElement parent = current();
+            if (parent == null) {
+                root = closed.element;
+                stats.element(closed.element, 1, 1);
+            } else if (handOver) {
+                parent.handedOver = true;
+                subtrees.subtree(closed.element);
+                return;
+            } else if (subtrees != null && !inside) {
+                // Only the open elements are kept around the subtrees
+                parent.handedOver = true;
+                return;
+            } else if (closed.element != null) {
+                // An element outside the included subtrees is only made
+                // when something inside it is kept
+                element(parent).addChild(closed.element);
+                parent.lastElement = closed.element;
+                parent.handedOver = false;
+                stats.element(closed.element, open.size() + 1, 1);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (skipped == 0 && !open.isEmpty() && current().included) {
+                chars.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void startCDATA() {
+            flushChars();
+            inCData = true;
+        }
+
+        @Override
+        public void endCDATA() {
+            if (skipped == 0 && !open.isEmpty() && current().included) {
+                text = appendText(text, chars.toString(), true);
+            }
+            chars.setLength(0);
+            inCData = false;
+        }
+
+        @Override
+        public void comment(char[] ch, int start, int length) {
+            // Comments outside the root element are not kept
+            if (skipped > 0 || open.isEmpty() || !current().included) {
+                return;
+            }
+            if (subtrees != null && inSubtree == 0) {
+                return;
+            }
+            flushText();
+            if (probe != null) {
+                probe.element(0);
+            }
+            MeiElement e = new MeiElement(new MeiNamespace(null, null), "#comment");
+            e.setValue(new String(ch, start, length));
+            stats.element(e, open.size() + 1, 1);
+            stats.text(e.getValueText(), 1);
+            OpenElement parent = current();
+            parent.element.addChild(e);
+            parent.lastElement = e;
+            parent.handedOver = false;
+        }
+
+        private OpenElement current() {
+            return open.isEmpty() ? null : open.get(open.size() - 1);
+        }
+
+        /**
+         * Get the element of an open element, making it if it was put off.
+         */
+        private MeiElement element(OpenElement o) {
+            if (o.element == null) {
+                o.element = newElement(o.uri, o.qName, o.atts);
+                o.uri = null;
+                o.qName = null;
+                o.atts = null;
+            }
+            return o.element;
+        }
+
+        /**
+         * Make an element that is kept, counting it against the limit.
+         */
+        private MeiElement newElement(String uri, String qName, Attributes atts) {
+            if (options.getMaxElements() > 0 && ++elements > options.getMaxElements()) {
+                throw new MeiXmlReadException("Document has more than " + options.getMaxElements() + " elements");
+            }
+            return makeMeiElement(uri, qName, atts);
+        }
+
+        private void flushChars() {
+            if (chars.length() > 0) {
+                text = appendText(text, chars.toString(), inCData);
+                chars.setLength(0);
+            }
+        }
+
+        /**
+         * Give the text read since the last child to the current element.
+         */
+        private void flushText() {
+            flushChars();
+            OpenElement parent = current();
+            if (parent != null && !parent.handedOver) {
+                setText(parent.element, parent.lastElement, text);
+            }
+            text = null;
+        }
+    }
+
+    private MeiElement makeMeiElement(String uri, String qName, Attributes atts) {
+        MeiElement e = makeElement(uri, qName, atts, fragment);
+        if (options.getAttributeTable() != null) {
+            options.getAttributeTable().share(e);
+        }
+        if (probe != null) {
+            probe.element(e.attributeList().size());
+        }
+        return e;
+    }
+
+    /**
+     * Make an element, without children, from a SAX start element event.
+     * @param fragment
+     *          true to put an element without a namespace in the MEI one
+     */
+    /* package */ static MeiElement makeElement(String uri, String qName, Attributes atts, boolean fragment) {
+        String nshref = uri.length() == 0 ? null : uri;
+        MeiNamespace elns = new MeiNamespace(nshref, prefix(qName));
+        if (nshref == null && fragment) {
+            elns = MeiElement.DEFAULT_NAMESPACE;
+        }
+        MeiElement e = new MeiElement(elns, qName);
+
+        for (int i = 0; i < atts.getLength(); i++) {
+            String attrName = atts.getQName(i);
+            if (XML_ID_ATTRIBUTE.equals(attrName)) {
+                e.setId(atts.getValue(i));
+            } else {
+                String attrns = atts.getURI(i);
+                MeiNamespace atns = new MeiNamespace(attrns.length() == 0 ? null : attrns, prefix(attrName));
+                String name = MeiAttributeName.canonical(attrName);
+                e.addAttribute(new MeiAttribute(atns, name, atts.getValue(i)));
             }
         }
         return e;
     }
 
+    private static String prefix(String qName) {
+        int colon = qName.indexOf(':');
+        return colon > 0 ? qName.substring(0, colon) : null;
+    }
+
+    /* package */ static MeiText appendText(MeiText text, String value, boolean cdata) {
+        if (text == null) {
+            return cdata ? MeiText.cdata(value) : MeiText.of(value);
+        }
+        return cdata ? text.appendCData(value) : text.append(value);
+    }
+
+    /**
+     * Set text as the value of an element if it comes before all of the
+     * element's children, and otherwise as the tail of the child before it.
+     */
+    private void setText(MeiElement e, MeiElement lastElement, MeiText text) {
+        if (text == null) {
+            return;
+        }
+        if (options.getWhitespace() != MeiReaderOptions.Whitespace.KEEP && text.isFormatting()) {
+            if (options.getWhitespace() == MeiReaderOptions.Whitespace.DISCARD) {
+                return;
+            }
+            text = MeiText.WHITESPACE;
+        }
+        if (lastElement == null) {
+            e.setValueText(text);
+        } else {
+            lastElement.setTailText(text);
+        }
+        stats.text(text, 1);
+    }
+
     /**
-     * Create an MeiDocument and populate it with the XML DOM.
+     * Check the root element that was read, and make a document of it.
      */
-    private MeiDocument readDocument() {
-        Element element = document.getDocumentElement();
-        MeiElement root = makeMeiElement(element);
+    /* package */ MeiDocument readDocument() {
         if (!root.getNamespace().equals(MeiElement.DEFAULT_NAMESPACE)) {
             throw new MeiXmlReadException("Missing namespace");
         }
-        if (!root.getName().equals("mei") && !root.getName().equals("meiCorpus")) {
+        if (root.getTag() != MeiTag.MEI && root.getTag() != MeiTag.MEI_CORPUS) {
             throw new MeiXmlReadException("Document must be <mei> or <meiCorups>");
         }
-        String ver = root.getAttribute("meiversion");
+        String ver = root.getAttribute(MeiAttributeName.MEIVERSION);
         if (ver == null || !(ver.equals(MeiDocument.MEI_VERSION) || ver.equals("2011-05"))) {
             throw new MeiXmlReadException("Missing or invalid meiversion attribute");
         }
 
         MeiDocument ret = new MeiDocument();
         ret.setRootElement(root);
+        ret.setStats(stats);
         return ret;
     }
 
@@ -170,8 +617,21 @@ public class MeiXmlReader {
      *             an {@link MeiDocument} representing the MEI file.
      */
     public static MeiDocument loadFile(File file) {
+        return loadFile(file, new MeiReaderOptions());
+    }
+
+    /**
+     * Load an MEI file.
+     * @param file
+     *             The MEI file to load
+     * @param options
+     *             settings for loading the file
+     * @return
+     *             an {@link MeiDocument} representing the MEI file.
+     */
+    public static MeiDocument loadFile(File file, MeiReaderOptions options) {
         try {
-            MeiXmlReader loader = new MeiXmlReader(file);
+            MeiXmlReader loader = new MeiXmlReader(file, options);
             return loader.readDocument();
         } catch (FileNotFoundException e) {
             throw new MeiXmlReadException();
@@ -186,9 +646,22 @@ public class MeiXmlReader {
      *             an {@link MeiDocument} representing the MEI file.
      */
     public static MeiDocument loadFile(String filename) {
+        return loadFile(filename, new MeiReaderOptions());
+    }
+
+    /**
+     * Load an MEI file.
+     * @param filename
+     *             A path to an MEI file to load
+     * @param options
+     *             settings for loading the file
+     * @return
+     *             an {@link MeiDocument} representing the MEI file.
+     */
+    public static MeiDocument loadFile(String filename, MeiReaderOptions options) {
         try {
             File fp = FileUtils.getFile(filename);
-            MeiXmlReader loader = new MeiXmlReader(fp);
+            MeiXmlReader loader = new MeiXmlReader(fp, options);
             return loader.readDocument();
         } catch (FileNotFoundException e) {
             throw new MeiXmlReadException("Cannot find file " + filename);
@@ -203,7 +676,74 @@ public class MeiXmlReader {
      *             an {@link MeiDocument} representing the MEI file.
      */
     public static MeiDocument loadDocument(String contents) {
-        MeiXmlReader loader = new MeiXmlReader(contents);
+        return loadDocument(contents, new MeiReaderOptions());
+    }
+
+    /**
+     * Load an MEI document.
+     * @param contents
+     *             The MEI file to load
+     * @param options
+     *             settings for loading the document
+     * @return
+     *             an {@link MeiDocument} representing the MEI file.
+     */
+    public static MeiDocument loadDocument(String contents, MeiReaderOptions options) {
+        MeiXmlReader loader = new MeiXmlReader(contents, options);
         return loader.readDocument();
     }
+
+    /**
+     * Read an element that isn't a whole document, e.g. a single
+     * &lt;measure>. Unlike {@link #loadDocument(String)} the element can
+     * have any name and no meiversion. Elements without a namespace are put
+     * in the MEI namespace, so the xmlns declaration can be left out.
+     * The parser is kept for the next call on the same thread.
+     * @param contents
+     *             the XML of the element
+     * @return
+     *             the element, which has no parent or document
+     */
+    public static MeiElement parseFragment(String contents) {
+        return parseFragment(contents, new MeiReaderOptions());
+    }
+
+    /**
+     * Read a document, handing over the subtrees that the handler picks as
+     * soon as each one is read. Elements and comments outside the subtrees
+     * are dropped once they are closed, so only the open elements are held.
+     * The root element is not checked.
+     * @return
+     *          the root element, without any children that were closed
+     *          outside a subtree
+     */
+    /* package */ static MeiElement readSubtrees(InputSource source, MeiReaderOptions options, SubtreeHandler handler) {
+        return new MeiXmlReader(source, -1, options, false, handler).root;
+    }
+
+    /**
+     * Read an element that isn't a whole document.
+     * @see #parseFragment(String)
+     */
+    public static MeiElement parseFragment(String contents, MeiReaderOptions options) {
+        return new MeiXmlReader(new InputSource(new StringReader(contents)), contents.length(), options, true, null).root;
+    }
+
+    /**
+     * Read an element that isn't a whole document from a stream. The
+     * encoding is found from the XML declaration, if there is one, and is
+     * UTF-8 otherwise.
+     * @see #parseFragment(String)
+     */
+    public static MeiElement parseFragment(InputStream stream) {
+        return parseFragment(stream, new MeiReaderOptions());
+    }
+
+    /**
+     * Read an element that isn't a whole document from a stream.
+     * @see #parseFragment(InputStream)
+     */
+    public static MeiElement parseFragment(InputStream stream, MeiReaderOptions options) {
+        return new MeiXmlReader(new InputSource(stream), -1, options, true, null).root;
+    }
 }
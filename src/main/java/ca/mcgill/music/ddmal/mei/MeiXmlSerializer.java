@@ -0,0 +1,877 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import ca.mcgill.music.ddmal.mei.MeiXmlWriter.MeiXmlWriteException;
+
+/**
+ * Writes MEI elements as UTF-8 encoded XML to a stream, one event at a time.
+ * Output is indented by 4 spaces per level, except where an element
+ * contains text, since the indentation would change its content.
+ * Namespaces used by attributes and prefixed elements are declared once,
+ * on the first element, with the prefix they were registered with.
+ *
+ * In canonical mode the same tree is always written as the same bytes:
+ * there is no XML declaration or indentation, all namespaces are declared
+ * on the first element with prefixes ns0, ns1, ... in order of their URI,
+ * attributes are sorted by namespace and name, CDATA sections are written
+ * as text, and text that only formats the document is left out. Ids that
+ * were made up for elements (see {@link MeiElement#hasGeneratedId()}) are
+ * not written.
+ *
+ * Written bytes are buffered. While a hold is in place (see {@link #hold()})
+ * nothing is written to the stream, so the bytes of an element can be
+ * copied out with {@link #copyFrom(int)}.
+ */
+/* package */ class MeiXmlSerializer {
+
+    /** The namespace of xmlns declarations. */
+    /* package */ static final String XMLNS_HREF = "http://www.w3.org/2000/xmlns/";
+    /** The namespace of the xml: prefix. */
+    private static final String XML_HREF = "http://www.w3.org/XML/1998/namespace";
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+    private static final int INDENT = 4;
+    private static final int FLUSH_SIZE = 8192;
+
+    private final OutputStream os;
+    private final boolean canonical;
+    /** False to write no indentation, so the text read back is the same. */
+    private boolean indenting;
+    private byte[] buf = new byte[FLUSH_SIZE * 2];
+    private int count;
+    private int holds;
+    /** Bytes written to the stream. */
+    private long written;
+
+    /** Number of open elements. */
+    private int depth;
+    /** True if the last start tag is waiting for '>' or '/>'. */
+    private boolean startTagOpen;
+    /** True if text was the last thing written. */
+    private boolean lastWasText;
+    /** For each open element, if it has child elements. */
+    private boolean[] hasChildren = new boolean[32];
+    /** The position of the '<' of the last start tag. */
+    private int elementStart;
+    /** False when writing a fragment, which starts without a new line. */
+    private boolean headerWritten;
+
+    /** Prefixes and hrefs of namespaces declared on the open elements. */
+    private final List<String> prefixes = new ArrayList<String>();
+    private final List<String> hrefs = new ArrayList<String>();
+    /** For each open element, the number of namespace bindings before it. */
+    private int[] scopeSizes = new int[32];
+    /** The namespaces used in the document, if they were found before writing. */
+    private Map<String, String> namespaces;
+
+    /**
+     * Make a serializer.
+     * @param os
+     *          the stream to write to
+     */
+    /* package */ MeiXmlSerializer(OutputStream os) {
+        this(os, false);
+    }
+
+    /**
+     * Make a serializer.
+     * @param os
+     *          the stream to write to
+     * @param canonical
+     *          true to write in canonical mode
+     */
+    /* package */ MeiXmlSerializer(OutputStream os, boolean canonical) {
+        this.os = os;
+        this.canonical = canonical;
+        this.indenting = !canonical;
+    }
+
+    /**
+     * Turn indentation off, so that reading the output gives back exactly
+     * the text of the elements, and no more.
+     */
+    /* package */ void setIndenting(boolean indenting) {
+        this.indenting = indenting && !canonical;
+    }
+
+    /**
+     * Give the namespaces that need a prefix in the element that will be
+     * written first, as found by {@link #addPrefixedNamespaces(MeiElement, Map)},
+     * so that its subtree isn't searched for them again.
+     */
+    /* package */ void setNamespaces(Map<String, String> namespaces) {
+        this.namespaces = namespaces;
+    }
+
+    /* package */ void startDocument() throws IOException {
+        if (!canonical) {
+            writeAscii(HEADER);
+            headerWritten = true;
+        }
+    }
+
+    /**
+     * Finish the document and flush all output to the stream.
+     */
+    /* package */ void endDocument() throws IOException {
+        if (!canonical) {
+            write('\n');
+        }
+        flush();
+    }
+
+    /**
+     * Write the start tag of an element, with its attributes and xml:id.
+     * The children and text of the element are not written.
+     */
+    /* package */ void startElement(MeiElement e) throws IOException {
+        prepareChild();
+        elementStart = count;
+        if (depth + 1 >= hasChildren.length) {
+            hasChildren = copyOf(hasChildren, hasChildren.length * 2);
+            int[] sizes = new int[scopeSizes.length * 2];
+            System.arraycopy(scopeSizes, 0, sizes, 0, scopeSizes.length);
+            scopeSizes = sizes;
+        }
+        scopeSizes[depth] = prefixes.size();
+        if (canonical) {
+            startCanonicalElement(e);
+            return;
+        }
+        write('<');
+        writeString(e.getName(), false);
+
+        // Declarations made with attributes apply to the element itself.
+        // Those that repeat a binding already in scope are left out.
+        boolean defaultDeclared = false;
+        List<MeiAttribute> redundant = null;
+        for (MeiAttribute attr : e.attributeList()) {
+            String name = attr.getName();
+            if (isDeclaration(attr)) {
+                String prefix = name.equals("xmlns") ? null : name.substring(6);
+                if (depth > 0 && attr.getValue() != null && attr.getValue().equals(lookupHref(prefix))) {
+                    if (redundant == null) {
+                        redundant = new ArrayList<MeiAttribute>();
+                    }
+                    redundant.add(attr);
+                    continue;
+                }
+                if (prefix == null) {
+                    defaultDeclared = true;
+                }
+                bind(prefix, attr.getValue());
+            }
+        }
+        List<String> hoisted = null;
+        if (depth == 0) {
+            hoisted = hoistNamespaces(e);
+        }
+
+        String elHref = e.getNamespace() == null ? null : e.getNamespace().getHref();
+        int colon = e.getName().indexOf(':');
+        if (colon > 0) {
+            String prefix = e.getName().substring(0, colon);
+            if (elHref != null && !elHref.equals(lookupHref(prefix))) {
+                declare(prefix, elHref);
+            }
+        }
+
+        for (MeiAttribute attr : e.attributeList()) {
+            String href = attr.getNamespace() == null ? null : attr.getNamespace().getHref();
+            String name = attr.getName();
+            if (isDeclaration(attr)) {
+                if (redundant == null || !containsSame(redundant, attr)) {
+                    writeAttribute(name, attr.getValue());
+                }
+                continue;
+            }
+            if (href == null) {
+                writeAttribute(name, attr.getValue());
+                continue;
+            }
+            int c = name.indexOf(':');
+            String prefix = c > 0 ? name.substring(0, c) : null;
+            String local = c > 0 ? name.substring(c + 1) : name;
+            if ("xml".equals(prefix)) {
+                writeAttribute(name, attr.getValue());
+                continue;
+            }
+            if (prefix == null) {
+                prefix = attr.getNamespace().getPrefix();
+                if (prefix == null || !href.equals(lookupHref(prefix))) {
+                    prefix = lookupPrefix(href);
+                }
+                if (prefix == null) {
+                    prefix = generatePrefix();
+                    declare(prefix, href);
+                }
+            } else if (!href.equals(lookupHref(prefix))) {
+                declare(prefix, href);
+            }
+            writeAttribute(prefix + ":" + local, attr.getValue());
+        }
+
+        if (e.getId() != null) {
+            writeAttribute("xml:id", e.getId());
+        }
+        if (colon < 0 && !defaultDeclared) {
+            String current = lookupHref(null);
+            if (elHref == null ? current != null : !elHref.equals(current)) {
+                declare(null, elHref == null ? "" : elHref);
+            }
+        }
+        if (hoisted != null) {
+            for (String prefix : hoisted) {
+                writeAttribute("xmlns:" + prefix, lookupHref(prefix));
+            }
+        }
+
+        openElement();
+    }
+
+    /**
+     * Bind a prefix on the first element for each namespace used by
+     * attributes or prefixed elements in its subtree, so that it is declared
+     * once instead of on every element that uses it. The prefix the
+     * namespace was registered with is used if it is free.
+     * @return
+     *          the prefixes that were bound, whose declarations still have
+     *          to be written
+     */
+    private List<String> hoistNamespaces(MeiElement root) {
+        Map<String, String> used = namespaces;
+        if (used == null) {
+            used = new LinkedHashMap<String, String>();
+            addPrefixedNamespaces(root, used);
+        }
+        List<String> ret = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : used.entrySet()) {
+            String href = entry.getKey();
+            if (lookupPrefix(href) != null) {
+                // Declared by an attribute of the element
+                continue;
+            }
+            String prefix = entry.getValue();
+            if (prefix == null || prefix.equals("xml") || prefix.startsWith("xmlns")
+                    || lookupHref(prefix) != null) {
+                prefix = generatePrefix();
+            }
+            bind(prefix, href);
+            ret.add(prefix);
+        }
+        return ret;
+    }
+
+    /**
+     * Find the namespaces that need a prefix in a subtree, in the order they
+     * are first used, with the prefix each was given. Namespaces already in
+     * the map keep their place.
+     */
+    /* package */ static void addPrefixedNamespaces(MeiElement root, Map<String, String> used) {
+        // An explicit stack, so that deep trees don't overflow the call stack
+        Deque<MeiElement> stack = new ArrayDeque<MeiElement>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            MeiElement e = stack.pop();
+            String elHref = href(e.getNamespace());
+            int colon = e.getName().indexOf(':');
+            if (elHref != null && colon > 0 && !used.containsKey(elHref)) {
+                used.put(elHref, e.getName().substring(0, colon));
+            }
+            for (MeiAttribute attr : e.attributeList()) {
+                addPrefixedNamespace(attr, used);
+            }
+            List<MeiElement> children = e.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+    }
+
+    /**
+     * Add the namespace of an attribute, if it needs a prefix.
+     */
+    /* package */ static void addPrefixedNamespace(MeiAttribute attr, Map<String, String> used) {
+        String href = href(attr.getNamespace());
+        String name = attr.getName();
+        if (href == null || href.equals(XMLNS_HREF) || href.equals(XML_HREF)
+                || name.startsWith("xml:") || name.startsWith("xmlns")) {
+            return;
+        }
+        if (!used.containsKey(href) || used.get(href) == null) {
+            int c = name.indexOf(':');
+            used.put(href, c > 0 ? name.substring(0, c) : attr.getNamespace().getPrefix());
+        }
+    }
+
+    /**
+     * Check if a subtree uses a namespace that needs a prefix.
+     */
+    /* package */ static boolean usesPrefixedNamespace(MeiElement root) {
+        Map<String, String> used = new LinkedHashMap<String, String>();
+        addPrefixedNamespaces(root, used);
+        return !used.isEmpty();
+    }
+
+    private static boolean containsSame(List<MeiAttribute> attributes, MeiAttribute attr) {
+        for (MeiAttribute a : attributes) {
+            if (a == attr) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void openElement() {
+        startTagOpen = true;
+        lastWasText = false;
+        depth++;
+        hasChildren[depth] = false;
+    }
+
+    /**
+     * Write a start tag in canonical mode. The first element declares
+     * every namespace used in its subtree.
+     */
+    private void startCanonicalElement(MeiElement e) throws IOException {
+        List<String[]> declarations = new ArrayList<String[]>();
+        if (depth == 0) {
+            int n = 0;
+            for (String href : namespacesUsed(e)) {
+                String prefix = "ns" + n++;
+                bind(prefix, href);
+                declarations.add(new String[] {XMLNS_HREF, prefix, "xmlns:" + prefix, href});
+            }
+        }
+        String elHref = href(e.getNamespace());
+        String elName = localName(e.getName());
+        String current = lookupHref(null);
+        if (current == null) {
+            current = "";
+        }
+        if (!current.equals(elHref == null ? "" : elHref)) {
+            String prefix = elHref == null ? null : lookupPrefix(elHref);
+            if (prefix != null && depth > 0) {
+                elName = prefix + ":" + elName;
+            } else {
+                bind(null, elHref == null ? "" : elHref);
+                declarations.add(new String[] {XMLNS_HREF, "", "xmlns", elHref == null ? "" : elHref});
+            }
+        }
+        write('<');
+        writeString(elName, false);
+
+        // Sorted as in Canonical XML: declarations, then attributes by
+        // namespace URI and local name
+        List<String[]> attributes = new ArrayList<String[]>();
+        for (MeiAttribute attr : e.attributeList()) {
+            if (isDeclaration(attr)) {
+                continue;
+            }
+            String href = href(attr.getNamespace());
+            String name = attr.getName();
+            String local = localName(name);
+            if (name.startsWith("xml:")) {
+                attributes.add(new String[] {XML_HREF, local, name, attr.getValue()});
+            } else if (href == null) {
+                attributes.add(new String[] {"", name, name, attr.getValue()});
+            } else {
+                attributes.add(new String[] {href, local, lookupPrefix(href) + ":" + local, attr.getValue()});
+            }
+        }
+        if (e.getId() != null && !e.hasGeneratedId()) {
+            attributes.add(new String[] {XML_HREF, "id", "xml:id", e.getId()});
+        }
+        Comparator<String[]> order = new Comparator<String[]>() {
+            public int compare(String[] a, String[] b) {
+                int c = a[0].compareTo(b[0]);
+                return c != 0 ? c : a[1].compareTo(b[1]);
+            }
+        };
+        Collections.sort(declarations, order);
+        Collections.sort(attributes, order);
+        for (String[] d : declarations) {
+            writeAttribute(d[2], d[3]);
+        }
+        for (String[] a : attributes) {
+            writeAttribute(a[2], a[3]);
+        }
+        openElement();
+    }
+
+    /**
+     * Find the namespace URIs that need a prefix in a subtree: those of
+     * attributes, and those of elements other than the root's namespace.
+     */
+    private static Set<String> namespacesUsed(MeiElement root) {
+        Set<String> ret = new TreeSet<String>();
+        String rootHref = href(root.getNamespace());
+        Deque<MeiElement> stack = new ArrayDeque<MeiElement>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            MeiElement e = stack.pop();
+            String elHref = href(e.getNamespace());
+            if (elHref != null && !elHref.equals(rootHref)) {
+                ret.add(elHref);
+            }
+            for (MeiAttribute attr : e.attributeList()) {
+                String href = href(attr.getNamespace());
+                if (href != null && !href.equals(XMLNS_HREF) && !href.equals(XML_HREF)
+                        && !attr.getName().startsWith("xml:") && !attr.getName().startsWith("xmlns")) {
+                    ret.add(href);
+                }
+            }
+            for (MeiElement c : e.getChildren()) {
+                stack.push(c);
+            }
+        }
+        return ret;
+    }
+
+    private static String href(MeiNamespace ns) {
+        return ns == null ? null : ns.getHref();
+    }
+
+    private static String localName(String name) {
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    /**
+     * Write the end tag of an element.
+     */
+    /* package */ void endElement(MeiElement e) throws IOException {
+        if (startTagOpen) {
+            writeAscii("/>");
+            startTagOpen = false;
+        } else {
+            if (hasChildren[depth] && !lastWasText && indenting) {
+                indent(depth - 1);
+            }
+            writeAscii("</");
+            writeString(e.getName(), false);
+            write('>');
+        }
+        depth--;
+        int size = scopeSizes[depth];
+        while (prefixes.size() > size) {
+            prefixes.remove(prefixes.size() - 1);
+            hrefs.remove(hrefs.size() - 1);
+        }
+        lastWasText = false;
+    }
+
+    /**
+     * Write text inside the current element.
+     */
+    /* package */ void text(String text) throws IOException {
+        if (text == null || text.length() == 0) {
+            return;
+        }
+        if (startTagOpen) {
+            write('>');
+            startTagOpen = false;
+        }
+        writeString(text, false);
+        lastWasText = true;
+    }
+
+    /**
+     * Write each segment of some text inside the current element.
+     * {@link MeiText#WHITESPACE} is not written.
+     */
+    /* package */ void text(MeiText text) throws IOException {
+        if (text == null || text == MeiText.WHITESPACE) {
+            // Formatting is made again by indenting
+            return;
+        }
+        if (canonical) {
+            if (!text.isFormatting()) {
+                text(text.toString());
+            }
+            return;
+        }
+        for (MeiText.Segment segment : text.getSegments()) {
+            if (segment.isCData()) {
+                cdata(segment.getText());
+            } else {
+                text(segment.getText());
+            }
+        }
+    }
+
+    /**
+     * Write a CDATA section inside the current element. Any "]]>" in the
+     * text is split over two sections.
+     */
+    /* package */ void cdata(String text) throws IOException {
+        if (startTagOpen) {
+            write('>');
+            startTagOpen = false;
+        }
+        writeAscii("<![CDATA[");
+        int start = 0;
+        int end;
+        while ((end = text.indexOf("]]>", start)) >= 0) {
+            writeChars(text.substring(start, end + 2));
+            writeAscii("]]><![CDATA[");
+            start = end + 2;
+        }
+        writeChars(text.substring(start));
+        writeAscii("]]>");
+        lastWasText = true;
+    }
+
+    /* package */ void comment(String text) throws IOException {
+        prepareChild();
+        writeAscii("<!--");
+        if (text != null) {
+            // A comment can't contain "--" or end with '-', so a space is
+            // put after each '-' that is followed by another or is last
+            int start = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '-' && (i + 1 == text.length() || text.charAt(i + 1) == '-')) {
+                    writeChars(text.substring(start, i + 1));
+                    write(' ');
+                    start = i + 1;
+                }
+            }
+            writeChars(text.substring(start));
+        }
+        writeAscii("-->");
+        lastWasText = false;
+    }
+
+    /**
+     * Write the bytes of an element that was serialized before.
+     */
+    /* package */ void raw(byte[] element) throws IOException {
+        prepareChild();
+        ensureCapacity(element.length);
+        System.arraycopy(element, 0, buf, count, element.length);
+        count += element.length;
+        lastWasText = false;
+        maybeFlush();
+    }
+
+    /**
+     * Get the number of bytes written so far, including those not yet
+     * flushed to the stream.
+     */
+    /* package */ long getBytesWritten() {
+        return written + count;
+    }
+
+    /**
+     * Get the number of elements that are open.
+     */
+    /* package */ int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Get a description of the namespaces in scope. Elements written with
+     * the same scope and depth give the same bytes.
+     */
+    /* package */ String getScope() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < prefixes.size(); i++) {
+            sb.append(prefixes.get(i)).append('=').append(hrefs.get(i)).append(' ');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stop output from being written to the stream until {@link #release()}
+     * is called. Holds can be nested.
+     */
+    /* package */ void hold() {
+        holds++;
+    }
+
+    /* package */ void release() throws IOException {
+        holds--;
+        maybeFlush();
+    }
+
+    /**
+     * Get the position in the buffer of the start of the last start tag.
+     * Only valid while a hold is in place.
+     */
+    /* package */ int getElementStart() {
+        return elementStart;
+    }
+
+    /* package */ void setElementStart(int start) {
+        elementStart = start;
+    }
+
+    /**
+     * Copy everything written since a position in the buffer.
+     */
+    /* package */ byte[] copyFrom(int start) {
+        byte[] ret = new byte[count - start];
+        System.arraycopy(buf, start, ret, 0, ret.length);
+        return ret;
+    }
+
+    /* package */ void flush() throws IOException {
+        if (count > 0) {
+            os.write(buf, 0, count);
+            written += count;
+            count = 0;
+        }
+        os.flush();
+    }
+
+    /**
+     * Finish the current start tag and indent, ready for a child element.
+     */
+    private void prepareChild() throws IOException {
+        if (startTagOpen) {
+            write('>');
+            startTagOpen = false;
+        }
+        if (!lastWasText && indenting && (depth > 0 || headerWritten)) {
+            indent(depth);
+        }
+        hasChildren[depth] = true;
+    }
+
+    private void indent(int level) throws IOException {
+        ensureCapacity(1 + level * INDENT);
+        buf[count++] = '\n';
+        for (int i = 0; i < level * INDENT; i++) {
+            buf[count++] = ' ';
+        }
+    }
+
+    private boolean isDeclaration(MeiAttribute attr) {
+        String name = attr.getName();
+        return (attr.getNamespace() != null && XMLNS_HREF.equals(attr.getNamespace().getHref()))
+                || name.equals("xmlns") || name.startsWith("xmlns:");
+    }
+
+    private void bind(String prefix, String href) {
+        prefixes.add(prefix);
+        hrefs.add(href);
+    }
+
+    /**
+     * Bind a prefix (or the default namespace, if null) and write its declaration.
+     */
+    private void declare(String prefix, String href) throws IOException {
+        bind(prefix, href);
+        writeAttribute(prefix == null ? "xmlns" : "xmlns:" + prefix, href);
+    }
+
+    private String lookupHref(String prefix) {
+        for (int i = prefixes.size() - 1; i >= 0; i--) {
+            String p = prefixes.get(i);
+            if (prefix == null ? p == null : prefix.equals(p)) {
+                return hrefs.get(i);
+            }
+        }
+        return null;
+    }
+
+    private String lookupPrefix(String href) {
+        for (int i = prefixes.size() - 1; i >= 0; i--) {
+            String p = prefixes.get(i);
+            if (p != null && href.equals(hrefs.get(i)) && href.equals(lookupHref(p))) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make a prefix that isn't in use: ns0, ns1, ...
+     */
+    private String generatePrefix() {
+        for (int i = 0;; i++) {
+            String p = "ns" + i;
+            if (lookupHref(p) == null) {
+                return p;
+            }
+        }
+    }
+
+    private void writeAttribute(String name, String value) throws IOException {
+        write(' ');
+        writeString(name, false);
+        writeAscii("=\"");
+        if (value != null) {
+            writeString(value, true);
+        }
+        write('"');
+    }
+
+    private void writeAscii(String s) throws IOException {
+        ensureCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+        maybeFlush();
+    }
+
+    /**
+     * Write a string without escaping.
+     */
+    private void writeChars(String s) throws IOException {
+        ensureCapacity(s.length() * 3);
+        for (int i = 0; i < s.length(); i++) {
+            i = encode(s, i);
+        }
+        maybeFlush();
+    }
+
+    /**
+     * Write a string, escaping the characters that can't appear in text
+     * or in an attribute value.
+     */
+    private void writeString(String s, boolean attribute) throws IOException {
+        // The longest escape is 6 bytes ("&quot;")
+        ensureCapacity(s.length() * 6);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '&':
+                putAscii("&amp;");
+                break;
+            case '<':
+                putAscii("&lt;");
+                break;
+            case '>':
+                putAscii("&gt;");
+                break;
+            case '"':
+                if (attribute) {
+                    putAscii("&quot;");
+                } else {
+                    buf[count++] = '"';
+                }
+                break;
+            case '\n':
+                if (attribute) {
+                    putAscii("&#10;");
+                } else {
+                    buf[count++] = '\n';
+                }
+                break;
+            case '\r':
+                putAscii("&#13;");
+                break;
+            case '\t':
+                if (attribute) {
+                    putAscii("&#9;");
+                } else {
+                    buf[count++] = '\t';
+                }
+                break;
+            default:
+                i = encode(s, i);
+            }
+        }
+        maybeFlush();
+    }
+
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * UTF-8 encode the character at a position into the buffer.
+     * @return
+     *          the position of the last char used (surrogate pairs use two)
+     * @throws MeiXmlWriteException
+     *          if the character is half of a surrogate pair without the other half
+     */
+    private int encode(String s, int i) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            buf[count++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[count++] = (byte) (0xc0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            buf[count++] = (byte) (0xf0 | (cp >> 18));
+            buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            buf[count++] = (byte) (0x80 | (cp & 0x3f));
+            return i + 1;
+        } else if (Character.isSurrogate(c)) {
+            throw new MeiXmlWriteException("Unpaired surrogate U+"
+                    + Integer.toHexString(c).toUpperCase() + " can't be written as UTF-8");
+        } else {
+            buf[count++] = (byte) (0xe0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return i;
+    }
+
+    private void write(char c) throws IOException {
+        ensureCapacity(1);
+        buf[count++] = (byte) c;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buf.length) {
+            byte[] bigger = new byte[Math.max(buf.length * 2, count + extra)];
+            System.arraycopy(buf, 0, bigger, 0, count);
+            buf = bigger;
+        }
+    }
+
+    private void maybeFlush() throws IOException {
+        if (holds == 0 && count >= FLUSH_SIZE) {
+            os.write(buf, 0, count);
+            written += count;
+            count = 0;
+        }
+    }
+
+    private static boolean[] copyOf(boolean[] array, int length) {
+        boolean[] ret = new boolean[length];
+        System.arraycopy(array, 0, ret, 0, array.length);
+        return ret;
+    }
+}
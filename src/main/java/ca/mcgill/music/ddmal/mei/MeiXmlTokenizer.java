@@ -0,0 +1,624 @@
+/*
+    Copyright (c) 2011 Alastair Porter
+
+    Permission is hereby granted, free of charge, to any person obtaining
+    a copy of this software and associated documentation files (the
+    "Software"), to deal in the Software without restriction, including
+    without limitation the rights to use, copy, modify, merge, publish,
+    distribute, sublicense, and/or sell copies of the Software, and to
+    permit persons to whom the Software is furnished to do so, subject to
+    the following conditions:
+
+    The above copyright notice and this permission notice shall be
+    included in all copies or substantial portions of the Software.
+
+    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+    EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+    MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+    NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+    LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+    OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+    WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package ca.mcgill.music.ddmal.mei;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.AttributesImpl;
+
+import ca.mcgill.music.ddmal.mei.MeiXmlReader.MeiXmlReadException;
+
+/**
+ * A push tokenizer for UTF-8 XML. Bytes are given to it in chunks as they
+ * arrive, and it sends SAX events to a handler for everything that is
+ * complete. Anything left at the end of a chunk, like half of a tag or
+ * of a multi-byte character, is kept until the next one.
+ * <p>
+ * Only the parts of XML that MEI files use are read. A DOCTYPE is
+ * skipped, so entities declared in it are undefined, and processing
+ * instructions are ignored. Namespaces are resolved in the same way as
+ * {@link MeiXmlReader}'s parser does, with xmlns declarations reported as
+ * attributes in their own namespace.
+ */
+/* package */ class MeiXmlTokenizer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']*)[\"']");
+    /** Consumed text is removed from the buffer when there is this much of it. */
+    private static final int COMPACT_SIZE = 8192;
+
+    private final DefaultHandler2 handler;
+    private final boolean rejectDoctype;
+    private final CharsetDecoder decoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    /** The end of a multi-byte character that was split between chunks. */
+    private ByteBuffer partial = ByteBuffer.allocate(0);
+    private CharBuffer decoded = CharBuffer.allocate(1024);
+
+    private final StringBuilder buf = new StringBuilder();
+    private int pos;
+    /** How far past pos the end of the current token has been looked for. */
+    private int scanned;
+    private char scanQuote;
+    private int scanBrackets;
+
+    private boolean started;
+    /** True until the first token, where an XML declaration may be. */
+    private boolean prolog = true;
+    private boolean rootClosed;
+    /** qNames and namespace URIs of the open elements. */
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> uris = new ArrayList<String>();
+    /** Prefixes in scope, with the number bound by each open element. */
+    private final List<String> prefixes = new ArrayList<String>();
+    private final List<String> prefixUris = new ArrayList<String>();
+    private final List<Integer> bound = new ArrayList<Integer>();
+
+    MeiXmlTokenizer(DefaultHandler2 handler, boolean rejectDoctype) {
+        this.handler = handler;
+        this.rejectDoctype = rejectDoctype;
+    }
+
+    /**
+     * Read the next chunk of the document. All of the chunk is consumed.
+     */
+    public void feed(ByteBuffer chunk) {
+        ByteBuffer in = chunk;
+        if (partial.hasRemaining()) {
+            in = ByteBuffer.allocate(partial.remaining() + chunk.remaining());
+            in.put(partial).put(chunk);
+            in.flip();
+        }
+        decode(in, false);
+        if (in.hasRemaining()) {
+            partial = ByteBuffer.allocate(in.remaining());
+            partial.put(in);
+            partial.flip();
+        } else {
+            partial = ByteBuffer.allocate(0);
+        }
+        chunk.position(chunk.limit());
+        tokenize(false);
+    }
+
+    /**
+     * Finish the document. Throws an exception if it isn't complete.
+     */
+    public void end() {
+        decode(partial, true);
+        if (partial.hasRemaining()) {
+            throw new MeiXmlReadException("Document ends inside a UTF-8 character");
+        }
+        tokenize(true);
+        if (!names.isEmpty()) {
+            throw new MeiXmlReadException("Document ends inside element " + names.get(names.size() - 1));
+        }
+        if (!rootClosed) {
+            throw new MeiXmlReadException("Document has no root element");
+        }
+        try {
+            handler.endDocument();
+        } catch (SAXException e) {
+            throw new MeiXmlReadException(e);
+        }
+    }
+
+    private void decode(ByteBuffer in, boolean last) {
+        while (true) {
+            CoderResult result = decoder.decode(in, decoded, last);
+            if (result.isOverflow()) {
+                flushDecoded();
+                continue;
+            }
+            if (result.isError()) {
+                throw new MeiXmlReadException("Document is not valid UTF-8");
+            }
+            break;
+        }
+        if (last) {
+            decoder.flush(decoded);
+        }
+        flushDecoded();
+    }
+
+    private void flushDecoded() {
+        decoded.flip();
+        buf.append(decoded);
+        decoded.clear();
+    }
+
+    private void tokenize(boolean last) {
+        try {
+            if (!started) {
+                if (buf.length() == 0) {
+                    return;
+                }
+                if (buf.charAt(0) == '\uFEFF') {
+                    pos = 1;
+                }
+                started = true;
+                handler.startDocument();
+            }
+            while (pos < buf.length() && readToken(last)) {
+                scanned = 0;
+                scanQuote = 0;
+                scanBrackets = 0;
+                prolog = false;
+            }
+        } catch (SAXException e) {
+            throw new MeiXmlReadException(e);
+        }
+        if (pos > COMPACT_SIZE && pos > buf.length() / 2) {
+            buf.delete(0, pos);
+            pos = 0;
+        }
+        if (last && pos < buf.length()) {
+            throw new MeiXmlReadException("Document ends inside markup");
+        }
+    }
+
+    /**
+     * Read the token at pos. Returns false if it isn't all in the buffer yet.
+     */
+    private boolean readToken(boolean last) throws SAXException {
+        if (buf.charAt(pos) != '<') {
+            return readText(last);
+        }
+        if (startsWith("<!--")) {
+            int end = find("-->", 4);
+            if (end < 0) {
+                return false;
+            }
+            String comment = normalizeNewlines(buf.substring(pos + 4, end));
+            if (comment.contains("--") || comment.endsWith("-")) {
+                throw new MeiXmlReadException("Comment contains --");
+            }
+            handler.comment(comment.toCharArray(), 0, comment.length());
+            pos = end + 3;
+        } else if (startsWith("<![CDATA[")) {
+            int end = find("]]>", 9);
+            if (end < 0) {
+                return false;
+            }
+            if (names.isEmpty()) {
+                throw new MeiXmlReadException("CDATA is not allowed outside the root element");
+            }
+            String cdata = normalizeNewlines(buf.substring(pos + 9, end));
+            handler.startCDATA();
+            handler.characters(cdata.toCharArray(), 0, cdata.length());
+            handler.endCDATA();
+            pos = end + 3;
+        } else if (startsWith("<!DOCTYPE")) {
+            if (rejectDoctype) {
+                throw new MeiXmlReadException("DOCTYPE is not allowed");
+            }
+            int end = findTagEnd(true);
+            if (end < 0) {
+                return false;
+            }
+            if (!names.isEmpty() || rootClosed) {
+                throw new MeiXmlReadException("DOCTYPE is only allowed before the root element");
+            }
+            pos = end + 1;
+        } else if (startsWith("<?")) {
+            int end = find("?>", 2);
+            if (end < 0) {
+                return false;
+            }
+            readProcessingInstruction(buf.substring(pos + 2, end));
+            pos = end + 2;
+        } else if (startsWith("</")) {
+            int end = findTagEnd(false);
+            if (end < 0) {
+                return false;
+            }
+            readEndTag(buf.substring(pos + 2, end).trim());
+            pos = end + 1;
+        } else if (buf.length() - pos < 9 && !last && "<!--<![CDATA[<!DOCTYPE".contains(buf.substring(pos))) {
+            // Can't tell what this is yet
+            return false;
+        } else if (pos + 1 < buf.length() && buf.charAt(pos + 1) == '!') {
+            throw new MeiXmlReadException("Unexpected markup " + buf.substring(pos, Math.min(buf.length(), pos + 9)));
+        } else {
+            int end = findTagEnd(false);
+            if (end < 0) {
+                return false;
+            }
+            readStartTag(buf.substring(pos + 1, end));
+            pos = end + 1;
+        }
+        return true;
+    }
+
+    private boolean startsWith(String s) {
+        if (buf.length() - pos < s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buf.charAt(pos + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the end of the current token, starting from where the last
+     * chunk's search stopped.
+     * @param skip
+     *          the length of the token's opening
+     */
+    private int find(String close, int skip) {
+        int from = pos + Math.max(skip, scanned - close.length() + 1);
+        int end = buf.indexOf(close, from);
+        if (end < 0) {
+            scanned = buf.length() - pos;
+        }
+        return end;
+    }
+
+    /**
+     * Find the &gt; that ends a tag, ignoring any in quoted values and,
+     * for a DOCTYPE, in its internal subset.
+     */
+    private int findTagEnd(boolean brackets) {
+        for (int i = pos + Math.max(scanned, 1); i < buf.length(); i++) {
+            char c = buf.charAt(i);
+            if (scanQuote != 0) {
+                if (c == scanQuote) {
+                    scanQuote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                scanQuote = c;
+            } else if (brackets && c == '[') {
+                scanBrackets++;
+            } else if (brackets && c == ']') {
+                scanBrackets--;
+            } else if (c == '>' && scanBrackets == 0) {
+                return i;
+            }
+        }
+        scanned = buf.length() - pos;
+        return -1;
+    }
+
+    private boolean readText(boolean last) throws SAXException {
+        int end = buf.indexOf("<", pos);
+        boolean complete = end >= 0;
+        if (!complete) {
+            end = buf.length();
+            if (!last) {
+                // Keep an unfinished reference or line break for the next chunk
+                int amp = buf.lastIndexOf("&", end - 1);
+                if (amp >= pos && buf.indexOf(";", amp) < 0) {
+                    end = amp;
+                } else if (buf.charAt(end - 1) == '\r') {
+                    end--;
+                }
+            }
+        }
+        if (end == pos) {
+            return false;
+        }
+        String text = decodeText(buf.substring(pos, end), false);
+        if (names.isEmpty()) {
+            if (!isWhitespace(text)) {
+                throw new MeiXmlReadException("Text is not allowed outside the root element");
+            }
+        } else {
+            handler.characters(text.toCharArray(), 0, text.length());
+        }
+        pos = end;
+        prolog = false;
+        return complete || last;
+    }
+
+    private void readProcessingInstruction(String pi) throws SAXException {
+        int space = 0;
+        while (space < pi.length() && !Character.isWhitespace(pi.charAt(space))) {
+            space++;
+        }
+        String target = pi.substring(0, space);
+        if (target.equalsIgnoreCase("xml")) {
+            if (!target.equals("xml") || !prolog) {
+                throw new MeiXmlReadException("XML declaration is only allowed at the start of the document");
+            }
+            Matcher m = ENCODING.matcher(pi);
+            if (m.find()) {
+                String encoding = m.group(1);
+                if (!encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("UTF8")
+                        && !encoding.equalsIgnoreCase("US-ASCII") && !encoding.equalsIgnoreCase("ASCII")) {
+                    throw new MeiXmlReadException("Encoding " + encoding + " can't be read incrementally, only UTF-8");
+                }
+            }
+            return;
+        }
+        handler.processingInstruction(target, pi.substring(space).trim());
+    }
+
+    private void readStartTag(String tag) throws SAXException {
+        if (rootClosed) {
+            throw new MeiXmlReadException("Only one root element is allowed");
+        }
+        boolean empty = tag.endsWith("/");
+        if (empty) {
+            tag = tag.substring(0, tag.length() - 1);
+        }
+        int i = nameEnd(tag, 0);
+        String qName = tag.substring(0, i);
+        checkName(qName);
+
+        List<String> attNames = new ArrayList<String>();
+        List<String> attValues = new ArrayList<String>();
+        while (true) {
+            int start = skipWhitespace(tag, i);
+            if (start == tag.length()) {
+                break;
+            }
+            if (start == i) {
+                throw new MeiXmlReadException("Missing space before attribute in " + qName);
+            }
+            i = nameEnd(tag, start);
+            String name = tag.substring(start, i);
+            checkName(name);
+            i = skipWhitespace(tag, i);
+            if (i == tag.length() || tag.charAt(i) != '=') {
+                throw new MeiXmlReadException("Attribute " + name + " of " + qName + " has no value");
+            }
+            i = skipWhitespace(tag, i + 1);
+            char quote = i < tag.length() ? tag.charAt(i) : 0;
+            int close = quote == '"' || quote == '\'' ? tag.indexOf(quote, i + 1) : -1;
+            if (close < 0) {
+                throw new MeiXmlReadException("Attribute " + name + " of " + qName + " is not quoted");
+            }
+            if (attNames.contains(name)) {
+                throw new MeiXmlReadException("Attribute " + name + " is repeated in " + qName);
+            }
+            attNames.add(name);
+            attValues.add(decodeText(tag.substring(i + 1, close), true));
+            i = close + 1;
+        }
+
+        // Bind the element's namespace declarations before using them
+        int count = 0;
+        for (int a = 0; a < attNames.size(); a++) {
+            String name = attNames.get(a);
+            if (name.equals("xmlns")) {
+                bind("", attValues.get(a));
+                count++;
+            } else if (name.startsWith("xmlns:")) {
+                if (attValues.get(a).length() == 0) {
+                    throw new MeiXmlReadException("Prefix " + name.substring(6) + " can't be unbound");
+                }
+                bind(name.substring(6), attValues.get(a));
+                count++;
+            }
+        }
+        bound.add(count);
+
+        AttributesImpl atts = new AttributesImpl();
+        for (int a = 0; a < attNames.size(); a++) {
+            String name = attNames.get(a);
+            String uri;
+            if (name.equals("xmlns") || name.startsWith("xmlns:")) {
+                uri = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+            } else if (name.indexOf(':') > 0) {
+                uri = resolve(name);
+            } else {
+                uri = "";
+            }
+            atts.addAttribute(uri, localName(name), name, "CDATA", attValues.get(a));
+        }
+        String uri = qName.indexOf(':') > 0 ? resolve(qName) : lookup("");
+        names.add(qName);
+        uris.add(uri);
+        handler.startElement(uri, localName(qName), qName, atts);
+        if (empty) {
+            endElement();
+        }
+    }
+
+    private void readEndTag(String qName) throws SAXException {
+        if (names.isEmpty()) {
+            throw new MeiXmlReadException("Unexpected end tag " + qName);
+        }
+        String open = names.get(names.size() - 1);
+        if (!open.equals(qName)) {
+            throw new MeiXmlReadException("End tag " + qName + " doesn't match " + open);
+        }
+        endElement();
+    }
+
+    private void endElement() throws SAXException {
+        String qName = names.remove(names.size() - 1);
+        String uri = uris.remove(uris.size() - 1);
+        handler.endElement(uri, localName(qName), qName);
+        for (int n = bound.remove(bound.size() - 1); n > 0; n--) {
+            prefixes.remove(prefixes.size() - 1);
+            prefixUris.remove(prefixUris.size() - 1);
+        }
+        rootClosed = names.isEmpty();
+    }
+
+    private void bind(String prefix, String uri) {
+        if (prefix.equals("xml") || prefix.equals("xmlns")) {
+            throw new MeiXmlReadException("Prefix " + prefix + " can't be declared");
+        }
+        prefixes.add(prefix);
+        prefixUris.add(uri);
+    }
+
+    /**
+     * Get the URI bound to a prefix, or "" if there is none.
+     */
+    private String lookup(String prefix) {
+        if (prefix.equals("xml")) {
+            return XMLConstants.XML_NS_URI;
+        }
+        for (int i = prefixes.size() - 1; i >= 0; i--) {
+            if (prefixes.get(i).equals(prefix)) {
+                return prefixUris.get(i);
+            }
+        }
+        return "";
+    }
+
+    private String resolve(String qName) {
+        String prefix = qName.substring(0, qName.indexOf(':'));
+        String uri = lookup(prefix);
+        if (uri.length() == 0) {
+            throw new MeiXmlReadException("Prefix " + prefix + " of " + qName + " is not bound");
+        }
+        return uri;
+    }
+
+    private static String localName(String qName) {
+        return qName.substring(qName.indexOf(':') + 1);
+    }
+
+    private static int nameEnd(String s, int i) {
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '=' || Character.isWhitespace(c)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static void checkName(String name) {
+        if (name.length() == 0 || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_')) {
+            throw new MeiXmlReadException("Invalid name '" + name + "'");
+        }
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.' && c != ':'
+                    && c != '\u00B7' && Character.getType(c) != Character.NON_SPACING_MARK) {
+                throw new MeiXmlReadException("Invalid name '" + name + "'");
+            }
+        }
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalizeNewlines(String s) {
+        if (s.indexOf('\r') < 0) {
+            return s;
+        }
+        return s.replace("\r\n", "\n").replace('\r', '\n');
+    }
+
+    /**
+     * Replace character and entity references, and normalize line breaks.
+     * In attribute values all whitespace becomes a space, except where
+     * it was written as a character reference.
+     */
+    private static String decodeText(String s, boolean attribute) {
+        if (s.indexOf('&') < 0 && s.indexOf('\r') < 0 && !(attribute && (s.indexOf('\n') >= 0 || s.indexOf('\t') >= 0))) {
+            if (attribute && s.indexOf('<') >= 0) {
+                throw new MeiXmlReadException("Attribute value contains <");
+            }
+            return s;
+        }
+        StringBuilder ret = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '&') {
+                int semi = s.indexOf(';', i);
+                if (semi < 0) {
+                    throw new MeiXmlReadException("Unterminated reference in '" + s + "'");
+                }
+                ret.append(reference(s.substring(i + 1, semi)));
+                i = semi;
+            } else if (c == '\r') {
+                if (i + 1 < s.length() && s.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                ret.append(attribute ? ' ' : '\n');
+            } else if (attribute && (c == '\n' || c == '\t')) {
+                ret.append(' ');
+            } else if (attribute && c == '<') {
+                throw new MeiXmlReadException("Attribute value contains <");
+            } else {
+                ret.append(c);
+            }
+        }
+        return ret.toString();
+    }
+
+    private static String reference(String name) {
+        if (name.equals("lt")) {
+            return "<";
+        } else if (name.equals("gt")) {
+            return ">";
+        } else if (name.equals("amp")) {
+            return "&";
+        } else if (name.equals("apos")) {
+            return "'";
+        } else if (name.equals("quot")) {
+            return "\"";
+        } else if (name.startsWith("#")) {
+            try {
+                int cp = name.startsWith("#x")
+                        ? Integer.parseInt(name.substring(2), 16)
+                        : Integer.parseInt(name.substring(1));
+                return new String(Character.toChars(cp));
+            } catch (IllegalArgumentException e) {
+                throw new MeiXmlReadException("Invalid character reference &" + name + ";");
+            }
+        }
+        throw new MeiXmlReadException("Undefined entity &" + name + ";");
+    }
+}
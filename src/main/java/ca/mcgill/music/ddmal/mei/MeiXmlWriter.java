@@ -23,34 +23,88 @@
 
 package ca.mcgill.music.ddmal.mei;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.apache.commons.io.output.ByteArrayOutputStream;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import org.apache.commons.io.output.NullOutputStream;
 
 /**
- * A Factory for writing
+ * A Factory for writing MeiDocuments as XML.
+ * Use {@link #createDocument(MeiDocument)} or
+ * {@link #writeToFile(MeiDocument, File)} to write a whole document, and
+ * {@link #writeElement(MeiElement, OutputStream)} to write a single element.
  *
+ * A writer made with {@link #incrementalWriter(MeiDocument, String...)}
+ * keeps the bytes written for some elements (e.g. each measure) and
+ * reuses them the next time the document is saved, if the element hasn't
+ * changed in the meantime.
+ *
+ * {@link #createCanonicalDocument(MeiDocument)} writes a form that is
+ * always the same for the same content, and {@link #fingerprint(MeiElement)}
+ * hashes that form without keeping it in memory.
  */
 public class MeiXmlWriter {
 
+    /** The hash used by {@link #fingerprint(MeiElement)}. */
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    /** Elements that an incremental writer keeps if none are given. */
+    private static final String[] DEFAULT_CACHED_ELEMENTS = {"measure"};
+
     private final MeiDocument meiDocument;
-    private Document document;
+
+    /** Serialized elements, for an incremental writer. */
+    private Map<MeiElement, CachedElement> cache;
+    /** Names of the elements that are kept in the cache. */
+    private Set<String> cachedNames;
+    private MeiMutationListener listener;
+    /**
+     * The namespaces that need a prefix in the document, for an incremental
+     * writer, or null if they have to be found again.
+     */
+    private Map<String, String> namespaces;
+    /** Measures the current write, or null if nothing is listening. */
+    private MeiProbe probe;
+
+    public static class MeiXmlWriteException extends RuntimeException {
+        private static final long serialVersionUID = 2690351658435337254L;
+        public MeiXmlWriteException(String reason) {
+            super(reason);
+        }
+        public MeiXmlWriteException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * The bytes of an element, and the context they were written in.
+     */
+    private static class CachedElement {
+        private final byte[] bytes;
+        private final int depth;
+        private final String scope;
+
+        CachedElement(byte[] bytes, int depth, String scope) {
+            this.bytes = bytes;
+            this.depth = depth;
+            this.scope = scope;
+        }
+    }
 
     /**
      * Create a writer for the specified document.
@@ -59,86 +113,360 @@ public class MeiXmlWriter {
      */
     private MeiXmlWriter(MeiDocument doc) {
         this.meiDocument = doc;
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = null;
-        try {
-            builder = factory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
-        }
-        document = builder.newDocument();
     }
 
     /**
-     * Construct and XML document and render it to the given stream.
+     * Render the XML document to the given stream.
      * @param os
      *          the output stream to render the XML document to.
      */
     private void processDocument(OutputStream os) {
         try {
-            Node rootNode = meiElementToNode(meiDocument.getRootElement());
-            document.appendChild(rootNode);
-            TransformerFactory transformFact = TransformerFactory.newInstance();
-            Transformer transformer = transformFact.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-            DOMSource source = new DOMSource(document);
-
-            StreamResult result = new StreamResult(os);
-            transformer.transform(source, result);
-        } catch (TransformerException e) {
-        }
-    }
-
-    /**
-     * Turn an MeiElement into a DOM node.
-     */
-    Node meiElementToNode(MeiElement e) {
-        MeiNamespace ns = e.getNamespace();
-        Element element;
-        // Return a comment early, since it has no children or attributes
-        if (e.getName().equals("#comment")) {
-            return document.createComment(e.getValue());
-        } else {
-            element = document.createElementNS(ns.getHref(), e.getName());
-        }
-        element.setAttribute("xml:id", e.getId());
-        // Attributes with or without namespaces
-        // TODO: Currently namespaces prefixes are ns0, etc.
-        for (MeiAttribute attr : e.getAttributes()) {
-            MeiNamespace attrNs = attr.getNamespace();
-            if (attrNs != null) {
-                element.setAttributeNS(attrNs.getHref(), attr.getName(),
-                        attr.getValue());
-            } else {
-                element.setAttribute(attr.getName(), attr.getValue());
+            probe = MeiProbe.start(MeiMetrics.Operation.WRITE);
+            MeiXmlSerializer out = new MeiXmlSerializer(os);
+            if (cache != null && meiDocument.getRootElement() != null) {
+                if (namespaces == null) {
+                    namespaces = new LinkedHashMap<String, String>();
+                    MeiXmlSerializer.addPrefixedNamespaces(meiDocument.getRootElement(), namespaces);
+                }
+                out.setNamespaces(namespaces);
             }
+            out.startDocument();
+            if (meiDocument.getRootElement() != null) {
+                writeElement(out, meiDocument.getRootElement());
+            }
+            out.endDocument();
+            finish(out);
+        } catch (IOException e) {
+            throw new MeiXmlWriteException(e);
+        }
+    }
+
+    private void finish(MeiXmlSerializer out) {
+        if (probe != null) {
+            probe.setBytes(out.getBytesWritten());
+            probe.finish();
+            probe = null;
+        }
+    }
+
+    /**
+     * Write an element, its text and its children.
+     * Tail text is written by the parent, after the element.
+     */
+    private void writeElement(MeiXmlSerializer out, MeiElement e) throws IOException {
+        // A comment has no children or attributes
+        if (e.getTag() == MeiTag.COMMENT) {
+            out.comment(e.getValue());
+            return;
+        }
+        if (cache == null || !cachedNames.contains(e.getName())) {
+            writeElementContent(out, e);
+            return;
         }
 
-        if (e.getValue() != null) {
-            element.appendChild(document.createTextNode(e.getValue()));
+        int depth = out.getDepth();
+        String scope = out.getScope();
+        CachedElement cached = cache.get(e);
+        if (cached != null && cached.depth == depth && cached.scope.equals(scope)) {
+            out.raw(cached.bytes);
+            return;
         }
-        // Add each child. Tail text is represented in XML as a text node
-        // after the child, so add that if it exists.
+        out.hold();
+        writeElementContent(out, e);
+        cache.put(e, new CachedElement(out.copyFrom(out.getElementStart()), depth, scope));
+        out.release();
+    }
+
+    private void writeElementContent(MeiXmlSerializer out, MeiElement e) throws IOException {
+        if (probe != null) {
+            probe.element(e.attributeList().size());
+        }
+        out.startElement(e);
+        // The start position has to be kept over any cached children
+        int start = out.getElementStart();
+        out.text(e.getValueText());
         for (MeiElement ch : e.getChildren()) {
-            element.appendChild(meiElementToNode(ch));
-            if (ch.getTail() != null) {
-                element.appendChild(document.createTextNode(ch.getTail()));
-            }
+            writeElement(out, ch);
+            out.text(ch.getTailText());
         }
-        return element;
+        out.endElement(e);
+        out.setElementStart(start);
     }
 
     public static String createDocument(MeiDocument doc) {
         MeiXmlWriter writer = new MeiXmlWriter(doc);
         ByteArrayOutputStream os = new ByteArrayOutputStream();
         writer.processDocument(os);
-        return os.toString();
+        try {
+            return os.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new MeiXmlWriteException(e);
+        }
     }
 
     public static void writeToFile(MeiDocument doc, File fp) throws FileNotFoundException {
-        MeiXmlWriter writer = new MeiXmlWriter(doc);
+        new MeiXmlWriter(doc).save(fp);
+    }
+
+    /**
+     * Write an element and its descendants without an XML declaration,
+     * e.g. to send a single measure. The element declares the namespaces
+     * it uses, so it can be read with
+     * {@link MeiXmlReader#parseFragment(java.io.InputStream)}.
+     * @param os
+     *          the stream to write to. It is not closed.
+     */
+    public static void writeElement(MeiElement element, OutputStream os) {
+        writeElement(element, os, true);
+    }
+
+    /**
+     * Write an element and its descendants without an XML declaration.
+     * @param indent
+     *          false to leave out indentation, so that the element is read
+     *          back with exactly the same text
+     */
+    /* package */ static void writeElement(MeiElement element, OutputStream os, boolean indent) {
+        try {
+            MeiXmlWriter writer = new MeiXmlWriter(null);
+            writer.probe = MeiProbe.start(MeiMetrics.Operation.WRITE);
+            MeiXmlSerializer out = new MeiXmlSerializer(os);
+            out.setIndenting(indent);
+            writer.writeElement(out, element);
+            out.flush();
+            writer.finish(out);
+        } catch (IOException e) {
+            throw new MeiXmlWriteException(e);
+        }
+    }
+
+    /**
+     * Get an element and its descendants as a string of XML.
+     * @see #writeElement(MeiElement, OutputStream)
+     */
+    public static String createFragment(MeiElement element) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeElement(element, os);
+        try {
+            return os.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new MeiXmlWriteException(e);
+        }
+    }
+
+    /**
+     * Write a document in canonical form, which is the same bytes whenever
+     * the content is the same. There is no XML declaration or indentation,
+     * namespaces are declared on the root with prefixes ns0, ns1, ... in
+     * order of their URI, attributes are in order of namespace and name,
+     * and CDATA sections are written as text. Text that is only whitespace
+     * with a line break, and ids that were generated rather than read or
+     * set, are left out.
+     * @param os
+     *          the stream to write to. It is not closed.
+     */
+    public static void writeCanonical(MeiDocument doc, OutputStream os) {
+        writeCanonical(doc.getRootElement(), os);
+    }
+
+    /**
+     * Get the canonical form of a document as a string.
+     * @see #writeCanonical(MeiDocument, OutputStream)
+     */
+    public static String createCanonicalDocument(MeiDocument doc) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeCanonical(doc.getRootElement(), os);
+        try {
+            return os.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new MeiXmlWriteException(e);
+        }
+    }
+
+    /**
+     * Get a SHA-256 hash of the canonical form of a document.
+     */
+    public static byte[] fingerprint(MeiDocument doc) {
+        return fingerprint(doc.getRootElement(), FINGERPRINT_ALGORITHM);
+    }
+
+    /**
+     * Get a SHA-256 hash of the canonical form of an element and its
+     * descendants. The hash doesn't depend on the element's ancestors,
+     * so equal subtrees in different documents have the same hash.
+     */
+    public static byte[] fingerprint(MeiElement element) {
+        return fingerprint(element, FINGERPRINT_ALGORITHM);
+    }
+
+    /**
+     * Get a hash of the canonical form of an element and its descendants.
+     * @param algorithm
+     *          the name of a {@link MessageDigest} algorithm, e.g. "MD5" for
+     *          a 128-bit hash
+     */
+    public static byte[] fingerprint(MeiElement element, String algorithm) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+        // The text is hashed as it is written, and never kept
+        writeCanonical(element, new DigestOutputStream(NullOutputStream.NULL_OUTPUT_STREAM, digest));
+        return digest.digest();
+    }
+
+    private static void writeCanonical(MeiElement root, OutputStream os) {
+        try {
+            MeiXmlWriter writer = new MeiXmlWriter(null);
+            writer.probe = MeiProbe.start(MeiMetrics.Operation.WRITE);
+            MeiXmlSerializer out = new MeiXmlSerializer(os, true);
+            out.startDocument();
+            if (root != null) {
+                writer.writeElement(out, root);
+            }
+            out.endDocument();
+            writer.finish(out);
+        } catch (IOException e) {
+            throw new MeiXmlWriteException(e);
+        }
+    }
+
+    /**
+     * Make a writer that can save a document many times, only writing again
+     * the elements that changed since the last save.
+     * The writer finds changes with a {@link MeiMutationListener}. Changing
+     * the value of an attribute of an element, e.g. with
+     * <code>getAttributes().get(i).setValue(...)</code>, is noticed too.
+     * Call {@link #close()} when the writer is no longer needed.
+     * @param doc
+     *          the document to write
+     * @param cachedElements
+     *          names of the elements whose output is kept between saves.
+     *          If none are given, each &lt;measure> is kept.
+     */
+    public static MeiXmlWriter incrementalWriter(MeiDocument doc, String... cachedElements) {
+        final MeiXmlWriter writer = new MeiXmlWriter(doc);
+        if (cachedElements.length == 0) {
+            cachedElements = DEFAULT_CACHED_ELEMENTS;
+        }
+        writer.cachedNames = new HashSet<String>(Arrays.asList(cachedElements));
+        writer.cache = new IdentityHashMap<MeiElement, CachedElement>();
+        writer.listener = new MeiMutationListener() {
+            public void mutated(MeiDocument document, List<MeiMutation> mutations) {
+                for (MeiMutation m : mutations) {
+                    writer.invalidate(m);
+                }
+            }
+        };
+        doc.addMutationListener(writer.listener);
+        return writer;
+    }
+
+    /**
+     * Forget the output of all elements affected by a change.
+     */
+    private void invalidate(MeiMutation m) {
+        updateNamespaces(m);
+        if (cache.isEmpty()) {
+            return;
+        }
+        if (m.getElement() == null) {
+            // The root element changed
+            cache.clear();
+            return;
+        }
+        for (MeiElement e = m.getElement(); e != null; e = e.getParent()) {
+            cache.remove(e);
+        }
+        if (m.getChild() != null) {
+            // The child may have changed while it was out of the document
+            invalidateSubtree(m.getChild());
+        }
+    }
+
+    /**
+     * Keep the namespaces used in the document up to date with a change.
+     * A namespace is only searched for again if something that used one
+     * was removed.
+     */
+    private void updateNamespaces(MeiMutation m) {
+        if (namespaces == null) {
+            return;
+        }
+        switch (m.getType()) {
+        case CHILD_ADDED:
+            MeiXmlSerializer.addPrefixedNamespaces(m.getChild(), namespaces);
+            break;
+        case ATTRIBUTE_ADDED:
+            MeiXmlSerializer.addPrefixedNamespace(m.getAttribute(), namespaces);
+            break;
+        case CHILD_REMOVED:
+            if (MeiXmlSerializer.usesPrefixedNamespace(m.getChild())) {
+                namespaces = null;
+            }
+            break;
+        case ATTRIBUTE_REMOVED:
+            Map<String, String> used = new LinkedHashMap<String, String>();
+            MeiXmlSerializer.addPrefixedNamespace(m.getAttribute(), used);
+            if (!used.isEmpty()) {
+                namespaces = null;
+            }
+            break;
+        default:
+            break;
+        }
+        if (m.getElement() == null) {
+            // The root element was replaced
+            namespaces = null;
+        }
+    }
+
+    private void invalidateSubtree(MeiElement e) {
+        cache.remove(e);
+        for (MeiElement c : e.getChildren()) {
+            invalidateSubtree(c);
+        }
+    }
+
+    /**
+     * Write the document to a stream.
+     * @param os
+     *          the stream to write to. It is not closed.
+     */
+    public void save(OutputStream os) {
+        processDocument(os);
+    }
+
+    /**
+     * Write the document to a file.
+     * @param fp
+     *          the file to write to
+     */
+    public void save(File fp) throws FileNotFoundException {
         FileOutputStream fileOutputStream = new FileOutputStream(fp);
-        writer.processDocument(fileOutputStream);
+        try {
+            processDocument(fileOutputStream);
+        } finally {
+            try {
+                fileOutputStream.close();
+            } catch (IOException e) {
+                throw new MeiXmlWriteException(e);
+            }
+        }
+    }
+
+    /**
+     * Stop following changes to the document and drop all kept output.
+     */
+    public void close() {
+        if (listener != null) {
+            meiDocument.removeMutationListener(listener);
+            listener = null;
+            cache.clear();
+            namespaces = null;
+        }
     }
 }
@@ -0,0 +1,118 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.StringContains.containsString;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import ca.mcgill.music.ddmal.mei.MeiXmlReader.MeiXmlReadException;
+
+public class MeiAsyncReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static CompletableFuture<MeiDocument> read(byte[] bytes, int chunkSize) {
+        MeiAsyncReader reader = new MeiAsyncReader();
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            reader.feed(bytes, i, Math.min(chunkSize, bytes.length - i));
+        }
+        reader.end();
+        return reader.getResult();
+    }
+
+    /**
+     * Write a document without the ids that are made for elements
+     * that don't have one.
+     */
+    private static String write(MeiDocument doc) {
+        return MeiXmlWriter.createDocument(doc).replaceAll(" xml:id=\"[-0-9a-f]{36}\"", "");
+    }
+
+    private static String readFailure(String contents) throws InterruptedException {
+        try {
+            read(contents.getBytes(UTF_8), 7).get();
+            fail("Should have thrown an exception");
+            return null;
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(MeiXmlReadException.class));
+            return e.getCause().getMessage();
+        }
+    }
+
+    /**
+     * A document read in chunks of any size is the same as one read at once.
+     */
+    @Test
+    public void testChunks() throws URISyntaxException, IOException, InterruptedException, ExecutionException {
+        File file = new File(getClass().getResource("/artic.mei").toURI());
+        byte[] bytes = FileUtils.readFileToByteArray(file);
+        String expected = write(MeiXmlReader.loadFile(file));
+
+        for (int size : new int[] {1, 2, 3, 100, bytes.length}) {
+            MeiDocument doc = read(bytes, size).get();
+            assertThat(write(doc), is(expected));
+        }
+    }
+
+    /**
+     * Multi-byte characters, references and line breaks can be split
+     * between chunks.
+     */
+    @Test
+    public void testSplitText() throws InterruptedException, ExecutionException {
+        String docText = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+            + "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" meiversion=\"2012\">"
+            + "<title xlink:href=\"a&amp;b\">Caça &#x1D11E; &lt;漢&gt;\r\nline<![CDATA[<x>]]></title><!-- c --></mei>";
+        MeiDocument expected = MeiXmlReader.loadDocument(docText);
+        byte[] bytes = docText.getBytes(UTF_8);
+        for (int size = 1; size < 5; size++) {
+            MeiDocument doc = read(bytes, size).get();
+            MeiElement title = doc.getRootElement().getChildren().get(0);
+            assertThat(title.getValue(), is("Caça 𝄞 <漢>\nline<x>"));
+            assertThat(title.getAttribute("xlink:href"), is("a&b"));
+            assertThat(write(doc), is(write(expected)));
+        }
+    }
+
+    @Test
+    public void testErrors() throws InterruptedException {
+        assertThat(readFailure("<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\"><a></b></mei>"),
+                containsString("doesn't match"));
+        assertThat(readFailure("<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\"><a>"),
+                containsString("ends inside element a"));
+        assertThat(readFailure("<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">&foo;</mei>"),
+                containsString("Undefined entity"));
+        assertThat(readFailure("<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\"><x:a/></mei>"),
+                containsString("not bound"));
+        assertThat(readFailure("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><mei/>"),
+                containsString("ISO-8859-1"));
+        assertThat(readFailure("<mei meiversion=\"2012\"></mei>"),
+                containsString("Missing namespace"));
+    }
+
+    /**
+     * Chunks after an error, or after the result is cancelled, are ignored.
+     */
+    @Test
+    public void testIgnoredAfterDone() {
+        MeiAsyncReader reader = new MeiAsyncReader();
+        reader.getResult().cancel(false);
+        ByteBuffer chunk = ByteBuffer.wrap("<mei".getBytes(UTF_8));
+        reader.feed(chunk);
+        assertThat(chunk.hasRemaining(), is(false));
+        reader.end();
+        assertThat(reader.getResult().isCancelled(), is(true));
+    }
+}
@@ -0,0 +1,90 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+import org.junit.Test;
+
+public class MeiAttributeTableTest {
+
+    private static final String DOC = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\" xml:id=\"m1\">"
+            + "<note xml:id=\"n1\" pname=\"c\" oct=\"4\"/>"
+            + "<note xml:id=\"n2\" pname=\"c\" oct=\"4\"/>"
+            + "<note xml:id=\"n3\" pname=\"d\" oct=\"4\"/>"
+            + "</mei>";
+
+    @Test
+    public void testShared() {
+        MeiAttributeTable table = new MeiAttributeTable();
+        MeiReaderOptions options = new MeiReaderOptions().setAttributeTable(table);
+        List<MeiElement> notes = MeiXmlReader.loadDocument(DOC, options).getElementsByName("note");
+        List<MeiElement> again = MeiXmlReader.loadDocument(DOC, options).getElementsByName("note");
+
+        assertThat(notes.get(0).attributeList(), sameInstance(notes.get(1).attributeList()));
+        assertThat(notes.get(0).attributeList(), not(sameInstance(notes.get(2).attributeList())));
+        assertThat(notes.get(0).attributeList(), sameInstance(again.get(0).attributeList()));
+        // oct="4" is the same attribute in both lists
+        assertThat(notes.get(0).attributeList().get(1), sameInstance(notes.get(2).attributeList().get(1)));
+        assertThat(notes.get(1).getId(), is("n2"));
+        assertThat(table.getListCount(), is(3));
+        // xmlns and meiversion on the root, and pname c, pname d and oct
+        assertThat(table.getAttributeCount(), is(5));
+
+        // The same document as without sharing
+        assertThat(MeiXmlWriter.createDocument(MeiXmlReader.loadDocument(DOC, options)),
+                is(MeiXmlWriter.createDocument(MeiXmlReader.loadDocument(DOC))));
+    }
+
+    /**
+     * Changing the attributes of an element doesn't change the others.
+     */
+    @Test
+    public void testChange() {
+        MeiReaderOptions options = new MeiReaderOptions().setAttributeTable(new MeiAttributeTable());
+        List<MeiElement> notes = MeiXmlReader.loadDocument(DOC, options).getElementsByName("note");
+        notes.get(0).addAttribute("dur", "4");
+        notes.get(1).removeAttributeByName("pname");
+        assertThat(notes.get(0).getAttributes().size(), is(3));
+        assertThat(notes.get(1).getAttributes().size(), is(1));
+        assertThat(notes.get(1).getAttribute("pname"), is(nullValue()));
+        assertThat(notes.get(2).getAttribute("pname"), is("d"));
+
+        notes.get(2).removeAllAttributes();
+        notes.get(2).addAttribute("pname", "e");
+        assertThat(notes.get(2).getAttribute("pname"), is("e"));
+    }
+
+    /**
+     * Values can be changed through the list of attributes, for that
+     * element alone, and the table still has the values that were read.
+     */
+    @Test
+    public void testSetValue() {
+        MeiReaderOptions options = new MeiReaderOptions().setAttributeTable(new MeiAttributeTable());
+        List<MeiElement> notes = MeiXmlReader.loadDocument(DOC, options).getElementsByName("note");
+        notes.get(0).getAttributes().get(0).setValue("e");
+        assertThat(notes.get(0).getAttribute("pname"), is("e"));
+        assertThat(notes.get(1).getAttribute("pname"), is("c"));
+        notes.get(1).removeAllAttributes();
+        assertThat(notes.get(1).getAttributes().size(), is(0));
+        assertThat(notes.get(2).getAttributes().size(), is(2));
+
+        MeiElement note = MeiXmlReader.loadDocument(DOC, options).getElementsByName("note").get(0);
+        assertThat(note.getAttribute("pname"), is("c"));
+        assertThat(note.attributeList(), sameInstance(MeiXmlReader.loadDocument(DOC, options)
+                .getElementsByName("note").get(0).attributeList()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStreamUnmodifiable() {
+        MeiReaderOptions options = new MeiReaderOptions().setAttributeTable(new MeiAttributeTable());
+        MeiElement note = MeiXmlReader.loadDocument(DOC, options).getElementsByName("note").get(0);
+        note.attributes().findFirst().get().setValue("e");
+    }
+}
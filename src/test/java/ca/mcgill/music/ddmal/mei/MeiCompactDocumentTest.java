@@ -0,0 +1,140 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.net.URL;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MeiCompactDocumentTest {
+
+    private MeiDocument doc;
+    private MeiCompactDocument compact;
+
+    @Before
+    public void setUp() {
+        URL url = getClass().getResource("/artic.mei");
+        doc = MeiXmlReader.loadFile(url.getFile());
+        compact = MeiCompactDocument.of(doc);
+    }
+
+    @Test
+    public void roundTrip() {
+        String expected = MeiXmlWriter.createDocument(doc);
+        assertThat(MeiXmlWriter.createDocument(compact.toDocument()), is(expected));
+        assertThat(compact.size(), is(doc.getRootElement().getDescendants().size() + 1));
+    }
+
+    @Test
+    public void sameTree() {
+        checkElement(compact.getRootElement(), doc.getRootElement());
+    }
+
+    private void checkElement(MeiCompactElement c, MeiElement e) {
+        assertThat(c.getName(), is(e.getName()));
+        assertThat(c.getTag(), is(e.getTag()));
+        assertThat(c.getId(), is(e.getId()));
+        assertThat(c.getNamespace(), is(e.getNamespace()));
+        assertThat(c.getValue(), is(e.getValue()));
+        assertThat(c.getTail(), is(e.getTail()));
+        assertThat(c.getAttributes(), is(e.getAttributes()));
+        List<MeiCompactElement> children = c.getChildren();
+        assertThat(children.size(), is(e.getChildren().size()));
+        for (int i = 0; i < children.size(); i++) {
+            assertThat(children.get(i).getParent(), is(c));
+            checkElement(children.get(i), e.getChildren().get(i));
+        }
+    }
+
+    @Test
+    public void lookups() {
+        MeiCompactElement staffDef = compact.getElementById("P1");
+        assertThat(staffDef.getName(), is("staffDef"));
+        assertThat(staffDef.getAttribute("clef.shape"), is("G"));
+        assertThat(staffDef.getAttribute("nothing"), is(nullValue()));
+        assertThat(compact.getElementById("nothing"), is(nullValue()));
+
+        assertThat(compact.getElementsByName("note").size(), is(doc.getElementsByName("note").size()));
+        assertThat(compact.getElementsByTag(MeiTag.MEASURE).size(), is(doc.getElementsByTag(MeiTag.MEASURE).size()));
+
+        MeiCompactElement measure = compact.getElementById("d1e12");
+        MeiCompactElement note = measure.getDescendantsByName("note").get(0);
+        assertThat(note.getAncestor("measure"), is(measure));
+        assertThat(note.getAncestor(MeiTag.MEASURE), is(measure));
+        assertThat(compact.getRootElement().getParent(), is(nullValue()));
+    }
+
+    @Test
+    public void copies() {
+        MeiElement measure = compact.getElementById("d1e12").toElement();
+        assertThat(measure.getParent(), is(nullValue()));
+        assertThat(measure.getDescendants().size(), is(doc.getElementById("d1e12").getDescendants().size()));
+        assertThat(measure.getAttribute("right"), is("invis"));
+
+        // Changing the original doesn't change the compact document
+        doc.getElementById("P1").addAttribute("n", "2");
+        assertThat(compact.getElementById("P1").getAttribute("n"), is("1"));
+    }
+
+    /**
+     * Ids made up for elements without one stay made up, so they are
+     * still left out of canonical output.
+     */
+    @Test
+    public void generatedIds() {
+        MeiDocument read = MeiXmlReader.loadDocument("<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+                + "<music><note xml:id=\"n1\" pname=\"c\"/><note pname=\"d\"/></music></mei>");
+        MeiCompactDocument c = MeiCompactDocument.of(read);
+        MeiElement note = read.getElementsByName("note").get(1);
+        assertThat(c.getElementById(note.getId()).hasGeneratedId(), is(true));
+        assertThat(c.getElementById("n1").hasGeneratedId(), is(false));
+
+        MeiDocument copy = c.toDocument();
+        assertThat(copy.getElementById(note.getId()).hasGeneratedId(), is(true));
+        assertThat(MeiXmlWriter.createCanonicalDocument(copy), is(MeiXmlWriter.createCanonicalDocument(read)));
+        assertThat(MeiXmlWriter.fingerprint(copy), is(MeiXmlWriter.fingerprint(read)));
+    }
+
+    @Test
+    public void empty() {
+        MeiCompactDocument empty = MeiCompactDocument.of(new MeiDocument());
+        assertThat(empty.size(), is(0));
+        assertThat(empty.getRootElement(), is(nullValue()));
+        assertThat(empty.getElementById("P1"), is(nullValue()));
+        assertThat(empty.getElementsByName("note").size(), is(0));
+    }
+
+    @Test
+    public void descendantStream() {
+        List<String> expected = doc.getRootElement().descendants()
+                .map(MeiElement::getId).collect(Collectors.toList());
+        assertThat(compact.getRootElement().descendants().parallel()
+                .map(MeiCompactElement::getId).collect(Collectors.toList()), is(expected));
+    }
+
+    @Test
+    public void axisStreams() {
+        MeiCompactElement measure = compact.getElementById("d1e12");
+        MeiElement original = doc.getElementById("d1e12");
+        assertThat(ids(measure.children()), is(ids(original.children())));
+        MeiCompactElement note = measure.getDescendantsByName("note").get(0);
+        MeiElement originalNote = original.getDescendantsByName("note").get(0);
+        assertThat(ids(note.ancestors()), is(ids(originalNote.ancestors())));
+        for (MeiCompactElement c : measure.getChildren()) {
+            MeiElement o = doc.getElementById(c.getId());
+            assertThat(ids(c.followingSiblings()), is(ids(o.followingSiblings())));
+            assertThat(ids(c.precedingSiblings()), is(ids(o.precedingSiblings())));
+        }
+        assertThat(note.attributes().collect(Collectors.toList()), is(originalNote.getAttributes()));
+    }
+
+    private List<String> ids(Stream<? extends MeiElementView> elements) {
+        return elements.map(MeiElementView::getId).collect(Collectors.toList());
+    }
+}
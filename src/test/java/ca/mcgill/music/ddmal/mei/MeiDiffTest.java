@@ -0,0 +1,197 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.net.URL;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.mcgill.music.ddmal.mei.MeiPatch.EditType;
+
+public class MeiDiffTest {
+
+    private MeiDocument from;
+    private MeiDocument to;
+
+    private MeiDocument makeDocument() {
+        MeiDocument doc = new MeiDocument();
+        MeiElement root = new MeiElement("mei", "r");
+        MeiElement score = new MeiElement("score", "s");
+        MeiElement m1 = new MeiElement("measure", "m1");
+        MeiElement m2 = new MeiElement("measure", "m2");
+        MeiElement n1 = new MeiElement("note", "n1");
+        MeiElement n2 = new MeiElement("note", "n2");
+        MeiElement n3 = new MeiElement("note", "n3");
+        n1.addAttribute("pname", "c");
+        n2.addAttribute("pname", "d");
+        n3.addAttribute("pname", "e");
+        root.addChild(score);
+        score.addChild(m1);
+        score.addChild(m2);
+        m1.addChild(n1);
+        m1.addChild(n2);
+        m2.addChild(n3);
+        doc.setRootElement(root);
+        return doc;
+    }
+
+    private void assertPatchWorks() {
+        MeiPatch patch = MeiDiff.diff(from, to);
+        String expected = MeiXmlWriter.createDocument(to);
+        // The patch works the same after being written and read back
+        MeiPatch read = MeiPatch.fromXml(patch.toXml());
+        assertThat(read.toXml(), is(patch.toXml()));
+        MeiDocument copy = new MeiDocument();
+        copy.setRootElement(from.getRootElement().copy());
+        read.apply(copy);
+        assertThat(MeiXmlWriter.createDocument(copy), is(expected));
+        patch.apply(from);
+        assertThat(MeiXmlWriter.createDocument(from), is(expected));
+    }
+
+    @Before
+    public void setup() {
+        from = makeDocument();
+        to = makeDocument();
+    }
+
+    @Test
+    public void sameDocument() {
+        assertThat(MeiDiff.diff(from, to).isEmpty(), is(true));
+    }
+
+    @Test
+    public void changeAttribute() {
+        to.getElementById("n2").getAttributes().get(0).setValue("f");
+        MeiPatch patch = MeiDiff.diff(from, to);
+        assertThat(patch.getEdits().size(), is(1));
+        assertThat(patch.getEdits().get(0).getType(), is(EditType.ATTRIBUTES));
+        assertThat(patch.getEdits().get(0).getId(), is("n2"));
+        assertPatchWorks();
+    }
+
+    @Test
+    public void changeText() {
+        to.getElementById("n1").setValue("text");
+        to.getElementById("n3").setTail("tail");
+        MeiPatch patch = MeiDiff.diff(from, to);
+        assertThat(patch.getEdits().size(), is(2));
+        assertThat(patch.getEdits().get(0).getType(), is(EditType.VALUE));
+        assertThat(patch.getEdits().get(1).getType(), is(EditType.TAIL));
+        assertPatchWorks();
+    }
+
+    @Test
+    public void insertSubtree() {
+        MeiElement m3 = new MeiElement("measure", "m3");
+        m3.addChild(new MeiElement("note", "n4"));
+        m3.addChild(new MeiElement("note", "n5"));
+        to.getElementById("s").addChildBefore(to.getElementById("m2"), m3);
+        MeiPatch patch = MeiDiff.diff(from, to);
+        // The whole measure is inserted at once
+        assertThat(patch.getEdits().size(), is(1));
+        assertThat(patch.getEdits().get(0).getType(), is(EditType.INSERT));
+        assertThat(patch.getEdits().get(0).getAfterId(), is("m1"));
+        assertPatchWorks();
+    }
+
+    @Test
+    public void deleteSubtree() {
+        MeiElement m1 = to.getElementById("m1");
+        m1.getParent().removeChild(m1);
+        MeiPatch patch = MeiDiff.diff(from, to);
+        assertThat(patch.getEdits().size(), is(1));
+        assertThat(patch.getEdits().get(0).getType(), is(EditType.DELETE));
+        assertThat(patch.getEdits().get(0).getId(), is("m1"));
+        assertPatchWorks();
+    }
+
+    @Test
+    public void moveElement() {
+        MeiElement n1 = to.getElementById("n1");
+        n1.getParent().removeChild(n1);
+        to.getElementById("m2").addChild(n1);
+        MeiPatch patch = MeiDiff.diff(from, to);
+        assertThat(patch.getEdits().size(), is(1));
+        assertThat(patch.getEdits().get(0).getType(), is(EditType.MOVE));
+        assertThat(patch.getEdits().get(0).getParentId(), is("m2"));
+        assertThat(patch.getEdits().get(0).getAfterId(), is("n3"));
+        assertPatchWorks();
+    }
+
+    @Test
+    public void reorderChildren() {
+        MeiElement score = to.getElementById("s");
+        MeiElement m1 = to.getElementById("m1");
+        score.removeChild(m1);
+        score.addChild(m1);
+        MeiPatch patch = MeiDiff.diff(from, to);
+        assertThat(patch.getEdits().size(), is(1));
+        assertThat(patch.getEdits().get(0).getType(), is(EditType.MOVE));
+        assertPatchWorks();
+    }
+
+    @Test
+    public void moveIntoNewElement() {
+        // Wrap the notes of the first measure in a layer
+        MeiElement m1 = to.getElementById("m1");
+        MeiElement layer = new MeiElement("layer", "l1");
+        MeiElement n1 = to.getElementById("n1");
+        MeiElement n2 = to.getElementById("n2");
+        m1.removeAllChildren();
+        layer.addChild(n1);
+        layer.addChild(n2);
+        m1.addChild(layer);
+        assertPatchWorks();
+    }
+
+    @Test
+    public void deleteParentKeepChild() {
+        MeiElement m2 = to.getElementById("m2");
+        MeiElement n3 = to.getElementById("n3");
+        m2.removeChild(n3);
+        m2.getParent().removeChild(m2);
+        to.getElementById("m1").addChild(n3);
+        assertPatchWorks();
+    }
+
+    @Test
+    public void matchWithoutIds() {
+        String text = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+                + "<music><score><note pname=\"c\"/><note pname=\"d\"/></score></music></mei>";
+        from = MeiXmlReader.loadDocument(text);
+        to = MeiXmlReader.loadDocument(text.replace("\"d\"", "\"e\""));
+        MeiPatch patch = MeiDiff.diff(from, to);
+        int attributeEdits = 0;
+        for (MeiPatch.Edit edit : patch.getEdits()) {
+            assertThat(edit.getType() == EditType.ATTRIBUTES || edit.getType() == EditType.ID, is(true));
+            if (edit.getType() == EditType.ATTRIBUTES) {
+                attributeEdits++;
+            }
+        }
+        assertThat(attributeEdits, is(1));
+        assertPatchWorks();
+    }
+
+    @Test
+    public void replaceRoot() {
+        MeiDocument corpus = new MeiDocument();
+        corpus.setRootElement(new MeiElement("meiCorpus", "c"));
+        to = corpus;
+        assertPatchWorks();
+    }
+
+    @Test
+    public void fileRoundTrip() {
+        URL url = getClass().getResource("/artic.mei");
+        from = MeiXmlReader.loadFile(url.getFile());
+        to = MeiXmlReader.loadFile(url.getFile());
+        MeiElement first = to.getRootElement().getChildren().get(0);
+        to.getRootElement().removeChild(first);
+        to.getRootElement().addChild(first);
+        first.addAttribute("type", "moved");
+        assertPatchWorks();
+    }
+}
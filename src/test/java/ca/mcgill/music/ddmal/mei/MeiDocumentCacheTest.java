@@ -0,0 +1,161 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.mcgill.music.ddmal.mei.MeiXmlReader.MeiXmlReadException;
+
+public class MeiDocumentCacheTest {
+
+    private File artic;
+    private File temp;
+
+    @Before
+    public void setUp() throws IOException, URISyntaxException {
+        artic = new File(getClass().getResource("/artic.mei").toURI());
+        temp = File.createTempFile("testmei", ".mei");
+    }
+
+    @After
+    public void tearDown() {
+        temp.delete();
+    }
+
+    private void writeNote(String pname) throws IOException {
+        MeiDocument doc = new MeiDocument();
+        MeiElement mei = new MeiElement("mei");
+        mei.addAttribute("meiversion", MeiDocument.MEI_VERSION);
+        MeiElement note = new MeiElement("note");
+        note.addAttribute("pname", pname);
+        mei.addChild(note);
+        doc.setRootElement(mei);
+        MeiXmlWriter.writeToFile(doc, temp);
+    }
+
+    @Test
+    public void cached() {
+        MeiDocumentCache cache = new MeiDocumentCache(Long.MAX_VALUE);
+        MeiCompactDocument doc = cache.get(artic);
+        assertThat(cache.get(artic), is(sameInstance(doc)));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.getEstimatedSize(), is(doc.getEstimatedSize()));
+
+        cache.invalidate(artic);
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getEstimatedSize(), is(0L));
+        assertThat(cache.get(artic), is(not(sameInstance(doc))));
+    }
+
+    @Test
+    public void copies() {
+        MeiDocumentCache cache = new MeiDocumentCache(Long.MAX_VALUE);
+        MeiDocument copy = cache.getCopy(artic);
+        copy.getElementById("P1").addAttribute("n", "2");
+        assertThat(cache.get(artic).getElementById("P1").getAttribute("n"), is("1"));
+        assertThat(cache.getCopy(artic).getElementById("P1").getAttribute("n"), is("1"));
+    }
+
+    /**
+     * A copy has the same content as the file: ids that were generated
+     * stay generated, and CDATA sections are kept.
+     */
+    @Test
+    public void copySameAsFile() throws IOException {
+        FileUtils.writeStringToFile(temp, "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">\n"
+                + "  <music>\n    <syl>a<![CDATA[<b>]]></syl>\n    <note pname=\"c\"/>\n  </music>\n</mei>\n", "UTF-8");
+        MeiReaderOptions options = new MeiReaderOptions().setWhitespace(MeiReaderOptions.Whitespace.COLLAPSE);
+        MeiDocumentCache cache = new MeiDocumentCache(Long.MAX_VALUE, options);
+        MeiDocument read = MeiXmlReader.loadFile(temp, options);
+        MeiDocument copy = cache.getCopy(temp);
+        assertThat(MeiXmlWriter.createCanonicalDocument(copy), is(MeiXmlWriter.createCanonicalDocument(read)));
+        assertThat(copy.getElementsByName("syl").get(0).getValueText(), is(read.getElementsByName("syl").get(0).getValueText()));
+
+        // Generated ids are different in each document, so set them to compare the rest
+        for (MeiDocument doc : Arrays.asList(read, copy)) {
+            List<MeiElement> elements = doc.getRootElement().getDescendants();
+            elements.add(doc.getRootElement());
+            for (MeiElement e : elements) {
+                if (e.hasGeneratedId()) {
+                    e.setId(e.getName());
+                }
+            }
+        }
+        assertThat(MeiXmlWriter.createDocument(copy), is(MeiXmlWriter.createDocument(read)));
+    }
+
+    @Test
+    public void changedFile() throws IOException {
+        MeiDocumentCache cache = new MeiDocumentCache(Long.MAX_VALUE);
+        writeNote("c");
+        temp.setLastModified(100000);
+        assertThat(cache.get(temp).getElementsByName("note").get(0).getAttribute("pname"), is("c"));
+        writeNote("d");
+        temp.setLastModified(200000);
+        assertThat(cache.get(temp).getElementsByName("note").get(0).getAttribute("pname"), is("d"));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void evict() throws IOException {
+        writeNote("c");
+        long small = MeiCompactDocument.of(MeiXmlReader.loadFile(temp)).getEstimatedSize();
+        MeiDocumentCache cache = new MeiDocumentCache(small * 2);
+        MeiCompactDocument doc = cache.get(temp);
+        assertThat(cache.size(), is(1));
+        // Too big to keep
+        cache.get(artic);
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getEstimatedSize(), is(0L));
+        assertThat(cache.get(temp), is(not(sameInstance(doc))));
+    }
+
+    @Test
+    public void missingFile() {
+        MeiDocumentCache cache = new MeiDocumentCache(Long.MAX_VALUE);
+        try {
+            cache.get(new File("nofile.mei"));
+            fail();
+        } catch (MeiXmlReadException e) {
+            // Not cached
+            assertThat(cache.size(), is(0));
+        }
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        final MeiDocumentCache cache = new MeiDocumentCache(Long.MAX_VALUE);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<MeiCompactDocument>> results = new ArrayList<Future<MeiCompactDocument>>();
+        for (int i = 0; i < 16; i++) {
+            results.add(executor.submit(new Callable<MeiCompactDocument>() {
+                public MeiCompactDocument call() {
+                    return cache.get(artic);
+                }
+            }));
+        }
+        MeiCompactDocument first = results.get(0).get();
+        for (Future<MeiCompactDocument> f : results) {
+            assertThat(f.get(), is(sameInstance(first)));
+        }
+        executor.shutdown();
+    }
+}
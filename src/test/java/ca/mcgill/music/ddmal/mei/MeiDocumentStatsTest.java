@@ -0,0 +1,140 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URISyntaxException;
+
+import org.junit.Test;
+
+import ca.mcgill.music.ddmal.mei.MeiXmlReader.MeiXmlReadException;
+
+public class MeiDocumentStatsTest {
+
+    private static final String DOC = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+            + "<music><layer><note pname=\"c\" oct=\"4\"/><note pname=\"d\"/><!--x--></layer>ab</music></mei>";
+
+    @Test
+    public void testRead() {
+        MeiDocumentStats stats = MeiXmlReader.loadDocument(DOC).getStats();
+        assertThat(stats.getElementCount(), is(6));
+        assertThat(stats.getCount(MeiTag.NOTE), is(2));
+        assertThat(stats.getCount("#comment"), is(1));
+        assertThat(stats.getCounts().get("music"), is(1));
+        assertThat(stats.getMaxDepth(), is(4));
+        assertThat(stats.getAttributeCount(), is(5));
+        assertThat(stats.getTextLength(), is(3L));
+    }
+
+    @Test
+    public void testSameAsCounting() throws URISyntaxException {
+        File f = new File(getClass().getResource("/artic.mei").toURI());
+        MeiDocument doc = MeiXmlReader.loadFile(f);
+        MeiDocumentStats read = doc.getStats();
+        MeiDocumentStats counted = MeiDocumentStats.of(doc.getRootElement());
+        assertThat(read.getCounts(), is(counted.getCounts()));
+        assertThat(read.getMaxDepth(), is(counted.getMaxDepth()));
+        assertThat(read.getAttributeCount(), is(counted.getAttributeCount()));
+        assertThat(read.getTextLength(), is(counted.getTextLength()));
+        assertThat(read.getEstimatedSize(), is(counted.getEstimatedSize()));
+    }
+
+    @Test
+    public void testUpdate() {
+        MeiDocument doc = MeiXmlReader.loadDocument(DOC);
+        MeiDocumentStats stats = doc.getStats();
+        long size = stats.getEstimatedSize();
+        MeiElement layer = doc.getElementsByName("layer").get(0);
+
+        MeiElement chord = new MeiElement("chord");
+        MeiElement note = new MeiElement("note");
+        note.addAttribute("pname", "e");
+        chord.addChild(note);
+        layer.addChild(chord);
+        assertThat(stats.getCount(MeiTag.NOTE), is(3));
+        assertThat(stats.getMaxDepth(), is(5));
+        assertThat(stats.getAttributeCount(), is(6));
+        assertThat(stats.getEstimatedSize() > size, is(true));
+
+        note.setValue("abc");
+        assertThat(stats.getTextLength(), is(6L));
+        layer.removeChild(chord);
+        assertThat(stats.getCount(MeiTag.NOTE), is(2));
+        assertThat(stats.getCount("chord"), is(0));
+        assertThat(stats.getMaxDepth(), is(4));
+        assertThat(stats.getTextLength(), is(3L));
+        assertThat(stats.getEstimatedSize(), is(size));
+
+        // Changing the value of an attribute is counted too
+        MeiAttribute pname = doc.getElementsByName("note").get(0).getAttributes().get(0);
+        String old = pname.getValue();
+        pname.setValue(old + "longer");
+        assertThat(stats.getEstimatedSize() > size, is(true));
+        pname.setValue(old);
+        assertThat(stats.getEstimatedSize(), is(size));
+    }
+
+    @Test
+    public void testTransaction() {
+        MeiDocument doc = MeiXmlReader.loadDocument(DOC);
+        MeiElement layer = doc.getElementsByName("layer").get(0);
+        doc.beginTransaction();
+        MeiElement note = new MeiElement("note");
+        layer.addChild(note);
+        note.addAttribute("pname", "e");
+        doc.endTransaction();
+        MeiDocumentStats stats = doc.getStats();
+        assertThat(stats.getCount(MeiTag.NOTE), is(3));
+        assertThat(stats.getAttributeCount(), is(6));
+    }
+
+    /**
+     * A document that was read only follows its changes once the counts
+     * are asked for, and changes before that make them be counted again.
+     */
+    @Test
+    public void testChangedBeforeAsked() {
+        MeiDocument doc = MeiXmlReader.loadDocument(DOC);
+        assertThat(doc.hasMutationListeners(), is(false));
+        MeiElement layer = doc.getElementsByName("layer").get(0);
+        layer.addChild(new MeiElement("note"));
+        MeiDocumentStats stats = doc.getStats();
+        assertThat(stats.getCount(MeiTag.NOTE), is(3));
+        assertThat(doc.hasMutationListeners(), is(true));
+        layer.addChild(new MeiElement("note"));
+        assertThat(stats.getCount(MeiTag.NOTE), is(4));
+    }
+
+    @Test
+    public void testNewDocument() {
+        MeiDocument doc = new MeiDocument();
+        assertThat(doc.getStats().getMaxDepth(), is(0));
+        MeiElement root = new MeiElement("mei");
+        root.addChild(new MeiElement("music"));
+        doc.setRootElement(root);
+        assertThat(doc.getStats().getElementCount(), is(2));
+        doc.setRootElement(null);
+        assertThat(doc.getStats().getElementCount(), is(0));
+        assertThat(doc.getStats().getEstimatedSize(), is(0L));
+    }
+
+    @Test
+    public void testLimits() {
+        try {
+            MeiXmlReader.loadDocument(DOC, new MeiReaderOptions().setMaxElements(4));
+            fail("Should have thrown an exception");
+        } catch (MeiXmlReadException e) {
+            assertThat(e.getMessage(), containsString("4 elements"));
+        }
+        try {
+            MeiXmlReader.loadDocument(DOC, new MeiReaderOptions().setMaxDepth(3));
+            fail("Should have thrown an exception");
+        } catch (MeiXmlReadException e) {
+            assertThat(e.getMessage(), containsString("3 deep"));
+        }
+        MeiXmlReader.loadDocument(DOC, new MeiReaderOptions().setMaxDepth(4).setMaxElements(5));
+    }
+}
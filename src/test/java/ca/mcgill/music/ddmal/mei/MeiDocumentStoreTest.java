@@ -0,0 +1,125 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.mcgill.music.ddmal.mei.MeiDocumentStore.MeiDocumentStoreException;
+
+public class MeiDocumentStoreTest {
+
+    private File file;
+    private MeiDocument artic;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("testmei", ".store");
+        URL url = getClass().getResource("/artic.mei");
+        artic = MeiXmlReader.loadFile(url.getFile());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private MeiDocument small() {
+        MeiDocument doc = new MeiDocument();
+        MeiElement mei = new MeiElement("mei");
+        doc.setRootElement(mei);
+        MeiElement note = new MeiElement("note");
+        note.addAttribute("pname", "c");
+        note.setValue("café ♯");
+        mei.addChild(note);
+        MeiElement other = new MeiElement(new MeiNamespace("http://example.com/ns", "ex"), "thing");
+        other.addAttribute(new MeiAttribute(new MeiNamespace("http://example.com/ns", "ex"), "a", "b"));
+        mei.addChild(other);
+        return doc;
+    }
+
+    @Test
+    public void writeAndRead() {
+        MeiDocumentStore.Writer writer = MeiDocumentStore.create(file);
+        writer.add("artic", artic);
+        writer.add("small", small());
+        writer.add("empty", new MeiDocument());
+        writer.close();
+
+        MeiDocumentStore store = MeiDocumentStore.open(file);
+        assertThat(store.size(), is(3));
+        assertThat(store.getKeys(), is(Arrays.asList("artic", "empty", "small")));
+        assertThat(store.contains("small"), is(true));
+        assertThat(store.contains("nothing"), is(false));
+        assertThat(store.getDocument("nothing"), is(nullValue()));
+
+        MeiCompactDocument doc = store.getDocument("artic");
+        store.close();
+        // Documents can still be read after the store is closed
+        assertThat(MeiXmlWriter.createDocument(doc.toDocument()), is(MeiXmlWriter.createDocument(artic)));
+        MeiCompactElement staffDef = doc.getElementById("P1");
+        assertThat(staffDef.getTag(), is(MeiTag.STAFF_DEF));
+        assertThat(staffDef.getAttribute("clef.shape"), is("G"));
+        assertThat(staffDef.getAncestor(MeiTag.SCORE).getName(), is("score"));
+        assertThat(doc.getElementsByName("note").size(), is(artic.getElementsByName("note").size()));
+
+        // The ids of the small document were generated, and are still left out
+        store = MeiDocumentStore.open(file);
+        MeiDocument stored = store.getDocument("small").toDocument();
+        store.close();
+        assertThat(MeiXmlWriter.createCanonicalDocument(stored), is(MeiXmlWriter.createCanonicalDocument(small())));
+    }
+
+    @Test
+    public void nonAscii() {
+        MeiDocumentStore.Writer writer = MeiDocumentStore.create(file);
+        MeiDocument small = small();
+        writer.add("småll", small);
+        writer.close();
+
+        MeiDocumentStore store = MeiDocumentStore.open(file);
+        assertThat(store.contains("småll"), is(true));
+        assertThat(store.contains("small"), is(false));
+        MeiCompactDocument doc = store.getDocument("småll");
+        store.close();
+        assertThat(MeiXmlWriter.createDocument(doc.toDocument()), is(MeiXmlWriter.createDocument(small)));
+        MeiCompactElement thing = doc.getRootElement().getChildrenByName("thing").get(0);
+        assertThat(thing.getTag(), is(MeiTag.UNKNOWN));
+        assertThat(thing.getNamespace().getPrefix(), is("ex"));
+        assertThat(doc.getElementsByName("note").get(0).getValue(), is("café ♯"));
+    }
+
+    @Test
+    public void empty() {
+        MeiDocumentStore.create(file).close();
+        MeiDocumentStore store = MeiDocumentStore.open(file);
+        assertThat(store.size(), is(0));
+        assertThat(store.getDocument("a"), is(nullValue()));
+        store.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateKey() {
+        MeiDocumentStore.Writer writer = MeiDocumentStore.create(file);
+        try {
+            writer.add("a", small());
+            writer.add("a", small());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test(expected = MeiDocumentStoreException.class)
+    public void notAStore() {
+        URL url = getClass().getResource("/artic.mei");
+        MeiDocumentStore.open(new File(url.getFile()));
+    }
+}
@@ -3,6 +3,12 @@ package ca.mcgill.music.ddmal.mei;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -60,4 +66,219 @@ public class MeiDocumentTest {
         d.setRootElement(e);
         assertThat(d.getElementsByName("same").size(), is(3));
     }
+
+    /** Keeps every batch of mutations it is sent. */
+    private static class RecordingListener implements MeiMutationListener {
+        private final List<List<MeiMutation>> batches = new ArrayList<List<MeiMutation>>();
+
+        public void mutated(MeiDocument document, List<MeiMutation> mutations) {
+            batches.add(mutations);
+        }
+    }
+
+    @Test
+    public void mutationListener() {
+        MeiDocument d = new MeiDocument();
+        d.setRootElement(e);
+        RecordingListener listener = new RecordingListener();
+        d.addMutationListener(listener);
+
+        MeiElement m = new MeiElement("m");
+        i.addChild(m);
+        k.setValue("text");
+        l.addAttribute("pname", "c");
+        g.removeChild(i);
+        // i is no longer in the document
+        i.setTail("tail");
+
+        assertThat(listener.batches.size(), is(4));
+        MeiMutation added = listener.batches.get(0).get(0);
+        assertThat(added.getType(), is(MeiMutation.Type.CHILD_ADDED));
+        assertThat(added.getElement(), is(i));
+        assertThat(added.getChild(), is(m));
+        assertThat(added.getIndex(), is(0));
+
+        MeiMutation value = listener.batches.get(1).get(0);
+        assertThat(value.getType(), is(MeiMutation.Type.VALUE_CHANGED));
+        assertThat(value.getOldValue(), is(nullValue()));
+        assertThat(value.getNewValue(), is("text"));
+
+        assertThat(listener.batches.get(2).get(0).getType(), is(MeiMutation.Type.ATTRIBUTE_ADDED));
+        assertThat(listener.batches.get(2).get(0).getAttribute().getValue(), is("c"));
+
+        MeiMutation removed = listener.batches.get(3).get(0);
+        assertThat(removed.getType(), is(MeiMutation.Type.CHILD_REMOVED));
+        assertThat(removed.getChild(), is(i));
+        assertThat(removed.getIndex(), is(1));
+
+        d.removeMutationListener(listener);
+        k.setValue("more");
+        assertThat(listener.batches.size(), is(4));
+    }
+
+    /**
+     * Listeners are called after the change, so they see the element
+     * without the removed attributes.
+     */
+    @Test
+    public void removeAllAttributesMutation() {
+        MeiDocument d = new MeiDocument();
+        d.setRootElement(e);
+        l.addAttribute("pname", "c");
+        l.addAttribute("oct", "4");
+        final List<Integer> sizes = new ArrayList<Integer>();
+        d.addMutationListener(new MeiMutationListener() {
+            public void mutated(MeiDocument document, List<MeiMutation> mutations) {
+                sizes.add(mutations.get(0).getElement().getAttributes().size());
+            }
+        });
+
+        l.removeAllAttributes();
+        assertThat(sizes, is(Arrays.asList(0, 0)));
+    }
+
+    @Test
+    public void attributeValueMutation() {
+        MeiDocument d = new MeiDocument();
+        d.setRootElement(e);
+        MeiAttribute pname = new MeiAttribute("pname", "c");
+        l.addAttribute(pname);
+        RecordingListener listener = new RecordingListener();
+        d.addMutationListener(listener);
+
+        l.getAttributes().get(0).setValue("d");
+        assertThat(listener.batches.size(), is(1));
+        MeiMutation changed = listener.batches.get(0).get(0);
+        assertThat(changed.getType(), is(MeiMutation.Type.ATTRIBUTE_CHANGED));
+        assertThat(changed.getElement(), is(l));
+        assertThat(changed.getAttribute(), is(pname));
+        assertThat(changed.getOldValue(), is("c"));
+        assertThat(changed.getNewValue(), is("d"));
+
+        // A removed attribute no longer belongs to the element
+        l.removeAttribute(pname);
+        pname.setValue("e");
+        assertThat(listener.batches.size(), is(2));
+    }
+
+    @Test
+    public void rootMutation() {
+        MeiDocument d = new MeiDocument();
+        d.setRootElement(e);
+        RecordingListener listener = new RecordingListener();
+        d.addMutationListener(listener);
+        MeiElement newRoot = new MeiElement("mei");
+        d.setRootElement(newRoot);
+
+        List<MeiMutation> batch = listener.batches.get(1);
+        assertThat(listener.batches.get(0).get(0).getType(), is(MeiMutation.Type.CHILD_REMOVED));
+        assertThat(listener.batches.get(0).get(0).getChild(), is(e));
+        assertThat(batch.get(0).getType(), is(MeiMutation.Type.CHILD_ADDED));
+        assertThat(batch.get(0).getElement(), is(nullValue()));
+        assertThat(e.getDocument(), is(nullValue()));
+        assertThat(newRoot.getDocument(), is(d));
+        assertThat(f.getDocument(), is(nullValue()));
+    }
+
+    @Test
+    public void transaction() {
+        MeiDocument d = new MeiDocument();
+        d.setRootElement(e);
+        RecordingListener listener = new RecordingListener();
+        d.addMutationListener(listener);
+
+        d.beginTransaction();
+        k.setValue("one");
+        l.removeAllAttributes();
+        d.beginTransaction();
+        k.setValue("two");
+        l.setTail("tail");
+        l.setTail(null);
+        d.endTransaction();
+        assertThat(listener.batches.size(), is(0));
+        k.setValue("three");
+        d.endTransaction();
+
+        assertThat(listener.batches.size(), is(1));
+        List<MeiMutation> batch = listener.batches.get(0);
+        // The value changes are combined, and the tail went back to how it was
+        assertThat(batch.size(), is(1));
+        assertThat(batch.get(0).getOldValue(), is(nullValue()));
+        assertThat(batch.get(0).getNewValue(), is("three"));
+    }
+
+    @Test
+    public void renumberIds() {
+        String docText = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\"><music>"
+                + "<measure n=\"12\"><staff n=\"2\"><layer><note xml:id=\"a\"/><note xml:id=\"b\"/></layer></staff>"
+                + "<slur startid=\"#a\" endid=\"#b\" plist=\"#a  #b #other\" label=\"#a\"/></measure>"
+                + "<measure n=\"13\"><staff n=\"2\"><layer><note/></layer></staff></measure>"
+                + "</music></mei>";
+        MeiDocument d = MeiXmlReader.loadDocument(docText);
+        RecordingListener listener = new RecordingListener();
+        d.addMutationListener(listener);
+        MeiIdScheme scheme = new MeiPathIdScheme()
+                .abbreviate("measure", "m").abbreviate("staff", "s").abbreviate("note", "n")
+                .scope("measure", "staff");
+        Map<String, String> changed = d.renumberIds(scheme);
+
+        assertThat(changed.get("a"), is("m12-s2-n1"));
+        assertThat(d.getRootElement().getId(), is("mei1"));
+        MeiElement measure = d.getElementsByName("measure").get(0);
+        assertThat(measure.getId(), is("m12"));
+        assertThat(d.getElementById("m12-s2-layer1"), is(measure.getChildren().get(0).getChildren().get(0)));
+        assertThat(d.getElementById("m13-s2-n1").getName(), is("note"));
+        MeiElement slur = measure.getChildren().get(1);
+        assertThat(slur.getId(), is("m12-slur1"));
+        assertThat(slur.getAttribute("startid"), is("#m12-s2-n1"));
+        assertThat(slur.getAttribute("endid"), is("#m12-s2-n2"));
+        assertThat(slur.getAttribute("plist"), is("#m12-s2-n1  #m12-s2-n2 #other"));
+        // Not a reference attribute
+        assertThat(slur.getAttribute("label"), is("#a"));
+        assertThat(listener.batches.size(), is(1));
+    }
+
+    /**
+     * References without a '#', as in the README, are updated and stay
+     * without one.
+     */
+    @Test
+    public void renumberBareReferences() {
+        String docText = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\"><music>"
+                + "<note xml:id=\"anote\"/><note xml:id=\"anothernote\"/>"
+                + "<tie xml:id=\"atie\" startid=\"anote\" endid=\"anothernote\" plist=\"anote #anothernote\"/>"
+                + "</music></mei>";
+        MeiDocument d = MeiXmlReader.loadDocument(docText);
+        d.renumberIds(new MeiPathIdScheme().abbreviate("note", "n"));
+
+        MeiElement tie = d.getElementsByName("tie").get(0);
+        assertThat(tie.getAttribute("startid"), is("n1"));
+        assertThat(tie.getAttribute("endid"), is("n2"));
+        assertThat(tie.getAttribute("plist"), is("n1 #n2"));
+        assertThat(d.getElementById(tie.getAttribute("startid")).getName(), is("note"));
+    }
+
+    @Test
+    public void renumberDuplicateIds() {
+        MeiDocument d = new MeiDocument();
+        d.setRootElement(e);
+        MeiIdScheme scheme = new MeiIdScheme() {
+            public String newId(MeiElement element) {
+                return element.getName();
+            }
+        };
+        try {
+            d.renumberIds(scheme);
+            fail("Should have thrown an exception");
+        } catch (IllegalArgumentException ex) {
+            assertThat(ex.getMessage().contains("same"), is(true));
+        }
+        assertThat(e.getId(), is("id-e"));
+        assertThat(h.getId(), is("id-h"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endWithoutTransaction() {
+        new MeiDocument().endTransaction();
+    }
 }
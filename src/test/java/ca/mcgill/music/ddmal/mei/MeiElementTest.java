@@ -3,8 +3,14 @@ package ca.mcgill.music.ddmal.mei;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -79,6 +85,13 @@ public class MeiElementTest {
         assertThat(e.getAttributes().get(0).getName(), is("key"));
     }
 
+    @Test(expected = UnsupportedOperationException.class)
+    public void attributesUnmodifiable() {
+        MeiElement e = new MeiElement("element");
+        e.addAttribute("key", "1");
+        e.getAttributes().add(new MeiAttribute("mode", "2"));
+    }
+
     @Test
     public void getAttribute() {
         MeiElement e = new MeiElement("element");
@@ -264,4 +277,187 @@ public class MeiElementTest {
         assertThat(g.getAncestor("foo"), is(nullValue()));
     }
 
+    @Test
+    public void testTag() {
+        assertThat(new MeiElement("note").getTag(), is(MeiTag.NOTE));
+        assertThat(new MeiElement("foo").getTag(), is(MeiTag.UNKNOWN));
+        MeiNamespace ns = new MeiNamespace("http://example.com", "ex");
+        assertThat(new MeiElement(ns, "note").getTag(), is(MeiTag.UNKNOWN));
+    }
+
+    @Test
+    public void getByTag() {
+        MeiElement e = new MeiElement("measure");
+        MeiElement staff = new MeiElement("staff");
+        MeiElement note = new MeiElement("note");
+        MeiElement other = new MeiElement(new MeiNamespace("http://example.com", "ex"), "note");
+        e.addChild(staff);
+        staff.addChild(note);
+        staff.addChild(other);
+
+        assertThat(e.getChildrenByTag(MeiTag.STAFF).size(), is(1));
+        assertThat(e.getDescendantsByTag(MeiTag.NOTE).size(), is(1));
+        assertThat(e.getDescendantsByTag(MeiTag.NOTE).get(0), is(note));
+        // Lookups by name still find elements from other namespaces
+        assertThat(e.getDescendantsByName("note").size(), is(2));
+        assertThat(note.getAncestor(MeiTag.MEASURE), is(e));
+        assertThat(note.getAncestor(MeiTag.LAYER), is(nullValue()));
+    }
+
+    @Test
+    public void typedAttributes() {
+        MeiElement e = new MeiElement("note");
+        e.addAttribute(MeiAttributeName.OCT, "4");
+        e.addAttribute(MeiAttributeName.TSTAMP, "1.5");
+        e.addAttribute(MeiAttributeName.VISIBLE, "false");
+
+        assertThat(e.getIntAttribute(MeiAttributeName.OCT, 0), is(4));
+        assertThat(e.getIntAttribute(MeiAttributeName.DOTS, 0), is(0));
+        assertThat(e.getDoubleAttribute(MeiAttributeName.TSTAMP, 0), is(1.5));
+        assertThat(e.getBooleanAttribute(MeiAttributeName.VISIBLE, true), is(false));
+        assertThat(e.getBooleanAttribute(MeiAttributeName.GRACE, true), is(true));
+    }
+
+    @Test
+    public void descendantStream() {
+        URL url = getClass().getResource("/artic.mei");
+        MeiElement root = MeiXmlReader.loadFile(url.getFile()).getRootElement();
+        List<MeiElement> expected = root.getDescendants();
+
+        assertThat(root.descendants().collect(Collectors.toList()), is(expected));
+        assertThat(root.descendants().parallel().collect(Collectors.toList()), is(expected));
+        assertThat(root.descendants().parallel().filter(e -> e.getTag() == MeiTag.NOTE).count(),
+                is((long) root.getDescendantsByTag(MeiTag.NOTE).size()));
+        assertThat(el2.descendants().count(), is(0L));
+    }
+
+    @Test
+    public void descendantSplit() {
+        URL url = getClass().getResource("/artic.mei");
+        MeiElement root = MeiXmlReader.loadFile(url.getFile()).getRootElement();
+        List<MeiElement> visited = new ArrayList<MeiElement>();
+        split(new MeiDescendantSpliterator(root), 6, visited);
+        assertThat(visited, is(root.getDescendants()));
+    }
+
+    private void split(Spliterator<MeiElement> s, int depth, List<MeiElement> visited) {
+        Spliterator<MeiElement> prefix = depth > 0 ? s.trySplit() : null;
+        if (prefix != null) {
+            split(prefix, depth - 1, visited);
+            // Take one element before splitting again
+            s.tryAdvance(visited::add);
+            split(s, depth - 1, visited);
+        } else {
+            s.forEachRemaining(visited::add);
+        }
+    }
+
+    @Test
+    public void axisStreams() {
+        MeiElement a = el.getChildren().get(0);
+        MeiElement e = el.getChildren().get(2);
+        MeiElement b = el.getChildren().get(3);
+        MeiElement note = new MeiElement("note");
+        note.addAttribute("pname", "c");
+        note.addAttribute("accid", "s");
+        e.addChild(note);
+
+        assertThat(el.children().collect(Collectors.toList()), is(el.getChildren()));
+        assertThat(note.ancestors().collect(Collectors.toList()), is(Arrays.asList(e, el)));
+        assertThat(el.ancestors().count(), is(0L));
+        assertThat(el2.followingSiblings().collect(Collectors.toList()), is(Arrays.asList(e, b)));
+        assertThat(el2.precedingSiblings().collect(Collectors.toList()), is(Arrays.asList(a)));
+        assertThat(b.precedingSiblings().collect(Collectors.toList()), is(Arrays.asList(e, el2, a)));
+        assertThat(a.precedingSiblings().count(), is(0L));
+        assertThat(el.followingSiblings().count(), is(0L));
+        assertThat(note.attributes().map(MeiAttribute::getName).collect(Collectors.toList()),
+                is(Arrays.asList("pname", "accid")));
+        assertThat(el.descendants().filter(x -> x.getAttribute("accid") != null).findFirst().get(), is(note));
+    }
+
+    @Test
+    public void siblings() {
+        MeiElement a = el.getChildren().get(0);
+        MeiElement e = el.getChildren().get(2);
+        MeiElement b = el.getChildren().get(3);
+
+        assertThat(el.getIndexInParent(), is(-1));
+        assertThat(b.getIndexInParent(), is(3));
+        assertThat(a.getNextSibling(), is(el2));
+        assertThat(a.getPreviousSibling(), is(nullValue()));
+        assertThat(b.getNextSibling(), is(nullValue()));
+        assertThat(b.getPreviousSibling(), is(e));
+        assertThat(el.getNextSibling(), is(nullValue()));
+
+        MeiElement first = new MeiElement("first");
+        el.addChildBefore(a, first);
+        assertThat(a.getIndexInParent(), is(1));
+        assertThat(b.getIndexInParent(), is(4));
+        assertThat(a.getPreviousSibling(), is(first));
+
+        el.removeChild(el2);
+        assertThat(el2.getIndexInParent(), is(-1));
+        assertThat(a.getNextSibling(), is(e));
+        assertThat(e.getIndexInParent(), is(2));
+
+        el.removeChildrenByName("first");
+        assertThat(a.getIndexInParent(), is(0));
+        assertThat(b.getIndexInParent(), is(2));
+
+        el.removeAllChildren();
+        assertThat(b.getIndexInParent(), is(-1));
+        assertThat(b.getPreviousSibling(), is(nullValue()));
+    }
+
+    /**
+     * The list of children can't be changed around the stored positions.
+     */
+    @Test
+    public void childrenUnmodifiable() {
+        MeiElement p = new MeiElement("p");
+        MeiElement x = new MeiElement("x");
+        MeiElement y = new MeiElement("y");
+        p.addChild(x);
+        p.addChild(y);
+        try {
+            p.getChildren().add(0, new MeiElement("z"));
+            fail("The list of children was changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        p.removeChild(y);
+        assertThat(p.getChildren(), is(Arrays.asList(x)));
+        assertThat(y.getParent(), is(nullValue()));
+        assertThat(x.getIndexInParent(), is(0));
+    }
+
+    @Test
+    public void documentOrder() {
+        URL url = getClass().getResource("/artic.mei");
+        MeiElement root = MeiXmlReader.loadFile(url.getFile()).getRootElement();
+        List<MeiElement> expected = root.getDescendants();
+
+        List<MeiElement> forward = new ArrayList<MeiElement>();
+        for (MeiElement e = root.getNextInDocument(root); e != null; e = e.getNextInDocument(root)) {
+            forward.add(e);
+        }
+        assertThat(forward, is(expected));
+
+        MeiElement last = expected.get(expected.size() - 1);
+        assertThat(last.getNextInDocument(null), is(nullValue()));
+        List<MeiElement> backward = new ArrayList<MeiElement>();
+        for (MeiElement e = last; e != root; e = e.getPreviousInDocument(root)) {
+            backward.add(0, e);
+        }
+        assertThat(backward, is(expected));
+        assertThat(root.getPreviousInDocument(null), is(nullValue()));
+
+        // Stay within a subtree
+        MeiElement staff = root.getDescendantsByName("staff").get(0);
+        List<MeiElement> inStaff = new ArrayList<MeiElement>();
+        for (MeiElement e = staff.getNextInDocument(staff); e != null; e = e.getNextInDocument(staff)) {
+            inStaff.add(e);
+        }
+        assertThat(inStaff, is(staff.getDescendants()));
+    }
 }
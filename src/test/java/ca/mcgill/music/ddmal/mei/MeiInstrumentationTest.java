@@ -0,0 +1,74 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MeiInstrumentationTest {
+
+    private static final String DOC = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+            + "<music><note pname=\"c\" oct=\"4\"/></music></mei>";
+
+    private final List<MeiMetrics> recorded = new ArrayList<MeiMetrics>();
+    private final MeiMetricsListener listener = new MeiMetricsListener() {
+        public void recorded(MeiMetrics metrics) {
+            recorded.add(metrics);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        MeiInstrumentation.addListener(listener);
+    }
+
+    @After
+    public void tearDown() {
+        MeiInstrumentation.removeListener(listener);
+    }
+
+    @Test
+    public void testRead() {
+        MeiXmlReader.loadDocument(DOC);
+        assertThat(recorded.size(), is(1));
+        MeiMetrics m = recorded.get(0);
+        assertThat(m.getOperation(), is(MeiMetrics.Operation.READ));
+        assertThat(m.getBytes(), is((long) DOC.length()));
+        assertThat(m.getElements(), is(3));
+        // xmlns and meiversion on the root, and two on the note
+        assertThat(m.getAttributes(), is(4));
+        assertThat(m.getSerializeNanos(), is(0L));
+        assertThat(m.getTotalNanos() > 0, is(true));
+
+        MeiXmlReader.parseFragment(new ByteArrayInputStream("<note/>".getBytes()));
+        assertThat(recorded.get(1).getBytes(), is(7L));
+    }
+
+    @Test
+    public void testWrite() {
+        MeiDocument doc = MeiXmlReader.loadDocument(DOC);
+        recorded.clear();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MeiXmlWriter.writeElement(doc.getRootElement(), os);
+        assertThat(recorded.size(), is(1));
+        MeiMetrics m = recorded.get(0);
+        assertThat(m.getOperation(), is(MeiMetrics.Operation.WRITE));
+        assertThat(m.getBytes(), is((long) os.size()));
+        assertThat(m.getElements(), is(3));
+        assertThat(m.getParseNanos(), is(0L));
+    }
+
+    @Test
+    public void testRemoveListener() {
+        MeiInstrumentation.removeListener(listener);
+        MeiXmlReader.loadDocument(DOC);
+        assertThat(recorded.size(), is(0));
+    }
+}
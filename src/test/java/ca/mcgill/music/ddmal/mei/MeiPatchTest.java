@@ -0,0 +1,108 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.mcgill.music.ddmal.mei.MeiPatch.Edit;
+import ca.mcgill.music.ddmal.mei.MeiPatch.MeiPatchException;
+
+public class MeiPatchTest {
+
+    private MeiDocument doc;
+    private MeiElement root;
+
+    @Before
+    public void setup() {
+        doc = new MeiDocument();
+        root = new MeiElement("mei", "r");
+        root.addChild(new MeiElement("a", "a"));
+        root.addChild(new MeiElement("b", "b"));
+        doc.setRootElement(root);
+    }
+
+    private MeiPatch patch(Edit... edits) {
+        List<Edit> list = new ArrayList<Edit>();
+        for (Edit e : edits) {
+            list.add(e);
+        }
+        return new MeiPatch(list);
+    }
+
+    @Test
+    public void insertFirst() {
+        patch(Edit.insert("r", null, new MeiElement("c", "c"))).apply(doc);
+        assertThat(root.getChildren().size(), is(3));
+        assertThat(root.getChildren().get(0).getId(), is("c"));
+    }
+
+    @Test
+    public void insertCopiesElement() {
+        MeiElement c = new MeiElement("c", "c");
+        MeiPatch p = patch(Edit.insert("r", "a", c));
+        p.apply(doc);
+        assertThat(root.getChildren().get(1).getId(), is("c"));
+        assertThat(c.getParent(), is(nullValue()));
+    }
+
+    @Test
+    public void renameAndDelete() {
+        // The inserted element reuses the id of the deleted one
+        patch(Edit.id("a", "a2"),
+                Edit.insert("r", "b", new MeiElement("c", "a")),
+                Edit.delete("a")).apply(doc);
+        assertThat(root.getChildren().size(), is(2));
+        assertThat(root.getChildren().get(0).getId(), is("b"));
+        assertThat(root.getChildren().get(1).getName(), is("c"));
+    }
+
+    @Test
+    public void renameThenMove() {
+        patch(Edit.id("a", "a2"), Edit.move("a2", "r", "b")).apply(doc);
+        assertThat(root.getChildren().get(1).getId(), is("a2"));
+        assertThat(doc.getElementById("a"), is(nullValue()));
+    }
+
+    @Test
+    public void xmlRoundTrip() {
+        MeiElement c = new MeiElement("c", "c");
+        c.setTail("after c");
+        MeiAttribute title = new MeiAttribute(new MeiNamespace("http://www.w3.org/1999/xlink", "xlink"), "xlink:title", "t");
+        MeiPatch p = patch(Edit.insert("r", "a", c),
+                Edit.attributes("a", java.util.Arrays.asList(new MeiAttribute("n", "1"), title)),
+                Edit.value("a", MeiText.of("x").appendCData("<y>")),
+                Edit.value("b", ""),
+                Edit.tail("b", (MeiText) null),
+                Edit.move("a", "r", null),
+                Edit.id("b", "b2"),
+                Edit.delete("c"));
+        String xml = p.toXml();
+        MeiPatch read = MeiPatch.fromXml(xml);
+        assertThat(read.toXml(), is(xml));
+        assertThat(read.getEdits().size(), is(8));
+        assertThat(read.getEdits().get(0).getElement().getTail(), is("after c"));
+        assertThat(read.getEdits().get(1).getAttributes().get(1).getNamespace().getHref(),
+                is("http://www.w3.org/1999/xlink"));
+        assertThat(read.getEdits().get(2).getText(), is("x<y>"));
+        assertThat(read.getEdits().get(3).getText(), is(""));
+        assertThat(read.getEdits().get(4).getText(), is(nullValue()));
+        assertThat(read.getEdits().get(5).getAfterId(), is(nullValue()));
+        assertThat(read.getEdits().get(6).getNewId(), is("b2"));
+    }
+
+    @Test(expected = MeiPatchException.class)
+    public void xmlUnknownEdit() {
+        MeiPatch.fromXml("<patch><rename id=\"a\"/></patch>");
+    }
+
+    @Test(expected = MeiPatchException.class)
+    public void missingElement() {
+        patch(Edit.value("nothere", "text")).apply(doc);
+    }
+}
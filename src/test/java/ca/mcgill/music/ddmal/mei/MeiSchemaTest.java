@@ -0,0 +1,89 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.mcgill.music.ddmal.mei.MeiSchema.MeiValidationException;
+import ca.mcgill.music.ddmal.mei.MeiXmlReader.MeiXmlReadException;
+
+public class MeiSchemaTest {
+
+    private static final String VALID = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+            + "<note pname=\"c\"/><note xml:id=\"n2\" pname=\"d\"/></mei>";
+    private static final String INVALID = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+            + "<note pname=\"h\"/><rest/></mei>";
+
+    private MeiSchema schema;
+
+    @Before
+    public void setup() {
+        URL url = getClass().getResource("/test-schema.xsd");
+        schema = MeiSchema.load(url);
+    }
+
+    @Test
+    public void schemaIsCached() {
+        URL url = getClass().getResource("/test-schema.xsd");
+        assertThat(MeiSchema.load(url), is(sameInstance(schema)));
+    }
+
+    @Test
+    public void validDocument() {
+        MeiDocument doc = MeiXmlReader.loadDocument(VALID);
+        schema.validate(doc);
+    }
+
+    @Test
+    public void invalidDocument() {
+        MeiDocument doc = MeiXmlReader.loadDocument(VALID);
+        doc.getRootElement().addChild(new MeiElement("rest"));
+        try {
+            schema.validate(doc);
+            fail("Should have thrown an exception");
+        } catch (MeiValidationException e) {
+            assertThat(e.getErrors().size(), is(1));
+            assertThat(e.getMessage(), containsString("rest"));
+        }
+    }
+
+    @Test
+    public void validateStream() throws Exception {
+        schema.validate(new ByteArrayInputStream(VALID.getBytes("UTF-8")));
+        try {
+            schema.validate(new ByteArrayInputStream(INVALID.getBytes("UTF-8")));
+            fail("Should have thrown an exception");
+        } catch (MeiValidationException e) {
+            // Both the bad pname and the unknown element are reported
+            assertThat(e.getErrors().size() >= 2, is(true));
+            assertThat(e.getErrors().get(0), containsString("line 1"));
+        }
+    }
+
+    @Test
+    public void validateWhileReading() {
+        MeiReaderOptions options = new MeiReaderOptions().setSchema(schema);
+        MeiDocument doc = MeiXmlReader.loadDocument(VALID, options);
+        assertThat(doc.getElementById("n2").getAttribute("pname"), is("d"));
+        try {
+            MeiXmlReader.loadDocument(INVALID, options);
+            fail("Should have thrown an exception");
+        } catch (MeiValidationException e) {
+            // Both the bad pname and the unknown element are reported
+            assertThat(e.getErrors().size() >= 2, is(true));
+        }
+    }
+
+    @Test(expected = MeiXmlReadException.class)
+    public void missingSchema() {
+        MeiSchema.load(new java.io.File("noschema.xsd"));
+    }
+}
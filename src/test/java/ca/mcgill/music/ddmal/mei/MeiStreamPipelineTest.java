@@ -0,0 +1,101 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class MeiStreamPipelineTest {
+
+    private static final String DOC = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\" xml:id=\"m-1\">"
+            + "<measure xml:id=\"m-2\" facs=\"#z1\">"
+            + "<note xml:id=\"m-3\" pname=\"c\"/>"
+            + "<annot xml:id=\"m-4\">remove <p>me</p></annot>"
+            + "<slur xml:id=\"m-5\" startid=\"#m-3\" plist=\"#m-3 #x-9\" facs=\"#z2\"/>"
+            + "text<!--comment--></measure></mei>";
+
+    /**
+     * With no stages, the output is what the writer makes of the document.
+     */
+    @Test
+    public void testUnchanged() throws URISyntaxException, IOException {
+        File file = new File(getClass().getResource("/artic.mei").toURI());
+        String expected = MeiXmlWriter.createDocument(MeiXmlReader.loadFile(file));
+        String streamed = new MeiStreamPipeline().transform(FileUtils.readFileToString(file, "UTF-8"));
+        String generatedId = " xml:id=\"[-0-9a-f]{36}\"";
+        assertThat(streamed.replaceAll(generatedId, ""), is(expected.replaceAll(generatedId, "")));
+    }
+
+    @Test
+    public void testStages() {
+        Map<String, String> names = new HashMap<String, String>();
+        names.put("slur", "tie");
+        Map<String, String> pnames = new HashMap<String, String>();
+        pnames.put("c", "d");
+        String out = new MeiStreamPipeline(MeiStreamStage.remove("annot"), MeiStreamStage.removeAttributes("facs"))
+                .then(MeiStreamStage.rename(names))
+                .then(MeiStreamStage.replaceAttributeValues("pname", pnames))
+                .then(MeiStreamStage.replaceIdPrefix("m-", "mov1-"))
+                .transform(DOC);
+
+        MeiElement root = MeiXmlReader.loadDocument(out).getRootElement();
+        assertThat(root.getId(), is("mov1-1"));
+        MeiElement measure = root.getChildren().get(0);
+        assertThat(measure.getAttribute("facs"), is(nullValue()));
+        assertThat(measure.getChildren().size(), is(3));
+        MeiElement note = measure.getChildren().get(0);
+        assertThat(note.getId(), is("mov1-3"));
+        assertThat(note.getAttribute("pname"), is("d"));
+        MeiElement tie = measure.getChildren().get(1);
+        assertThat(tie.getName(), is("tie"));
+        assertThat(tie.getId(), is("mov1-5"));
+        assertThat(tie.getAttribute("startid"), is("#mov1-3"));
+        assertThat(tie.getAttribute("plist"), is("#mov1-3 #x-9"));
+        assertThat(tie.getAttribute("facs"), is(nullValue()));
+        assertThat(tie.getTail(), is("text"));
+        assertThat(measure.getChildren().get(2).getValue(), is("comment"));
+    }
+
+    /**
+     * A stage can keep state between events, e.g. to number elements.
+     */
+    @Test
+    public void testCustomStage() {
+        MeiStreamStage numberNotes = new MeiStreamStage() {
+            private int notes;
+
+            @Override
+            public void startDocument() {
+                notes = 0;
+            }
+
+            @Override
+            public MeiElement startElement(MeiElement element) {
+                if (element.getName().equals("note")) {
+                    element.addAttribute("n", Integer.toString(++notes));
+                }
+                return element;
+            }
+
+            @Override
+            public MeiText text(MeiText text) {
+                return null;
+            }
+        };
+        MeiStreamPipeline pipeline = new MeiStreamPipeline(numberNotes);
+        pipeline.transform(DOC);
+        MeiReaderOptions discard = new MeiReaderOptions().setWhitespace(MeiReaderOptions.Whitespace.DISCARD);
+        MeiElement measure = MeiXmlReader.loadDocument(pipeline.transform(DOC), discard).getRootElement().getChildren().get(0);
+        assertThat(measure.getChildren().get(0).getAttribute("n"), is("1"));
+        assertThat(measure.getChildren().get(2).getTail(), is(nullValue()));
+    }
+}
@@ -0,0 +1,197 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsNull.nullValue;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import ca.mcgill.music.ddmal.mei.MeiXmlReader.SubtreeHandler;
+
+public class MeiSubtreePublisherTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** Reads on the thread that subscribes. */
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final String CORPUS = "<meiCorpus xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+            + "<meiHead/>"
+            + "<mei><music><measure n=\"1\"><note/></measure>\n<measure n=\"2\"/>tail</music></mei>"
+            + "<mei><music><measure n=\"3\"/></music></mei>"
+            + "</meiCorpus>";
+
+    /**
+     * Asks for one subtree at a time, and cancels after a number of them.
+     */
+    private static class Collector implements Flow.Subscriber<MeiElement> {
+        final List<MeiElement> elements = Collections.synchronizedList(new ArrayList<MeiElement>());
+        final CountDownLatch done = new CountDownLatch(1);
+        final int cancelAfter;
+        Flow.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        Collector(int cancelAfter) {
+            this.cancelAfter = cancelAfter;
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        public void onNext(MeiElement item) {
+            elements.add(item);
+            if (elements.size() == cancelAfter) {
+                subscription.cancel();
+                done.countDown();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+
+    private static MeiSubtreePublisher publisher(String... paths) {
+        return new MeiSubtreePublisher(new ByteArrayInputStream(CORPUS.getBytes(UTF_8)), new MeiReaderOptions(), paths)
+                .setExecutor(SAME_THREAD);
+    }
+
+    @Test
+    public void testMeasures() {
+        Collector collector = new Collector(0);
+        publisher("measure").subscribe(collector);
+        assertThat(collector.completed, is(true));
+        assertThat(collector.elements.size(), is(3));
+        MeiElement first = collector.elements.get(0);
+        assertThat(first.getAttribute("n"), is("1"));
+        assertThat(first.getChildren().size(), is(1));
+        assertThat(first.getParent(), is(nullValue()));
+        // The text after a published subtree isn't kept
+        assertThat(collector.elements.get(1).getTail(), is(nullValue()));
+        assertThat(collector.elements.get(2).getAttribute("n"), is("3"));
+    }
+
+    /**
+     * Subtrees inside a published subtree stay in it.
+     */
+    @Test
+    public void testNested() {
+        Collector collector = new Collector(0);
+        publisher("/meiCorpus/mei", "measure").subscribe(collector);
+        assertThat(collector.elements.size(), is(2));
+        assertThat(collector.elements.get(0).getName(), is("mei"));
+        assertThat(collector.elements.get(0).getDescendantsByName("measure").size(), is(2));
+    }
+
+    /**
+     * Elements outside the published subtrees aren't kept in the tree.
+     */
+    @Test
+    public void testOutsideDropped() {
+        final List<MeiElement> subtrees = new ArrayList<MeiElement>();
+        MeiElement root = MeiXmlReader.readSubtrees(new InputSource(new ByteArrayInputStream(CORPUS.getBytes(UTF_8))),
+                new MeiReaderOptions(), new SubtreeHandler() {
+                    public boolean isSubtree(List<String> path) {
+                        return path.get(path.size() - 1).equals("measure");
+                    }
+
+                    public void subtree(MeiElement element) {
+                        subtrees.add(element);
+                    }
+                });
+        assertThat(subtrees.size(), is(3));
+        assertThat(root.getName(), is("meiCorpus"));
+        assertThat(root.getChildren().size(), is(0));
+    }
+
+    @Test
+    public void testCancel() {
+        Collector collector = new Collector(2);
+        publisher("measure").subscribe(collector);
+        assertThat(collector.elements.size(), is(2));
+        assertThat(collector.completed, is(false));
+        assertThat(collector.error, is(nullValue()));
+    }
+
+    @Test
+    public void testInvalidRequest() {
+        Collector collector = new Collector(0) {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(0);
+            }
+        };
+        publisher("measure").subscribe(collector);
+        assertThat(collector.error, instanceOf(IllegalArgumentException.class));
+        assertThat(collector.elements.size(), is(0));
+    }
+
+    @Test
+    public void testStreamOnce() {
+        MeiSubtreePublisher publisher = publisher("measure");
+        publisher.subscribe(new Collector(0));
+        Collector second = new Collector(0);
+        publisher.subscribe(second);
+        assertThat(second.error, instanceOf(IllegalStateException.class));
+    }
+
+    /**
+     * Reading waits on its own thread until the subscriber asks for more.
+     */
+    @Test
+    public void testBackpressure() throws URISyntaxException, InterruptedException {
+        File file = new File(getClass().getResource("/artic.mei").toURI());
+        Collector collector = new Collector(0) {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                done.countDown();
+            }
+
+            @Override
+            public void onNext(MeiElement item) {
+                elements.add(item);
+            }
+        };
+        new MeiSubtreePublisher(file, "note").subscribe(collector);
+        assertThat(collector.done.await(10, TimeUnit.SECONDS), is(true));
+        Thread.sleep(50);
+        assertThat(collector.elements.size(), is(0));
+        collector.subscription.request(1);
+        for (int i = 0; i < 1000 && collector.elements.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertThat(collector.elements.size(), is(1));
+        collector.subscription.cancel();
+    }
+}
@@ -0,0 +1,35 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class MeiTagTest {
+
+    @Test
+    public void forName() {
+        assertThat(MeiTag.forName("note"), is(MeiTag.NOTE));
+        assertThat(MeiTag.forName("staffDef"), is(MeiTag.STAFF_DEF));
+        assertThat(MeiTag.forName("mRpt2"), is(MeiTag.M_RPT2));
+        assertThat(MeiTag.forName("#comment"), is(MeiTag.COMMENT));
+    }
+
+    @Test
+    public void unknownName() {
+        assertThat(MeiTag.forName("notATag"), is(MeiTag.UNKNOWN));
+        // Names are case sensitive
+        assertThat(MeiTag.forName("Note"), is(MeiTag.UNKNOWN));
+        assertThat(MeiTag.UNKNOWN.getName(), is(nullValue()));
+    }
+
+    @Test
+    public void names() {
+        for (MeiTag tag : MeiTag.values()) {
+            if (tag != MeiTag.UNKNOWN) {
+                assertThat(MeiTag.forName(tag.getName()), is(tag));
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ca.mcgill.music.ddmal.mei;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class MeiTextTest {
+
+    @Test
+    public void segments() {
+        MeiText a = MeiText.of("a");
+        MeiText text = a.appendCData("b").append("c");
+        assertThat(text.toString(), is("abc"));
+        assertThat(text.length(), is(3));
+        assertThat(text.getSegments().size(), is(3));
+        assertThat(text.getSegments().get(1).getText(), is("b"));
+        assertThat(text.hasCData(), is(true));
+        // Appending makes a new text
+        assertThat(a.toString(), is("a"));
+        assertThat(a.hasCData(), is(false));
+    }
+
+    @Test
+    public void equality() {
+        assertThat(MeiText.of("a").append("b"), is(MeiText.of("a").append("b")));
+        assertThat(MeiText.of("a").append("b").hashCode(), is(MeiText.of("a").append("b").hashCode()));
+        assertThat(MeiText.of("ab"), is(not(MeiText.cdata("ab"))));
+    }
+}
@@ -2,14 +2,19 @@ package ca.mcgill.music.ddmal.mei;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.Charset;
 
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
 import static org.hamcrest.core.StringContains.containsString;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -17,6 +22,8 @@ import ca.mcgill.music.ddmal.mei.MeiXmlReader.MeiXmlReadException;
 
 public class MeiXmlReaderTest {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     /**
      * Test for an invalid MEI document. Since we have no schema validation or
      * element classes, we can't do this yet.
@@ -178,4 +185,195 @@ public class MeiXmlReaderTest {
         assertThat(a.getValue(), is("urn:foo"));
         assertThat(a.getNamespace().getHref(), is("http://www.w3.org/1999/xlink"));
     }
+
+    /**
+     * Known tags and attribute names are shared
+     */
+    @Test
+    public void testReadTag() {
+        String docText = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\"><note pname=\"c\"/></mei>";
+        MeiDocument doc = MeiXmlReader.loadDocument(docText);
+        MeiElement el = doc.getRootElement().getChildren().get(0);
+        assertThat(el.getTag(), is(MeiTag.NOTE));
+        assertThat(el.getAttributes().get(0).getName(), is(sameInstance(MeiAttributeName.PNAME)));
+    }
+
+    /**
+     * Text and CDATA sections next to each other are all kept
+     */
+    @Test
+    public void testReadMixedContent() {
+        String docText = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+                + "<syl>a<![CDATA[<b>]]>c</syl><!--x-->d<![CDATA[e]]></mei>";
+        MeiDocument doc = MeiXmlReader.loadDocument(docText);
+        MeiElement syl = doc.getRootElement().getChildren().get(0);
+        assertThat(syl.getValue(), is("a<b>c"));
+        assertThat(syl.getValueText().getSegments().size(), is(3));
+        assertThat(syl.getValueText().getSegments().get(1).isCData(), is(true));
+        assertThat(syl.getValueText().getSegments().get(2).isCData(), is(false));
+        MeiElement comment = doc.getRootElement().getChildren().get(1);
+        assertThat(comment.getTag(), is(MeiTag.COMMENT));
+        assertThat(comment.getTail(), is("de"));
+        assertThat(comment.getTailText().hasCData(), is(true));
+        assertThat(doc.getRootElement().getChildren().size(), is(2));
+    }
+
+    @Test
+    public void testWhitespace() {
+        String docText = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">\n  "
+                + "<p><hi>a</hi> <hi>b</hi></p>\n</mei>";
+        MeiDocument doc = MeiXmlReader.loadDocument(docText);
+        MeiElement p = doc.getRootElement().getChildren().get(0);
+        assertThat(doc.getRootElement().getValue(), is("\n  "));
+        assertThat(p.getTail(), is("\n"));
+
+        MeiReaderOptions options = new MeiReaderOptions().setWhitespace(MeiReaderOptions.Whitespace.DISCARD);
+        doc = MeiXmlReader.loadDocument(docText, options);
+        p = doc.getRootElement().getChildren().get(0);
+        assertThat(doc.getRootElement().getValue(), is(nullValue()));
+        assertThat(p.getTail(), is(nullValue()));
+        // Whitespace without a line break is content
+        assertThat(p.getChildren().get(0).getTail(), is(" "));
+
+        options.setWhitespace(MeiReaderOptions.Whitespace.COLLAPSE);
+        doc = MeiXmlReader.loadDocument(docText, options);
+        p = doc.getRootElement().getChildren().get(0);
+        assertThat(doc.getRootElement().getValueText(), is(sameInstance(MeiText.WHITESPACE)));
+        assertThat(p.getTailText(), is(sameInstance(MeiText.WHITESPACE)));
+    }
+
+    @Test
+    public void testWhitespaceRewrite() throws URISyntaxException {
+        File f = new File(getClass().getResource("/artic.mei").toURI());
+        MeiReaderOptions options = new MeiReaderOptions().setWhitespace(MeiReaderOptions.Whitespace.DISCARD);
+        String discarded = MeiXmlWriter.createDocument(MeiXmlReader.loadFile(f, options));
+        options.setWhitespace(MeiReaderOptions.Whitespace.COLLAPSE);
+        String collapsed = MeiXmlWriter.createDocument(MeiXmlReader.loadFile(f, options));
+        // Elements without an id in the file get a new random one
+        String generatedId = " xml:id=\"[0-9a-f-]{36}\"";
+        assertThat(collapsed.replaceAll(generatedId, ""), is(discarded.replaceAll(generatedId, "")));
+        // The writer's own indentation is read and written the same way again
+        assertThat(MeiXmlWriter.createDocument(MeiXmlReader.loadDocument(discarded, options)), is(discarded));
+        assertThat(discarded, containsString("\n    <meiHead "));
+    }
+
+    @Test
+    public void testExclude() {
+        String docText = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+                + "<meiHead><fileDesc/></meiHead>a<facsimile><surface/></facsimile>b"
+                + "<music><facsimile/><body/></music></mei>";
+        MeiReaderOptions options = new MeiReaderOptions().exclude("facsimile", "/mei/meiHead");
+        MeiDocument doc = MeiXmlReader.loadDocument(docText, options);
+        MeiElement root = doc.getRootElement();
+        assertThat(root.getChildren().size(), is(1));
+        assertThat(root.getChildren().get(0).getName(), is("music"));
+        assertThat(root.getChildren().get(0).getChildren().size(), is(1));
+        // The text on both sides of a skipped element is joined
+        assertThat(root.getValue(), is("ab"));
+        assertThat(doc.getElementsByName("surface").size(), is(0));
+    }
+
+    @Test
+    public void testInclude() {
+        String docText = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+                + "<meiHead><fileDesc/></meiHead>"
+                + "<music><body><mdiv><score><scoreDef meter.count=\"4\"><staffGrp/></scoreDef>"
+                + "<section><measure n=\"1\"><staff><layer><note/>x</layer></staff></measure><sb/>"
+                + "<measure n=\"2\"/></section></score></mdiv></body></music></mei>";
+        MeiReaderOptions options = new MeiReaderOptions().include("scoreDef", "measure");
+        MeiDocument doc = MeiXmlReader.loadDocument(docText, options);
+        MeiElement root = doc.getRootElement();
+        assertThat(root.getAttribute("meiversion"), is("2012"));
+        assertThat(root.getChildren().size(), is(1));
+        assertThat(doc.getElementsByName("meiHead").size(), is(0));
+        assertThat(doc.getElementsByName("sb").size(), is(0));
+        assertThat(doc.getElementsByName("measure").size(), is(2));
+        assertThat(doc.getElementsByName("staffGrp").size(), is(1));
+        assertThat(doc.getElementsByName("layer").get(0).getTail(), is(nullValue()));
+        assertThat(doc.getElementsByName("note").get(0).getTail(), is("x"));
+
+        // Excluding wins over including
+        options.exclude("staff");
+        doc = MeiXmlReader.loadDocument(docText, options);
+        assertThat(doc.getElementsByName("measure").size(), is(2));
+        assertThat(doc.getElementsByName("note").size(), is(0));
+    }
+
+    /**
+     * Only the elements that are kept count against the element limit.
+     */
+    @Test
+    public void testIncludeMaxElements() {
+        StringBuilder sb = new StringBuilder("<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+                + "<meiHead><fileDesc/></meiHead><music><body><mdiv><score><section>");
+        for (int i = 0; i < 200; i++) {
+            sb.append("<measure><staff><layer><note/></layer></staff></measure>");
+        }
+        sb.append("</section></score></mdiv></body></music></mei>");
+        MeiReaderOptions options = new MeiReaderOptions().include("meiHead").setMaxElements(10);
+        MeiDocument doc = MeiXmlReader.loadDocument(sb.toString(), options);
+        assertThat(doc.getRootElement().getChildren().size(), is(1));
+        assertThat(doc.getElementsByName("fileDesc").size(), is(1));
+        assertThat(doc.getElementsByName("music").size(), is(0));
+
+        // An anchored path skips what can't lead to it
+        options = new MeiReaderOptions().include("/mei/music/body/mdiv/score/section/measure/staff").setMaxElements(1000);
+        doc = MeiXmlReader.loadDocument(sb.toString(), options);
+        assertThat(doc.getElementsByName("meiHead").size(), is(0));
+        assertThat(doc.getElementsByName("measure").size(), is(200));
+        assertThat(doc.getElementsByName("note").size(), is(200));
+    }
+
+    @Test
+    public void testParseFragment() {
+        MeiElement measure = MeiXmlReader.parseFragment("<measure n=\"3\"><staff n=\"1\"/><!--c--></measure>");
+        assertThat(measure.getTag(), is(MeiTag.MEASURE));
+        assertThat(measure.getNamespace(), is(MeiElement.DEFAULT_NAMESPACE));
+        assertThat(measure.getAttribute("n"), is("3"));
+        assertThat(measure.getChildren().get(0).getTag(), is(MeiTag.STAFF));
+        assertThat(measure.getChildren().get(1).getTag(), is(MeiTag.COMMENT));
+        assertThat(measure.getParent(), is(nullValue()));
+
+        // The parser is reused after an error
+        try {
+            MeiXmlReader.parseFragment("<measure>");
+            fail("Should have thrown an exception");
+        } catch (MeiXmlReadException e) {
+        }
+        MeiElement staff = MeiXmlReader.parseFragment(
+                new ByteArrayInputStream("<staff xmlns=\"http://www.music-encoding.org/ns/mei\">\u00e9</staff>".getBytes(UTF_8)));
+        assertThat(staff.getValue(), is("\u00e9"));
+    }
+
+    @Test
+    public void testExternalDtd() throws IOException {
+        // The DTD isn't fetched, so this doesn't fail or wait for the network
+        String docText = "<!DOCTYPE mei SYSTEM \"http://example.invalid/mei.dtd\">"
+                + "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">&composer;</mei>";
+        MeiDocument doc = MeiXmlReader.loadDocument(docText);
+        assertThat(doc.getRootElement().getValue(), is(nullValue()));
+
+        File dtd = File.createTempFile("mei", ".dtd");
+        dtd.deleteOnExit();
+        FileUtils.writeStringToFile(dtd, "<!ENTITY composer \"Bach\">", "UTF-8");
+        MeiReaderOptions options = new MeiReaderOptions()
+                .addCatalogEntry("http://example.invalid/mei.dtd", dtd.toURI().toURL());
+        doc = MeiXmlReader.loadDocument(docText, options);
+        assertThat(doc.getRootElement().getValue(), is("Bach"));
+    }
+
+    @Test
+    public void testRejectDoctype() {
+        String docText = "<!DOCTYPE mei [<!ENTITY a \"aaaaaaaaaa\">]>"
+                + "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">&a;</mei>";
+        assertThat(MeiXmlReader.loadDocument(docText).getRootElement().getValue(), is("aaaaaaaaaa"));
+        try {
+            MeiXmlReader.loadDocument(docText, new MeiReaderOptions().setRejectDoctype(true));
+            fail("Should have thrown an exception");
+        } catch (MeiXmlReadException e) {
+            assertThat(e.getMessage(), containsString("DOCTYPE"));
+        }
+        // The pooled parser doesn't keep the setting
+        assertThat(MeiXmlReader.loadDocument(docText).getRootElement().getValue(), is("aaaaaaaaaa"));
+    }
 }
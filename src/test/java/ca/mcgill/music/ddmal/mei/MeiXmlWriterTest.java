@@ -1,14 +1,20 @@
 package ca.mcgill.music.ddmal.mei;
 
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import ca.mcgill.music.ddmal.mei.MeiXmlWriter.MeiXmlWriteException;
+
 public class MeiXmlWriterTest {
 
     private String xmlHeader = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n";
@@ -64,6 +70,28 @@ public class MeiXmlWriterTest {
         assertThat(MeiXmlWriter.createDocument(doc), is(expected));
 	}
 
+	@Test
+	public void testCData() {
+        MeiElement ch = new MeiElement("syl");
+        ch.setValueText(MeiText.of("a&").appendCData("<b>").append("c"));
+        ch.setTailText(MeiText.cdata("x]]>y"));
+        ch.setId("id2");
+        root.addChild(ch);
+        root.setId("id1");
+        doc.setRootElement(root);
+
+        String expected = xmlHeader + "<mei xml:id=\"id1\" xmlns=\"http://www.music-encoding.org/ns/mei\">\n"
+                + "    <syl xml:id=\"id2\">a&amp;<![CDATA[<b>]]>c</syl><![CDATA[x]]]]><![CDATA[>y]]></mei>\n";
+        String written = MeiXmlWriter.createDocument(doc);
+        assertThat(written, is(expected));
+
+        root.addAttribute("meiversion", "2012");
+        MeiDocument read = MeiXmlReader.loadDocument(MeiXmlWriter.createDocument(doc));
+        MeiElement syl = read.getRootElement().getChildren().get(0);
+        assertThat(syl.getValueText(), is(ch.getValueText()));
+        assertThat(syl.getTail(), is("x]]>y"));
+	}
+
 	@Test
 	public void testComment() {
         MeiElement comm = new MeiElement("#comment");
@@ -76,6 +104,29 @@ public class MeiXmlWriterTest {
         assertThat(MeiXmlWriter.createDocument(doc), is(expected));
 	}
 
+    /**
+     * Dashes that would end the comment or make it ill-formed are
+     * separated with a space.
+     */
+    @Test
+    public void testCommentDashes() {
+        MeiElement comm = new MeiElement("#comment");
+        comm.setValue("a--b-");
+        root.addChild(comm);
+        root.setId("id1");
+        doc.setRootElement(root);
+
+        String expected = xmlHeader + "<mei xml:id=\"id1\" xmlns=\"http://www.music-encoding.org/ns/mei\">\n    <!--a- -b- -->\n</mei>\n";
+        assertThat(MeiXmlWriter.createDocument(doc), is(expected));
+    }
+
+    @Test(expected = MeiXmlWriteException.class)
+    public void testUnpairedSurrogate() {
+        root.setValue("a\ud834b");
+        doc.setRootElement(root);
+        MeiXmlWriter.createDocument(doc);
+    }
+
 	@Test
 	public void testTreeWrite() {
         root.setId("r");
@@ -122,8 +173,206 @@ public class MeiXmlWriterTest {
         doc.setRootElement(root);
         root.addChild(graphic);
 
-        String expected = xmlHeader + "<mei meiversion=\"2012\" xml:id=\"id1\" xmlns=\"http://www.music-encoding.org/ns/mei\">\n" +
-                "    <graphic xmlns:ns0=\"http://www.w3.org/1999/xlink\" ns0:title=\"My image\" xml:id=\"id2\"/>\n</mei>\n";
+        String expected = xmlHeader + "<mei meiversion=\"2012\" xml:id=\"id1\" xmlns=\"http://www.music-encoding.org/ns/mei\" "
+                + "xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n" +
+                "    <graphic xlink:title=\"My image\" xml:id=\"id2\"/>\n</mei>\n";
         assertThat(MeiXmlWriter.createDocument(doc), is(expected));
 	}
+
+    @Test
+    public void testNamespaceHoisted() {
+        String xml = xmlHeader + "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\">"
+                + "<graphic xmlns:xlink=\"http://www.w3.org/1999/xlink\" xlink:title=\"a\"/>"
+                + "<graphic xmlns:xlink=\"http://www.w3.org/1999/xlink\" xlink:title=\"b\"/></mei>";
+        MeiDocument read = MeiXmlReader.loadDocument(xml);
+        read.getRootElement().getChildren().get(0).setId("g1");
+        read.getRootElement().getChildren().get(1).setId("g2");
+        read.getRootElement().setId("m");
+        // The declarations are kept as attributes of each <graphic>, but
+        // only written on the root
+        String out = MeiXmlWriter.createDocument(read);
+        assertThat(out.indexOf("xmlns:xlink"), is(out.lastIndexOf("xmlns:xlink")));
+        assertThat(out.contains("<mei xmlns=\"http://www.music-encoding.org/ns/mei\" meiversion=\"2012\" xml:id=\"m\" "
+                + "xmlns:xlink=\"http://www.w3.org/1999/xlink\">"), is(true));
+        assertThat(out.contains("<graphic xlink:title=\"a\" xml:id=\"g1\"/>"), is(true));
+        assertThat(MeiXmlReader.loadDocument(out).getRootElement().getChildren().get(1).getAttribute("xlink:title"), is("b"));
+    }
+
+    @Test
+    public void testEscape() {
+        root.setId("id1");
+        root.addAttribute("label", "<a & \"b\">");
+        root.setValue("1 < 2 & \"3\" \u00e9\ud834\udd1e");
+        doc.setRootElement(root);
+
+        String expected = xmlHeader + "<mei label=\"&lt;a &amp; &quot;b&quot;&gt;\" xml:id=\"id1\" " +
+                "xmlns=\"http://www.music-encoding.org/ns/mei\">1 &lt; 2 &amp; \"3\" \u00e9\ud834\udd1e</mei>\n";
+        assertThat(MeiXmlWriter.createDocument(doc), is(expected));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        URL url = getClass().getResource("/artic.mei");
+        MeiDocument read = MeiXmlReader.loadFile(url.getFile());
+        String written = MeiXmlWriter.createDocument(read);
+        MeiDocument reread = MeiXmlReader.loadDocument(written);
+        assertThat(MeiXmlWriter.createDocument(reread), is(written));
+    }
+
+    private String save(MeiXmlWriter writer) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writer.save(os);
+        return os.toString("UTF-8");
+    }
+
+    @Test
+    public void testIncremental() throws IOException {
+        root.setId("r");
+        MeiElement m1 = new MeiElement("measure");
+        m1.setId("m1");
+        MeiElement m2 = new MeiElement("measure");
+        m2.setId("m2");
+        MeiElement n1 = new MeiElement("note");
+        n1.setId("n1");
+        MeiElement n2 = new MeiElement("note");
+        n2.setId("n2");
+        root.addChild(m1);
+        root.addChild(m2);
+        m1.addChild(n1);
+        m2.addChild(n2);
+        doc.setRootElement(root);
+
+        MeiXmlWriter writer = MeiXmlWriter.incrementalWriter(doc);
+        assertThat(save(writer), is(MeiXmlWriter.createDocument(doc)));
+
+        // A change to one measure is written
+        n2.addAttribute("pname", "d");
+        String changed = save(writer);
+        assertThat(changed.contains("pname=\"d\""), is(true));
+        assertThat(changed, is(MeiXmlWriter.createDocument(doc)));
+
+        // Changing the value of an attribute is reported by its element
+        n2.getAttributes().get(0).setValue("e");
+        changed = save(writer);
+        assertThat(changed.contains("pname=\"e\""), is(true));
+        assertThat(changed.contains("pname=\"d\""), is(false));
+
+        // An attribute added to a second element is copied, so each
+        // element reports changes to its own attribute
+        MeiAttribute oct = new MeiAttribute("oct", "4");
+        n1.addAttribute(oct);
+        n2.addAttribute(oct);
+        save(writer);
+        oct.setValue("5");
+        assertThat(save(writer), is(MeiXmlWriter.createDocument(doc)));
+        n2.getAttributes().get(1).setValue("3");
+        assertThat(save(writer), is(MeiXmlWriter.createDocument(doc)));
+        assertThat(n1.getAttribute("oct"), is("5"));
+
+        // Moving a measure to a different depth writes it again
+        MeiElement section = new MeiElement("section");
+        section.setId("s");
+        root.removeChild(m1);
+        root.addChild(section);
+        section.addChild(m1);
+        assertThat(save(writer), is(MeiXmlWriter.createDocument(doc)));
+
+        writer.close();
+    }
+
+    /**
+     * An incremental writer follows the namespaces used in the document
+     * without searching it on every save.
+     */
+    @Test
+    public void testIncrementalNamespaces() throws IOException {
+        MeiNamespace xlink = new MeiNamespace("http://www.w3.org/1999/xlink", "xlink");
+        root.setId("r");
+        MeiElement m1 = new MeiElement("measure");
+        m1.setId("m1");
+        root.addChild(m1);
+        doc.setRootElement(root);
+
+        MeiXmlWriter writer = MeiXmlWriter.incrementalWriter(doc);
+        assertThat(save(writer), is(MeiXmlWriter.createDocument(doc)));
+
+        MeiElement graphic = new MeiElement("graphic");
+        graphic.setId("g1");
+        graphic.addAttribute(new MeiAttribute(xlink, "xlink:title", "a"));
+        m1.addChild(graphic);
+        String added = save(writer);
+        assertThat(added, is(MeiXmlWriter.createDocument(doc)));
+        assertThat(added.contains("<mei xml:id=\"r\" xmlns=\"http://www.music-encoding.org/ns/mei\" "
+                + "xmlns:xlink=\"http://www.w3.org/1999/xlink\">"), is(true));
+
+        m1.removeChild(graphic);
+        String removed = save(writer);
+        assertThat(removed, is(MeiXmlWriter.createDocument(doc)));
+        assertThat(removed.contains("xlink"), is(false));
+
+        writer.close();
+    }
+
+    @Test
+    public void canonical() {
+        root.setId("id1");
+        root.addAttribute("meiversion", "2012");
+        root.addAttribute("xmlns:xlink", "http://www.w3.org/1999/xlink");
+        MeiElement graphic = new MeiElement("graphic");
+        graphic.addAttribute("width", "10");
+        graphic.addAttribute(new MeiAttribute(new MeiNamespace("http://www.w3.org/1999/xlink", "xlink"), "xlink:title", "a"));
+        graphic.addAttribute("height", "20");
+        root.setValue("\n  ");
+        graphic.setTail("\n");
+        graphic.setValueText(MeiText.cdata("<x>"));
+        root.addChild(graphic);
+        doc.setRootElement(root);
+
+        // The graphic's generated id isn't written
+        String expected = "<mei xmlns=\"http://www.music-encoding.org/ns/mei\" xmlns:ns0=\"http://www.w3.org/1999/xlink\" "
+                + "meiversion=\"2012\" xml:id=\"id1\"><graphic height=\"20\" width=\"10\" ns0:title=\"a\">&lt;x&gt;</graphic></mei>";
+        assertThat(MeiXmlWriter.createCanonicalDocument(doc), is(expected));
+    }
+
+    @Test
+    public void fingerprint() throws Exception {
+        File f = new File(getClass().getResource("/artic.mei").toURI());
+        MeiDocument first = MeiXmlReader.loadFile(f);
+        MeiDocument second = MeiXmlReader.loadFile(f, new MeiReaderOptions().setWhitespace(MeiReaderOptions.Whitespace.DISCARD));
+        byte[] hash = MeiXmlWriter.fingerprint(first);
+        assertThat(hash.length, is(32));
+        // Generated ids and indentation don't change the hash
+        assertThat(MeiXmlWriter.fingerprint(second), is(hash));
+        assertThat(MeiXmlWriter.fingerprint(MeiXmlReader.loadFile(f)), is(hash));
+
+        MeiElement measure = second.getElementById("d1e12");
+        byte[] measureHash = MeiXmlWriter.fingerprint(measure);
+        assertThat(MeiXmlWriter.fingerprint(measure.copy()), is(measureHash));
+        assertThat(MeiXmlWriter.fingerprint(measure, "MD5").length, is(16));
+
+        measure.addAttribute("n", "2");
+        assertThat(MeiXmlWriter.fingerprint(measure), is(not(measureHash)));
+        assertThat(MeiXmlWriter.fingerprint(second), is(not(hash)));
+    }
+
+    @Test
+    public void testWriteFragment() {
+        MeiElement measure = new MeiElement("measure");
+        measure.setId("m1");
+        MeiElement staff = new MeiElement("staff");
+        staff.setId("s1");
+        measure.addChild(staff);
+        staff.addAttribute(new MeiAttribute(new MeiNamespace("http://www.w3.org/1999/xlink", "xlink"), "title", "a"));
+        root.addChild(measure);
+
+        String expected = "<measure xml:id=\"m1\" xmlns=\"http://www.music-encoding.org/ns/mei\" "
+                + "xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n"
+                + "    <staff xlink:title=\"a\" xml:id=\"s1\"/>\n</measure>";
+        String fragment = MeiXmlWriter.createFragment(measure);
+        assertThat(fragment, is(expected));
+        // The declarations are read as attributes, so they come first
+        String again = MeiXmlWriter.createFragment(MeiXmlReader.parseFragment(fragment));
+        assertThat(again, containsString("<measure xmlns=\"http://www.music-encoding.org/ns/mei\" "));
+        assertThat(MeiXmlWriter.createFragment(MeiXmlReader.parseFragment(again)), is(again));
+    }
 }